@@ -0,0 +1,397 @@
+package org.featherj;
+
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.NotFoundResult;
+import org.featherj.actions.ResponseBuilder;
+import org.featherj.actions.ServiceUnavailableResult;
+import org.featherj.routes.BatchRoute;
+import org.featherj.routes.Dispatcher;
+import org.featherj.routes.HttpMethod;
+import org.featherj.routes.Route;
+import org.featherj.routes.RoutePriority;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Batches of {@link BatchRoute}s of {@link EntryServlet}: sub-requests are routed and run like ordinary
+ * requests (the servlet provides routing, admission and actions) and their responses are streamed
+ * as a multipart response.
+ */
+abstract class BatchRunner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final DefaultResponseBuilder responseBuilder;
+    private final DefaultResponseBuilder headResponseBuilder;
+    private final ErrorHandler errorHandler;
+    // response to sub-requests rejected by the limiter or by a full bulkhead
+    private final ActionResult overloadedResult;
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis Timeout of batches and of {@link AsyncResult}s of sub-requests without their own timeout
+     */
+    BatchRunner(DefaultResponseBuilder responseBuilder, DefaultResponseBuilder headResponseBuilder,
+                ErrorHandler errorHandler, ActionResult overloadedResult, long timeoutMillis) {
+        this.responseBuilder = responseBuilder;
+        this.headResponseBuilder = headResponseBuilder;
+        this.errorHandler = errorHandler;
+        this.overloadedResult = overloadedResult;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return Permit of a request at the priority or null if the request is rejected
+     */
+    abstract ConcurrencyLimiter.Permit acquire(RoutePriority priority);
+
+    /**
+     * @return First dispatcher matching the sub-request or null
+     */
+    abstract Dispatcher matchDispatcher(HttpMethod method, Request request);
+
+    /**
+     * @return Route matched by the sub-request or null
+     */
+    abstract Route resolve(HttpMethod method, RequestImpl request);
+
+    /**
+     * @return Result of a sub-request matched by neither a dispatcher nor a route
+     */
+    abstract ActionResult notMatched(Request request);
+
+    /**
+     * @return Result of the action of the route (within its bulkhead if any) or null if the bulkhead is full
+     */
+    abstract ActionResult runAction(Route route, RequestImpl request) throws Exception;
+
+    /**
+     * Runs sub-requests of the batch on the batch thread pool and writes their responses as they complete.
+     * The container thread is released if the request can be put into asynchronous mode.
+     * Sub-requests that don't complete within the default timeout of asynchronous results get
+     * "503 Service Unavailable".
+     *
+     * @param mayStartAsync false if the batch should be waited for by the current thread
+     */
+    void run(BatchRoute route, final HttpServletRequest req, final HttpServletResponse resp, boolean mayStartAsync)
+            throws Exception {
+        final List<BatchRoute.Part> parts;
+        try {
+            parts = route.parse(req.getReader());
+        }
+        catch (IllegalArgumentException e) {
+            new BytesResult(HttpServletResponse.SC_BAD_REQUEST, "text/plain;charset=UTF-8",
+                Collections.<String, String>emptyMap(), e.getMessage().getBytes(UTF_8)).callBuilder(responseBuilder, resp);
+            return;
+        }
+        ConcurrencyLimiter.Permit permit = acquire(route.getPriority());
+        if (permit == null) {
+            overloadedResult.callBuilder(responseBuilder, resp);
+            return;
+        }
+
+        AsyncContext context = null;
+        final BatchResponse batch = new BatchResponse(resp, parts.size(), permit);
+        if (mayStartAsync && req.isAsyncSupported()) {
+            context = req.startAsync(req, resp);
+            context.setTimeout(timeoutMillis);
+            context.addListener(batch);
+        }
+        batch.start(context);
+        final Map<String, String> headers = partHeaders(req);
+        for (int i = 0; i < parts.size(); i++) {
+            final int index = i;
+            final BatchRoute.Part part = parts.get(i);
+            CompletableFuture<ActionResult> future = route.getPartBulkhead().run(new Callable<ActionResult>() {
+                @Override
+                public ActionResult call() throws Exception {
+                    return runPart(part, headers, resp);
+                }
+            });
+            if (future == null) {
+                batch.write(index, buffer(overloadedResult, responseBuilder, resp));
+                continue;
+            }
+            future.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+                @Override
+                public void accept(ActionResult result, Throwable error) {
+                    if (error != null) {
+                        BufferedResponse buffer = new BufferedResponse(resp);
+                        errorHandler.handle(req, buffer, EntryServlet.unwrap(error));
+                        result = buffer.toResult();
+                    }
+                    batch.write(index, (BytesResult) result);
+                }
+            });
+        }
+        if (context == null && !batch.await(timeoutMillis)) {
+            batch.timeOut();
+        }
+    }
+
+    /**
+     * Multipart response of a batch. Parts are written by threads that complete them, the response
+     * is finished by the last part or when the batch times out (parts completed later are dropped).
+     */
+    private final class BatchResponse implements AsyncListener {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final HttpServletResponse resp;
+        private final String boundary = "batch_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        private final boolean[] written;
+        private final ConcurrencyLimiter.Permit permit;
+        private int remaining;
+        private AsyncContext context;
+        private ServletOutputStream out;
+
+        private BatchResponse(HttpServletResponse resp, int parts, ConcurrencyLimiter.Permit permit) {
+            this.resp = resp;
+            this.written = new boolean[parts];
+            this.remaining = parts;
+            this.permit = permit;
+        }
+
+        /**
+         * @param context Context of asynchronous request (completed when the batch is finished) or null
+         */
+        void start(AsyncContext context) throws IOException {
+            this.context = context;
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType("multipart/mixed; boundary=" + boundary);
+            out = resp.getOutputStream();
+        }
+
+        void write(int index, BytesResult result) {
+            boolean last;
+            lock.lock();
+            try {
+                if (remaining == 0 || written[index]) {
+                    return;
+                }
+                written[index] = true;
+                last = --remaining == 0;
+                try {
+                    writePart(out, boundary, index, result);
+                    if (last) {
+                        out.write(("--" + boundary + "--\r\n").getBytes(ISO_8859_1));
+                    }
+                    // every part is sent as soon as it's ready
+                    out.flush();
+                }
+                catch (IOException ignored) {
+                    // client has gone, the rest of the batch is still counted
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            if (last) {
+                finish(false);
+            }
+        }
+
+        /**
+         * Writes "503 Service Unavailable" parts for sub-requests that haven't completed yet.
+         */
+        void timeOut() {
+            lock.lock();
+            try {
+                if (remaining == 0) {
+                    return;
+                }
+                remaining = 0;
+                try {
+                    BytesResult timedOut = buffer(ServiceUnavailableResult.INSTANCE, responseBuilder, resp);
+                    for (int i = 0; i < written.length; i++) {
+                        if (!written[i]) {
+                            writePart(out, boundary, i, timedOut);
+                        }
+                    }
+                    out.write(("--" + boundary + "--\r\n").getBytes(ISO_8859_1));
+                    out.flush();
+                }
+                catch (IOException ignored) {
+                    // client has gone
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            finish(true);
+        }
+
+        boolean await(long timeoutMillis) throws InterruptedException {
+            return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish(boolean timedOut) {
+            // latency is sampled by sub-requests, a batch only reports that it has timed out
+            if (timedOut) {
+                permit.release(true);
+            }
+            else {
+                permit.cancel();
+            }
+            finished.countDown();
+            if (context != null) {
+                context.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            timeOut();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // client has gone, there is nobody to respond to
+            lock.lock();
+            try {
+                if (remaining == 0) {
+                    return;
+                }
+                remaining = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+            finish(false);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * @return Headers of the batch request passed to its sub-requests (e.g. Cookie and Authorization),
+     *         except Range, conditional and body headers, which don't apply to sub-requests
+     */
+    private static Map<String, String> partHeaders(HttpServletRequest req) {
+        Map<String, String> headers = new HashMap<String, String>();
+        Enumeration<String> names = req.getHeaderNames();
+        if (names == null) {
+            // the container doesn't allow access to headers
+            return headers;
+        }
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            if (!lowerCase.equals("range") && !lowerCase.startsWith("if-") && !lowerCase.startsWith("content-")) {
+                headers.put(name, req.getHeader(name));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Runs sub-request of a batch like an ordinary request (but without a body) and renders its response.
+     */
+    private BytesResult runPart(BatchRoute.Part part, Map<String, String> headers, HttpServletResponse resp) throws Exception {
+        HttpMethod method = part.getMethod();
+        RequestImpl request = RequestImpl.forUrl(part.getUrl(), headers);
+        ResponseBuilder builder = method == HttpMethod.HEAD ? headResponseBuilder : responseBuilder;
+        Dispatcher dispatcher = matchDispatcher(method, request);
+        Route route = dispatcher == null ? resolve(method, request) : null;
+        if (dispatcher == null && route == null) {
+            return buffer(notMatched(request), builder, resp);
+        }
+        if (route instanceof BatchRoute) {
+            return new BytesResult(HttpServletResponse.SC_BAD_REQUEST, "text/plain;charset=UTF-8",
+                Collections.<String, String>emptyMap(), "Batches can't be nested".getBytes(UTF_8));
+        }
+
+        ConcurrencyLimiter.Permit permit = acquire(route != null ? route.getPriority() : RoutePriority.NORMAL);
+        if (permit == null) {
+            return buffer(overloadedResult, builder, resp);
+        }
+        boolean timedOut = false;
+        try {
+            ActionResult result = route != null ? runAction(route, request) : dispatcher.dispatch(method, request);
+            if (result instanceof AsyncResult) {
+                AsyncResult asyncResult = (AsyncResult) result;
+                long timeout = asyncResult.getTimeoutMillis() >= 0 ? asyncResult.getTimeoutMillis() : timeoutMillis;
+                try {
+                    result = asyncResult.getStage().toCompletableFuture().get(timeout, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                    timedOut = true;
+                    result = ServiceUnavailableResult.INSTANCE;
+                }
+                catch (ExecutionException e) {
+                    throw EntryServlet.unwrap(e.getCause());
+                }
+                if (result == null) {
+                    result = NotFoundResult.INSTANCE;
+                }
+            }
+            else if (result == null) {
+                // the bulkhead is full (or the dispatched action has no result)
+                result = route != null ? overloadedResult : NotFoundResult.INSTANCE;
+            }
+            return buffer(result, builder, resp);
+        }
+        finally {
+            permit.release(timedOut);
+        }
+    }
+
+    private static BytesResult buffer(ActionResult result, ResponseBuilder builder, HttpServletResponse resp) throws IOException {
+        BufferedResponse buffer = new BufferedResponse(resp);
+        result.callBuilder(builder, buffer);
+        return buffer.toResult();
+    }
+
+    /**
+     * Writes "application/http" part of a batch response.
+     */
+    private static void writePart(ServletOutputStream out, String boundary, int index, BytesResult result) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        head.append("--").append(boundary).append("\r\n")
+            .append("Content-Type: application/http\r\n")
+            .append("Content-ID: <response-").append(index).append(">\r\n\r\n")
+            .append("HTTP/1.1 ").append(result.getStatus()).append(" \r\n");
+        if (result.getMimeType() != null) {
+            head.append("Content-Type: ").append(result.getMimeType()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(result.getBody().length).append("\r\n");
+        for (Map.Entry<String, String> header : result.getHeaders().entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(ISO_8859_1));
+        out.write(result.getBody());
+        out.write('\r');
+        out.write('\n');
+    }
+}
@@ -0,0 +1,206 @@
+package org.featherj;
+
+import org.featherj.actions.BytesResult;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response which keeps status, headers and body in memory instead of sending them, so any
+ * {@link org.featherj.actions.ActionResult} can be built into {@link BytesResult} (e.g. a part of a batch).
+ * Only content related methods are captured, the rest is delegated to the wrapped response.
+ */
+class BufferedResponse extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding = "UTF-8";
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    BufferedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return Captured response
+     */
+    BytesResult toResult() {
+        if (writer != null) {
+            writer.flush();
+        }
+        return new BytesResult(status, contentType, headers, body.toByteArray());
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        status = sc;
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        status = SC_FOUND;
+        headers.put("Location", location);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            // the length of the captured body is used
+            return;
+        }
+        headers.put(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        String current = headers.get(name);
+        headers.put(name, current != null ? current + ", " + value : value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, Integer.toString(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, Integer.toString(value));
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        String value = headers.get(name);
+        return value != null ? Collections.singletonList(value) : Collections.<String>emptyList();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return headers.keySet();
+    }
+
+    @Override
+    public void setContentType(String type) {
+        contentType = type;
+        int i = type != null ? type.indexOf("charset=") : -1;
+        if (i != -1) {
+            characterEncoding = type.substring(i + "charset=".length()).trim();
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        characterEncoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // the length of the captured body is used
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (out == null) {
+            out = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+            };
+        }
+        return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(body, characterEncoding));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentType = null;
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        body.reset();
+    }
+}
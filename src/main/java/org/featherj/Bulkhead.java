@@ -0,0 +1,216 @@
+package org.featherj;
+
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Named group of routes (see {@link org.featherj.routes.Route#withBulkhead(String)}) which actions are
+ * isolated from the rest of the application: a slow route family can use up only its own threads
+ * (or permits), so tail latency of other routes isn't affected.
+ *
+ * A thread pool bulkhead runs actions on its own bounded pool with a bounded queue, the container thread
+ * is released while the action waits in the queue or runs. Actions waiting for their asynchronous results
+ * take places in the queue. A semaphore bulkhead runs actions on the request
+ * thread, but limits how many of them run (or wait for their asynchronous results) at once.
+ * Actions that don't fit are rejected ("503 Service Unavailable").
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    // null for semaphore bulkheads
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private Bulkhead(String name, int maxConcurrent, int maxQueued, boolean threadPool) {
+        if (maxConcurrent < 1 || maxQueued < 0) {
+            throw new IllegalArgumentException("maxConcurrent >= 1 and maxQueued >= 0 are expected");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        if (threadPool) {
+            this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0, TimeUnit.MILLISECONDS,
+                maxQueued > 0 ? new ArrayBlockingQueue<Runnable>(maxQueued) : new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "featherj-bulkhead-" + Bulkhead.this.name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        else {
+            this.executor = null;
+        }
+        // actions running or waiting for asynchronous results, and queued actions
+        this.permits = new Semaphore(maxConcurrent + maxQueued);
+    }
+
+    /**
+     * Creates bulkhead which runs actions on its own threads.
+     *
+     * @param threads Number of threads (maximum number of actions run at once)
+     * @param maxQueued Maximum number of actions waiting for a thread
+     */
+    public static Bulkhead threadPool(String name, int threads, int maxQueued) {
+        return new Bulkhead(name, threads, maxQueued, true);
+    }
+
+    /**
+     * Creates bulkhead which runs actions on request threads, but no more than specified number at once.
+     */
+    public static Bulkhead semaphore(String name, int maxConcurrent) {
+        return new Bulkhead(name, maxConcurrent, 0, false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Whether actions are run on threads of the bulkhead (otherwise on request threads)
+     */
+    public boolean isThreadPool() {
+        return executor != null;
+    }
+
+    /**
+     * Runs the action within the bulkhead. An action which returns {@link AsyncResult} keeps its thread
+     * (or permit) of the bulkhead until the stage of the result completes, otherwise asynchronous work
+     * would escape the limit: the pool thread is released, but the place in the queue is still taken.
+     *
+     * @return Future completed with the action result (already completed for semaphore bulkheads),
+     * or null if the bulkhead is full
+     */
+    public CompletableFuture<ActionResult> run(final Callable<ActionResult> action) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return null;
+        }
+        final CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        if (executor == null) {
+            call(action, future);
+            return future;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    call(action, future);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // shut down
+            permits.release();
+            rejected.increment();
+            return null;
+        }
+        return future;
+    }
+
+    private void call(Callable<ActionResult> action, CompletableFuture<ActionResult> future) {
+        active.incrementAndGet();
+        ActionResult result;
+        try {
+            result = action.call();
+        }
+        catch (Throwable e) {
+            release();
+            future.completeExceptionally(e);
+            return;
+        }
+        if (result instanceof AsyncResult) {
+            ((AsyncResult) result).getStage().whenComplete(new BiConsumer<ActionResult, Throwable>() {
+                @Override
+                public void accept(ActionResult actionResult, Throwable error) {
+                    release();
+                }
+            });
+        }
+        else {
+            release();
+        }
+        future.complete(result);
+    }
+
+    private void release() {
+        active.decrementAndGet();
+        completed.increment();
+        permits.release();
+    }
+
+    /**
+     * @return Number of actions being run or waiting for their asynchronous results
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return Number of actions waiting for a thread
+     */
+    public int getQueuedCount() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * @return Number of actions rejected because the bulkhead was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return Share of the bulkhead capacity (threads or permits and queue) in use, from 0 to 1
+     */
+    public double getSaturation() {
+        return (double) (maxConcurrent + maxQueued - permits.availablePermits()) / (maxConcurrent + maxQueued);
+    }
+
+    /**
+     * Writes one line of metrics: name, active/maximum, queued/maximum, saturation, completed and rejected counts.
+     */
+    public void dumpStats(Appendable out) throws IOException {
+        out.append(String.format(Locale.ROOT, "%-20s active %4d/%-4d queued %4d/%-4d saturation %6.2f%% completed %10d rejected %10d%n",
+            name, getActiveCount(), maxConcurrent, getQueuedCount(), maxQueued, getSaturation() * 100,
+            getCompletedCount(), getRejectedCount()));
+    }
+
+    /**
+     * Stops bulkhead threads (running actions are completed).
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
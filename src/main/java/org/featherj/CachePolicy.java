@@ -0,0 +1,98 @@
+package org.featherj;
+
+/**
+ * Caching of responses of a route (see {@link org.featherj.routes.Route#withResponseCache(CachePolicy)}
+ * and {@link ResponseCache}). Policies are immutable, "with" methods return modified copies.
+ */
+public final class CachePolicy {
+
+    /**
+     * Computes tags of a cached response from the request (e.g. "user:10"), so the response can be
+     * invalidated by {@link ResponseCache#invalidate(String)} when the data changes.
+     */
+    public interface Tagger {
+        String[] tags(Request request);
+    }
+
+    private static final String[] NONE = new String[0];
+
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final String[] vary;
+    private final String[] tags;
+    private final Tagger tagger;
+
+    private CachePolicy(long ttlMillis, long staleMillis, String[] vary, String[] tags, Tagger tagger) {
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.vary = vary;
+        this.tags = tags;
+        this.tagger = tagger;
+    }
+
+    /**
+     * @param ttlMillis How long a cached response is served without running the action
+     */
+    public static CachePolicy ttl(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Positive TTL is expected");
+        }
+        return new CachePolicy(ttlMillis, 0, NONE, NONE, null);
+    }
+
+    /**
+     * @param staleMillis How long after the TTL the stale response is still served while it's being
+     *                    refreshed in background (one refresh at a time)
+     */
+    public CachePolicy staleWhileRevalidate(long staleMillis) {
+        return new CachePolicy(ttlMillis, staleMillis, vary, tags, tagger);
+    }
+
+    /**
+     * @param headers Request headers which values are a part of the cache key (in addition to the route and URL),
+     *                e.g. "Accept-Language". Responses get corresponding Vary header.
+     */
+    public CachePolicy vary(String... headers) {
+        return new CachePolicy(ttlMillis, staleMillis, headers.clone(), tags, tagger);
+    }
+
+    /**
+     * @param tags Tags of all cached responses of the route
+     */
+    public CachePolicy tags(String... tags) {
+        return new CachePolicy(ttlMillis, staleMillis, vary, tags.clone(), tagger);
+    }
+
+    /**
+     * @param tagger Computes additional tags of every cached response
+     */
+    public CachePolicy tagger(Tagger tagger) {
+        return new CachePolicy(ttlMillis, staleMillis, vary, tags, tagger);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getStaleMillis() {
+        return staleMillis;
+    }
+
+    public String[] getVary() {
+        return vary;
+    }
+
+    /**
+     * @return Static tags and tags computed by the tagger, if any
+     */
+    public String[] getTags(Request request) {
+        if (tagger == null) {
+            return tags;
+        }
+        String[] computed = tagger.tags(request);
+        String[] all = new String[tags.length + computed.length];
+        System.arraycopy(tags, 0, all, 0, tags.length);
+        System.arraycopy(computed, 0, all, tags.length, computed.length);
+        return all;
+    }
+}
@@ -0,0 +1,179 @@
+package org.featherj;
+
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.SimpleResult;
+import org.featherj.routes.Route;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Results of routes with cache policy of {@link EntryServlet}: renders cacheable results into
+ * {@link ResponseCache} and refreshes stale responses in background. The servlet provides routing and actions.
+ */
+abstract class CacheRunner {
+
+    private static final Logger LOG = Logger.getLogger(EntryServlet.class.getName());
+
+    private final ResponseCache responseCache;
+    // null if responses aren't compressed
+    private final ResponseCompressor compressor;
+    private final long timeoutMillis;
+
+    /**
+     * @param compressor Compressor of the servlet (compressed variants are cached with the response) or null
+     * @param timeoutMillis Timeout of refreshes with {@link AsyncResult}s
+     */
+    CacheRunner(ResponseCache responseCache, ResponseCompressor compressor, long timeoutMillis) {
+        this.responseCache = responseCache;
+        this.compressor = compressor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return Route matched by the GET request or null
+     */
+    abstract Route resolve(RequestImpl request);
+
+    /**
+     * @return Result of the action of the route (within its bulkhead if any) or null if the bulkhead is full
+     */
+    abstract ActionResult runAction(Route route, RequestImpl request) throws Exception;
+
+    /**
+     * Runs the action and caches its result. The result isn't cached if any of its tags is invalidated
+     * while the action runs.
+     *
+     * @return Result (cached one if it has been cached) or null if the bulkhead is full
+     */
+    ActionResult run(RequestKey key, CachePolicy cachePolicy, Route route, RequestImpl request) throws Exception {
+        String[] tags = cachePolicy.getTags(request);
+        long generation = responseCache.generation(tags);
+        ActionResult result = runAction(route, request);
+        return result != null ? cacheResult(key, cachePolicy, tags, generation, result) : null;
+    }
+
+    /**
+     * Caches the result if it's cacheable (once it completes if it's asynchronous).
+     *
+     * @return Cached result or the result itself if it isn't cacheable
+     */
+    private ActionResult cacheResult(final RequestKey key, final CachePolicy cachePolicy, final String[] tags,
+                                     final long generation, ActionResult result) {
+        if (result instanceof AsyncResult) {
+            AsyncResult asyncResult = (AsyncResult) result;
+            return new AsyncResult(asyncResult.getStage().thenApply(new Function<ActionResult, ActionResult>() {
+                @Override
+                public ActionResult apply(ActionResult completed) {
+                    return cacheResult(key, cachePolicy, tags, generation, completed);
+                }
+            }), asyncResult.getTimeoutMillis());
+        }
+
+        BytesResult cacheable = toCacheable(result, cachePolicy);
+        if (cacheable == null) {
+            return result;
+        }
+        responseCache.put(key, cacheable, cachePolicy, tags, generation);
+        return cacheable;
+    }
+
+    /**
+     * @return Whether the response sets a cookie, such responses belong to one client and are never cached
+     */
+    private static boolean setsCookie(ActionResult result) {
+        for (String name : result.getHeaders().keySet()) {
+            if (name.equalsIgnoreCase("Set-Cookie")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Rendered result (with its compressed variants, so the cache counts them) or null if the result
+     * can't be cached
+     */
+    private BytesResult toCacheable(ActionResult result, CachePolicy cachePolicy) {
+        if (result == null || result.getStatus() != HttpServletResponse.SC_OK || setsCookie(result)) {
+            return null;
+        }
+        BytesResult bytes;
+        if (result instanceof BytesResult) {
+            bytes = (BytesResult) result;
+        }
+        else if (result.getClass() == SimpleResult.class) {
+            bytes = BytesResult.render((SimpleResult) result);
+        }
+        else {
+            return null;
+        }
+
+        String[] vary = cachePolicy.getVary();
+        if (vary.length > 0) {
+            StringBuilder header = new StringBuilder();
+            for (String name : vary) {
+                if (header.length() > 0) {
+                    header.append(", ");
+                }
+                header.append(name);
+            }
+            bytes = bytes.withHeader("Vary", header.toString());
+        }
+        if (compressor == null) {
+            return bytes;
+        }
+        try {
+            return bytes.withVariants(compressor);
+        }
+        catch (IOException e) {
+            // compressed in memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs the action again on a cache refresh thread (without the servlet request, which is completed
+     * with the stale response), the stale response is served until the refresh replaces it.
+     * The action gets only the headers the response varies by, with values of the cached request.
+     */
+    void refreshInBackground(ResponseCache.Entry entry, final RequestKey key, final CachePolicy cachePolicy) {
+        responseCache.refresh(entry, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RequestImpl request = RequestImpl.forUrl(key.url, key.varyHeaders(cachePolicy));
+                    if (resolve(request) != key.route) {
+                        // e.g. the URL is matched by a route declared earlier now
+                        responseCache.remove(key);
+                        return;
+                    }
+                    String[] tags = cachePolicy.getTags(request);
+                    long generation = responseCache.generation(tags);
+                    ActionResult result = runAction(key.route, request);
+                    if (result instanceof AsyncResult) {
+                        result = ((AsyncResult) result).getStage().toCompletableFuture().get(timeoutMillis, TimeUnit.MILLISECONDS);
+                    }
+                    BytesResult cacheable = toCacheable(result, cachePolicy);
+                    if (cacheable != null) {
+                        responseCache.put(key, cacheable, cachePolicy, tags, generation);
+                    }
+                    else if (result != null) {
+                        responseCache.remove(key);
+                    }
+                }
+                catch (Exception e) {
+                    // the stale response is served until it expires
+                    LOG.log(Level.WARNING, "Cannot refresh \"" + key.url + "\"", e);
+                }
+            }
+        });
+    }
+}
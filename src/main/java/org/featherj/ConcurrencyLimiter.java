@@ -0,0 +1,194 @@
+package org.featherj;
+
+import org.featherj.routes.RoutePriority;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit of requests processed at once. Excess requests are rejected immediately
+ * (the servlet responds with preencoded "503 Service Unavailable" and Retry-After header) instead
+ * of waiting for container threads while latency grows for everyone.
+ *
+ * The limit is learned from measured latency (gradient algorithm): while latency of recent requests
+ * stays close to the long term average, the limit grows by about square root of itself,
+ * when recent latency grows (e.g. the database slows down) the limit shrinks proportionally.
+ * Requests that time out decrease the limit multiplicatively.
+ * Samples are taken only when the limit is actually used, so an idle application doesn't inflate it.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Admitted request. Must be released exactly once, when the response is sent.
+     */
+    public static class Permit {
+        /**
+         * Permit of requests which aren't limited, releasing it does nothing.
+         */
+        public static final Permit UNLIMITED = new Permit(null, 0);
+
+        private final ConcurrencyLimiter limiter;
+        private final long startNanos;
+
+        private Permit(ConcurrencyLimiter limiter, long startNanos) {
+            this.limiter = limiter;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @param timedOut Whether the request has timed out (a sign of overload)
+         */
+        public void release(boolean timedOut) {
+            if (limiter != null) {
+                limiter.release(limiter.nanoTime() - startNanos, timedOut);
+            }
+        }
+
+        /**
+         * Releases the permit without a latency sample (e.g. the request turned out to be not matched
+         * by the dispatcher it was admitted for).
+         */
+        public void cancel() {
+            if (limiter != null) {
+                limiter.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double TIMEOUT_BACKOFF = 0.9;
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int retryAfterSeconds;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // guards estimation state below, samples are skipped while another thread updates it
+    private final ReentrantLock estimationLock = new ReentrantLock();
+    private double estimatedLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * Creates limiter with initial limit 20, limits 5..1000 and Retry-After of 1 second.
+     */
+    public ConcurrencyLimiter() {
+        this(20, 5, 1000, 1);
+    }
+
+    /**
+     * @param initialLimit Limit used until enough latency samples are collected
+     * @param minLimit Lower bound of the limit
+     * @param maxLimit Upper bound of the limit
+     * @param retryAfterSeconds Value of Retry-After header of rejected requests
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int retryAfterSeconds) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("1 <= minLimit <= initialLimit <= maxLimit is expected");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * Admits a request of a route with specified priority.
+     *
+     * @return Permit or null if the request should be rejected
+     */
+    public Permit tryAcquire(RoutePriority priority) {
+        if (priority == RoutePriority.CRITICAL) {
+            return Permit.UNLIMITED;
+        }
+
+        int currentLimit = limit;
+        if (priority == RoutePriority.LOW) {
+            currentLimit = Math.max(1, currentLimit * 3 / 4);
+        }
+        if (inFlight.incrementAndGet() > currentLimit) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        return new Permit(this, nanoTime());
+    }
+
+    /**
+     * @return Current time of latency measurement, see {@link System#nanoTime()}
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void release(long rttNanos, boolean timedOut) {
+        int requestsInFlight = inFlight.getAndDecrement();
+        if (!estimationLock.tryLock()) {
+            return;
+        }
+        try {
+            if (timedOut) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * TIMEOUT_BACKOFF);
+            }
+            else {
+                estimate(rttNanos, requestsInFlight);
+            }
+            limit = (int) estimatedLimit;
+        }
+        finally {
+            estimationLock.unlock();
+        }
+    }
+
+    private void estimate(long rttNanos, int requestsInFlight) {
+        double rtt = Math.max(rttNanos, 1);
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        longRtt += (rtt - longRtt) / LONG_WINDOW;
+        // recovering after a slowdown: don't let the long term average stay above recent latency
+        if (longRtt > shortRtt * 2) {
+            longRtt *= 0.95;
+        }
+
+        if (requestsInFlight < estimatedLimit / 2) {
+            // the application doesn't need the current limit, latency tells nothing about it
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
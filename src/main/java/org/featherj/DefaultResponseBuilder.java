@@ -0,0 +1,281 @@
+package org.featherj;
+
+import org.apache.commons.io.IOUtils;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.NotFoundResult;
+import org.featherj.actions.ResourceFileResult;
+import org.featherj.actions.ResponseBuilder;
+import org.featherj.actions.ServiceUnavailableResult;
+import org.featherj.actions.SimpleResult;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds results of actions into servlet responses of {@link EntryServlet}: compresses bodies with the coding
+ * negotiated with the client and transfers (ranges of) resource files.
+ */
+final class DefaultResponseBuilder implements ResponseBuilder {
+
+    // headers which are sent with "304 Not Modified" as they would be with the full response
+    private static final String[] NOT_MODIFIED_HEADERS = {"ETag", "Last-Modified", "Vary", "Cache-Control", "Expires"};
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final boolean writeBody;
+    private final ResponseCompressor.Coding coding;
+    private final ResponseCompressor compressor;
+
+    /**
+     * @param writeBody false if only status and headers should be sent (e.g. for HEAD requests)
+     * @param coding Coding negotiated with the client or null if responses aren't compressed
+     * @param compressor Compressor of the servlet or null if responses aren't compressed
+     */
+    DefaultResponseBuilder(boolean writeBody, ResponseCompressor.Coding coding, ResponseCompressor compressor) {
+        this.writeBody = writeBody;
+        this.coding = coding;
+        this.compressor = compressor;
+    }
+
+    private void writeHeaders(ActionResult result, HttpServletResponse response) {
+        response.setStatus(result.getStatus());
+        for (Map.Entry<String, String> header : result.getHeaders().entrySet()) {
+            response.setHeader(header.getKey(), header.getValue());
+        }
+    }
+
+    /**
+     * @return Whether the representation of the result depends on Accept-Encoding header
+     */
+    private boolean variesByEncoding(ActionResult result) {
+        if (compressor == null || result instanceof ResourceFileResult || result.getHeaders().containsKey("Content-Encoding")
+                || !compressor.isCompressible(result.getMimeType())) {
+            return false;
+        }
+        // pages are compressed regardless of size, which is unknown until they're rendered
+        return !(result instanceof BytesResult) || result.getContentLength() >= compressor.getMinBytes();
+    }
+
+    /**
+     * Sends "304 Not Modified" with validators and caching headers of the representation
+     * the client would get (e.g. entity tag of the compressed variant).
+     */
+    void buildNotModified(ActionResult result, HttpServletResponse response) throws IOException {
+        boolean varies = variesByEncoding(result);
+        if (varies && coding != null && result instanceof BytesResult) {
+            result = ((BytesResult) result).encoded(coding, compressor);
+        }
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Map<String, String> headers = result.getHeaders();
+        for (String name : NOT_MODIFIED_HEADERS) {
+            String value = headers.get(name);
+            if (value != null) {
+                response.setHeader(name, value);
+            }
+        }
+        if (varies) {
+            response.setHeader("Vary", ResponseCompressor.varyAcceptEncoding(headers.get("Vary")));
+        }
+    }
+
+    @Override
+    public void build(SimpleResult result, HttpServletResponse response) throws IOException {
+        writeHeaders(result, response);
+        View view = result.getView();
+        if (view != null) {
+            response.setContentType(result.getMimeType());
+            boolean compressible = variesByEncoding(result);
+            if (compressible) {
+                response.setHeader("Vary", ResponseCompressor.varyAcceptEncoding(result.getHeaders().get("Vary")));
+            }
+            if (!writeBody) {
+                return;
+            }
+            String page = view.render();
+            if (coding != null && compressible && page.length() >= compressor.getMinBytes()) {
+                // the page is encoded and compressed in chunks, the container gets compressed bytes only
+                response.setHeader("Content-Encoding", coding.getToken());
+                Writer writer = new OutputStreamWriter(compressor.wrap(response.getOutputStream(), coding),
+                    response.getCharacterEncoding());
+                try {
+                    writer.write(page);
+                }
+                finally {
+                    writer.close();
+                }
+            }
+            else {
+                response.getWriter().print(page);
+            }
+        }
+    }
+
+    @Override
+    public void build(ResourceFileResult result, HttpServletResponse response) throws IOException {
+        //FIXME: call build((SimpleResult) result, response) when ViewResult is extracted from SimpleResult
+        writeHeaders(result, response);
+        long[] ranges = result.getRanges();
+        if (ranges != null && ranges.length == 0) {
+            // not satisfiable
+            response.setContentLength(0);
+            return;
+        }
+
+        String boundary = null;
+        long contentLength;
+        if (ranges == null) {
+            contentLength = result.getLength();
+        }
+        else if (ranges.length == 2) {
+            contentLength = ranges[1] - ranges[0] + 1;
+        }
+        else {
+            boundary = "byteranges_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+            contentLength = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                contentLength += rangeHead(result, boundary, ranges[i], ranges[i + 1]).length + ranges[i + 1] - ranges[i] + 1;
+            }
+            contentLength += rangesEnd(boundary).length;
+        }
+        if (boundary != null) {
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+        }
+        else if (result.getMimeType() != null) {
+            response.setContentType(result.getMimeType());
+        }
+        if (contentLength <= Integer.MAX_VALUE) {
+            response.setContentLength((int) contentLength);
+        }
+        else {
+            response.setHeader("Content-Length", Long.toString(contentLength));
+        }
+        if (!writeBody) {
+            return;
+        }
+
+        long[] parts = ranges != null ? ranges : new long[] {0, result.getLength() - 1};
+        ServletOutputStream out = response.getOutputStream();
+        // the file is transferred by positions, resources in jars are read sequentially (ranges are sorted)
+        FileChannel file = null;
+        InputStream in = null;
+        long position = 0;
+        try {
+            if (result.getResourceFile() != null) {
+                file = FileChannel.open(result.getResourceFile().toPath(), StandardOpenOption.READ);
+            }
+            else {
+                in = result.getResourceUrl().openStream();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (int i = 0; i < parts.length; i += 2) {
+                if (boundary != null) {
+                    out.write(rangeHead(result, boundary, parts[i], parts[i + 1]));
+                }
+                long count = parts[i + 1] - parts[i] + 1;
+                if (file != null) {
+                    copy(file, parts[i], count, out, buffer);
+                }
+                else if (IOUtils.copyLarge(in, out, parts[i] - position, count) != count) {
+                    throw new EOFException("Resource has been truncated");
+                }
+                position = parts[i + 1] + 1;
+            }
+            if (boundary != null) {
+                out.write(rangesEnd(boundary));
+            }
+            out.flush();
+        }
+        finally {
+            if (file != null) {
+                file.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    public void build(NotFoundResult result, HttpServletResponse response) throws IOException {
+        response.setStatus(result.getStatus());
+        response.setContentType(result.getMimeType());
+        response.setContentLength(result.getContentLength());
+        if (writeBody) {
+            response.getOutputStream().write(result.getBody());
+        }
+    }
+
+    @Override
+    public void build(BytesResult result, HttpServletResponse response) throws IOException {
+        if (coding != null) {
+            // compressed once per result, so cached and coalesced responses aren't compressed again
+            result = result.encoded(coding, compressor);
+        }
+        writeHeaders(result, response);
+        if (variesByEncoding(result)) {
+            response.setHeader("Vary", ResponseCompressor.varyAcceptEncoding(result.getHeaders().get("Vary")));
+        }
+        response.setContentType(result.getMimeType());
+        response.setContentLength(result.getContentLength());
+        if (writeBody) {
+            response.getOutputStream().write(result.getBody());
+        }
+    }
+
+    @Override
+    public void build(ServiceUnavailableResult result, HttpServletResponse response) throws IOException {
+        writeHeaders(result, response);
+        response.setContentType(result.getMimeType());
+        response.setContentLength(result.getContentLength());
+        if (writeBody) {
+            response.getOutputStream().write(result.getBody());
+        }
+    }
+
+    /**
+     * Copies the part of the file by positional reads. Servlet 3.0 output stream accepts byte arrays only,
+     * so the body is copied through the heap buffer once (zero-copy transfer isn't possible through it).
+     */
+    private static void copy(FileChannel file, long position, long count, ServletOutputStream out, ByteBuffer buffer)
+            throws IOException {
+        while (count > 0) {
+            buffer.clear();
+            if (count < buffer.capacity()) {
+                buffer.limit((int) count);
+            }
+            int n = file.read(buffer, position);
+            if (n <= 0) {
+                throw new EOFException("File has been truncated");
+            }
+            out.write(buffer.array(), 0, n);
+            position += n;
+            count -= n;
+        }
+    }
+
+    private static byte[] rangeHead(ResourceFileResult result, String boundary, long first, long last) {
+        StringBuilder head = new StringBuilder(128);
+        head.append("\r\n--").append(boundary).append("\r\n");
+        if (result.getMimeType() != null) {
+            head.append("Content-Type: ").append(result.getMimeType()).append("\r\n");
+        }
+        head.append("Content-Range: bytes ").append(first).append('-').append(last).append('/').append(result.getLength())
+            .append("\r\n\r\n");
+        return head.toString().getBytes(ISO_8859_1);
+    }
+
+    private static byte[] rangesEnd(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(ISO_8859_1);
+    }
+}
@@ -0,0 +1,275 @@
+package org.featherj;
+
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.SimpleResult;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Pages of routes with early head (see {@link org.featherj.routes.Route#withEarlyHead(PageHead)}) of
+ * {@link EntryServlet}: the head is flushed before the action runs, the rest of the page follows once
+ * the action completes.
+ */
+final class EarlyHeadRunner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // null if responses aren't compressed
+    private final ResponseCompressor compressor;
+    private final ErrorHandler errorHandler;
+    private final long defaultTimeoutMillis;
+
+    /**
+     * @param compressor Compressor of the servlet or null if responses aren't compressed
+     * @param errorHandler Handler of failed pages (their response is already committed)
+     * @param defaultTimeoutMillis Timeout of {@link AsyncResult}s without their own timeout
+     */
+    EarlyHeadRunner(ResponseCompressor compressor, ErrorHandler errorHandler, long defaultTimeoutMillis) {
+        this.compressor = compressor;
+        this.errorHandler = errorHandler;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    /**
+     * @return Rendered page with the head if the result is "200 OK" view, otherwise the result itself
+     */
+    static ActionResult prependHead(final PageHead head, ActionResult result) {
+        if (result instanceof AsyncResult) {
+            AsyncResult asyncResult = (AsyncResult) result;
+            return new AsyncResult(asyncResult.getStage().thenApply(new Function<ActionResult, ActionResult>() {
+                @Override
+                public ActionResult apply(ActionResult completed) {
+                    return prependHead(head, completed);
+                }
+            }), asyncResult.getTimeoutMillis());
+        }
+        byte[] rest = renderPage(result);
+        if (rest == null) {
+            return result;
+        }
+        byte[] body = new byte[head.getHead().length + rest.length];
+        System.arraycopy(head.getHead(), 0, body, 0, head.getHead().length);
+        System.arraycopy(rest, 0, body, head.getHead().length, rest.length);
+        return new BytesResult(HttpServletResponse.SC_OK, "text/html;charset=UTF-8", result.getHeaders(), body);
+    }
+
+    /**
+     * @return UTF-8 encoded view of "200 OK" result or null if the result isn't a rendered page
+     */
+    private static byte[] renderPage(ActionResult result) {
+        if (result == null || result.getClass() != SimpleResult.class || result.getStatus() != HttpServletResponse.SC_OK
+                || result.getView() == null) {
+            return null;
+        }
+        return result.getView().render().getBytes(UTF_8);
+    }
+
+    /**
+     * Sends the early head, runs the action and sends the rest of the page or, if the action fails,
+     * times out or its result isn't a "200 OK" page, reports it and sends the late error fragment of the head.
+     * Asynchronous results are completed like other asynchronous results of the servlet: the container thread
+     * is released and the rest of the page is sent by the thread that completes the stage.
+     *
+     * @param action Action of the route (within its bulkhead if any), returns null if the bulkhead is full
+     * @param mayStartAsync false if {@link AsyncResult}s should be waited for by the current thread
+     * @param permit Permit of the request, released once the page is sent
+     */
+    void run(final PageHead head, Callable<ActionResult> action, final HttpServletRequest req,
+             final HttpServletResponse resp, boolean mayStartAsync, final ConcurrencyLimiter.Permit permit)
+            throws IOException {
+        final OutputStream out;
+        final boolean compressed;
+        try {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType("text/html;charset=UTF-8");
+            // size of the page is unknown, so it's compressed regardless of the minimum size;
+            // flushing the compressed stream sends the head right away
+            boolean compressible = compressor != null && compressor.isCompressible("text/html");
+            ResponseCompressor.Coding coding = compressible ? compressor.negotiate(req.getHeader("Accept-Encoding")) : null;
+            if (compressible) {
+                resp.setHeader("Vary", "Accept-Encoding");
+            }
+            if (coding != null) {
+                resp.setHeader("Content-Encoding", coding.getToken());
+            }
+            compressed = coding != null;
+            out = compressed ? compressor.wrap(resp.getOutputStream(), coding) : resp.getOutputStream();
+            out.write(head.getHead());
+            out.flush();
+        }
+        catch (IOException e) {
+            permit.release(false);
+            throw e;
+        }
+
+        ActionResult result;
+        try {
+            result = action.call();
+        }
+        catch (Exception e) {
+            finishPage(req, resp, head, out, compressed, null, e);
+            permit.release(false);
+            return;
+        }
+        if (result == null) {
+            // the bulkhead is full, which is overload rather than a failure of the action
+            endPage(out, compressed, head.getLateError());
+            permit.release(false);
+            return;
+        }
+        if (!(result instanceof AsyncResult)) {
+            finishPage(req, resp, head, out, compressed, result, null);
+            permit.release(false);
+            return;
+        }
+
+        AsyncResult asyncResult = (AsyncResult) result;
+        final long timeout = asyncResult.getTimeoutMillis() >= 0 ? asyncResult.getTimeoutMillis() : defaultTimeoutMillis;
+        if (!mayStartAsync || !req.isAsyncSupported()) {
+            boolean timedOut = false;
+            try {
+                result = asyncResult.getStage().toCompletableFuture().get(timeout, TimeUnit.MILLISECONDS);
+                finishPage(req, resp, head, out, compressed, result, null);
+            }
+            catch (TimeoutException e) {
+                timedOut = true;
+                finishPage(req, resp, head, out, compressed, null, timedOut(timeout));
+            }
+            catch (Exception e) {
+                finishPage(req, resp, head, out, compressed, null, e instanceof ExecutionException ? EntryServlet.unwrap(e.getCause()) : e);
+            }
+            finally {
+                permit.release(timedOut);
+            }
+            return;
+        }
+
+        final AsyncContext context = req.startAsync(req, resp);
+        final AtomicBoolean completed = new AtomicBoolean();
+        context.setTimeout(timeout);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (completed.compareAndSet(false, true)) {
+                    permit.release(true);
+                    try {
+                        finishPage(req, resp, head, out, compressed, null, timedOut(timeout));
+                    }
+                    finally {
+                        context.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // client has gone, there is nobody to respond to
+                if (completed.compareAndSet(false, true)) {
+                    permit.release(false);
+                    endPage(out, compressed, null);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        asyncResult.getStage().whenComplete(new BiConsumer<ActionResult, Throwable>() {
+            @Override
+            public void accept(ActionResult actionResult, Throwable error) {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    finishPage(req, resp, head, out, compressed, actionResult, error != null ? EntryServlet.unwrap(error) : null);
+                }
+                finally {
+                    permit.release(false);
+                    context.complete();
+                }
+            }
+        });
+    }
+
+    private static TimeoutException timedOut(long timeoutMillis) {
+        return new TimeoutException("Action hasn't completed the page within " + timeoutMillis + " ms");
+    }
+
+    /**
+     * Writes the rest of the page after the early head. If the action has failed (or timed out) or its result
+     * isn't a "200 OK" view (e.g. a redirect), the error handler reports it (the response is committed,
+     * so it can't be changed) and the late error fragment is written instead.
+     *
+     * @param error Failure of the action or null
+     */
+    private void finishPage(HttpServletRequest req, HttpServletResponse resp, PageHead head, OutputStream out,
+                            boolean compressed, ActionResult result, Exception error) {
+        byte[] rest = null;
+        if (error == null) {
+            try {
+                rest = renderPage(result);
+                if (rest == null) {
+                    error = new IllegalStateException((result != null ? "Result \"" + result.getStatus() + "\"" : "No result")
+                        + " can't complete the page with early head");
+                }
+            }
+            catch (RuntimeException e) {
+                // the view has failed
+                error = e;
+            }
+        }
+        if (error != null) {
+            errorHandler.handle(req, resp, error);
+        }
+        endPage(out, compressed, rest != null ? rest : head.getLateError());
+    }
+
+    /**
+     * Writes the end of the page (if any) and finishes the compressed stream, so its deflater is returned
+     * to the pool even if the client has gone.
+     */
+    private static void endPage(OutputStream out, boolean compressed, byte[] end) {
+        try {
+            if (end != null) {
+                out.write(end);
+            }
+            if (!compressed) {
+                out.flush();
+            }
+        }
+        catch (IOException ignored) {
+            // client has gone
+        }
+        finally {
+            if (compressed) {
+                try {
+                    out.close();
+                }
+                catch (IOException ignored) {
+                    // client has gone
+                }
+            }
+        }
+    }
+}
@@ -1,21 +1,47 @@
 package org.featherj;
 
-import org.apache.commons.io.IOUtils;
 import org.featherj.actions.ActionResult;
-import org.featherj.actions.ResourceFileResult;
-import org.featherj.actions.ResponseBuilder;
-import org.featherj.actions.SimpleResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.HttpDates;
+import org.featherj.actions.NotFoundResult;
+import org.featherj.actions.ServiceUnavailableResult;
+import org.featherj.routes.BatchRoute;
+import org.featherj.routes.Dispatcher;
+import org.featherj.routes.HttpMethod;
 import org.featherj.routes.Route;
+import org.featherj.routes.RoutePriority;
 import org.featherj.routes.Router;
+import org.featherj.routes.StaticResourceFileRoute;
 import org.featherj.routes.UrlParseException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 /**
  * This is the main (and most likely the only) entry point of the web application.
@@ -24,72 +50,887 @@ import java.io.IOException;
  * Usually (if you don't have really special cases) you just define all possible routes
  * for your application. If browser is navigated to URL that can't be matched by a particular route
  * it will get "not found".
+ * Routes are compiled only once, when the servlet is initialized, so an invalid URL pattern
+ * fails the deployment instead of every request.
  */
 public abstract class EntryServlet extends HttpServlet {
 
-    private ResponseBuilder responseBuilder = new ResponseBuilder() {
-        @Override
-        public void build(SimpleResult result, HttpServletResponse response) throws IOException {
-            response.setStatus(result.getStatus());
-            View view = result.getView();
-            if (view != null) {
-                response.setContentType(result.getMimeType());
-                response.getWriter().print(result.getView().render());
+    private Router router;
+    private Dispatcher[] dispatchers;
+    private ErrorHandler errorHandler;
+    private ScheduledExecutorService routeReorderScheduler;
+    // timeouts of asynchronous results of thread pool bulkheads, null if there is no such bulkhead
+    private ScheduledExecutorService bulkheadTimeouts;
+    // virtual thread mode, null if requests are processed on container threads
+    private ExecutorService actionExecutor;
+    private Semaphore actionPermits;
+    // admission control, null if disabled
+    private ConcurrencyLimiter limiter;
+    // response to requests rejected by the limiter or by a full bulkhead
+    private ActionResult overloadedResult;
+    private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<String, Bulkhead>();
+    private final SingleFlight singleFlight = new SingleFlight();
+    // null if no route has a cache policy
+    private ResponseCache responseCache;
+    // null if responses aren't compressed
+    private ResponseCompressor compressor;
+    private DefaultResponseBuilder responseBuilder;
+    private DefaultResponseBuilder gzipResponseBuilder;
+    private DefaultResponseBuilder deflateResponseBuilder;
+    private DefaultResponseBuilder headResponseBuilder;
+    private EarlyHeadRunner earlyHeadRunner;
+    private BatchRunner batchRunner;
+    // null if no route has a cache policy
+    private CacheRunner cacheRunner;
+
+    private final List<BatchRoute> batchRoutes = new ArrayList<BatchRoute>();
+    private final List<StaticResourceFileRoute> resourceRoutes = new ArrayList<StaticResourceFileRoute>();
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            long reorderPeriod = routeReorderPeriodMillis();
+            Route[] routes = routes();
+            initBulkheads(routes);
+            for (Route route : routes) {
+                if (route != null && route.getCachePolicy() != null && responseCache == null) {
+                    responseCache = responseCache();
+                }
+                if (route instanceof BatchRoute) {
+                    batchRoutes.add((BatchRoute) route);
+                }
+                if (route instanceof StaticResourceFileRoute) {
+                    resourceRoutes.add((StaticResourceFileRoute) route);
+                }
             }
+            router = new Router(routes, matchCacheCapacity(), reorderPeriod > 0);
+            dispatchers = dispatchers();
+            if (reorderPeriod > 0) {
+                startRouteReordering(reorderPeriod);
+            }
+        }
+        catch (UrlParseException e) {
+            throw new ServletException("Cannot compile application routes: " + e.getMessage(), e);
         }
+        errorHandler = errorHandler();
+        compressor = responseCompressor();
+        responseBuilder = new DefaultResponseBuilder(true, null, compressor);
+        gzipResponseBuilder = new DefaultResponseBuilder(true, ResponseCompressor.Coding.GZIP, compressor);
+        deflateResponseBuilder = new DefaultResponseBuilder(true, ResponseCompressor.Coding.DEFLATE, compressor);
+        headResponseBuilder = new DefaultResponseBuilder(false, null, compressor);
+        earlyHeadRunner = new EarlyHeadRunner(compressor, errorHandler, asyncTimeoutMillis());
+        if (responseCache != null) {
+            cacheRunner = new CacheRunner(responseCache, compressor, asyncTimeoutMillis()) {
+                @Override
+                Route resolve(RequestImpl request) {
+                    return router.resolve(HttpMethod.GET, request);
+                }
 
-        @Override
-        public void build(ResourceFileResult result, HttpServletResponse response) throws IOException {
-            //FIXME: call build((SimpleResult) result, response) when ViewResult is extracted from SimpleResult
-            response.setStatus(result.getStatus());
-            //response.setContentType(result.getMimeType());
-            response.setContentLength(result.getContentLength());
+                @Override
+                ActionResult runAction(Route route, RequestImpl request) throws Exception {
+                    return EntryServlet.this.runAction(route, request);
+                }
+            };
+        }
+        for (StaticResourceFileRoute route : resourceRoutes) {
+            route.withCompressor(compressor);
+        }
 
-            FileInputStream in = null;
-            ServletOutputStream out = null;
-            try {
-                in = new FileInputStream(result.getResourceFile());
-                out = response.getOutputStream();
+        limiter = concurrencyLimiter();
+        overloadedResult = ServiceUnavailableResult.withRetryAfter(limiter != null ? limiter.getRetryAfterSeconds() : 1);
+        batchRunner = new BatchRunner(responseBuilder, headResponseBuilder, errorHandler, overloadedResult, asyncTimeoutMillis()) {
+            @Override
+            ConcurrencyLimiter.Permit acquire(RoutePriority priority) {
+                return EntryServlet.this.acquire(priority);
+            }
 
-                IOUtils.copy(in, out);
-                out.flush();
+            @Override
+            Dispatcher matchDispatcher(HttpMethod method, Request request) {
+                return EntryServlet.this.matchDispatcher(method, request);
             }
-            finally {
-                if (out != null) {
-                    out.close();
-                }
-                if (in != null) {
-                    in.close();
-                }
+
+            @Override
+            Route resolve(HttpMethod method, RequestImpl request) {
+                return router.resolve(method, request);
             }
+
+            @Override
+            ActionResult notMatched(Request request) {
+                return router.notMatched(request, dispatchers);
+            }
+
+            @Override
+            ActionResult runAction(Route route, RequestImpl request) throws Exception {
+                return EntryServlet.this.runAction(route, request);
+            }
+        };
+
+        int concurrency = virtualThreadConcurrency();
+        if (concurrency > 0) {
+            actionExecutor = virtualThreadExecutor();
+            actionPermits = new Semaphore(concurrency);
         }
-    };
+    }
+
+    private void initBulkheads(Route[] routes) throws ServletException {
+        for (Bulkhead bulkhead : bulkheads()) {
+            if (bulkheads.put(bulkhead.getName(), bulkhead) != null) {
+                throw new ServletException("Duplicate bulkhead \"" + bulkhead.getName() + "\"");
+            }
+        }
+        for (Route route : routes) {
+            if (route != null && route.getBulkhead() != null && !bulkheads.containsKey(route.getBulkhead())) {
+                throw new ServletException("Route " + route + " refers to undefined bulkhead \"" + route.getBulkhead() + "\"");
+            }
+        }
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            if (bulkhead.isThreadPool()) {
+                ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "featherj-bulkhead-timeout");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                // results usually complete in time
+                timeouts.setRemoveOnCancelPolicy(true);
+                bulkheadTimeouts = timeouts;
+                break;
+            }
+        }
+    }
+
+    private void startRouteReordering(long period) {
+        routeReorderScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "featherj-route-reorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        routeReorderScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                router.reorderRoutes();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
 
     @Override
-    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        try {
-            processRequest(req, resp);
-        } catch (Exception e) {
-            //FIXME: implement error rendering
-            e.printStackTrace();
+    public void destroy() {
+        if (routeReorderScheduler != null) {
+            routeReorderScheduler.shutdownNow();
+        }
+        if (bulkheadTimeouts != null) {
+            bulkheadTimeouts.shutdownNow();
         }
+        if (actionExecutor != null) {
+            actionExecutor.shutdown();
+        }
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.shutdown();
+        }
+        if (responseCache != null) {
+            responseCache.shutdown();
+        }
+        for (BatchRoute route : batchRoutes) {
+            route.shutdown();
+        }
+        for (StaticResourceFileRoute route : resourceRoutes) {
+            route.stopWatching();
+        }
+        if (errorHandler != null) {
+            errorHandler.destroy();
+        }
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        handleRequest(req, resp);
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    /**
+     * HEAD requests are dispatched to GET routes, but response body isn't rendered.
+     */
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        handleRequest(req, resp);
+    }
+
+    private void handleRequest(HttpServletRequest req, HttpServletResponse resp) {
+        if (actionExecutor != null && req.isAsyncSupported()) {
+            handleOnVirtualThread(req, resp);
+            return;
+        }
         try {
-            processRequest(req, resp);
+            processRequest(req, resp, true);
         } catch (Exception e) {
-            //FIXME: implement error rendering
-            e.printStackTrace();
+            errorHandler.handle(req, resp, e);
+        }
+    }
+
+    /**
+     * Releases the container thread and processes the request (runs the action and builds the response)
+     * on a new virtual thread. Requests wait for a permit, so no more than {@link #virtualThreadConcurrency()}
+     * requests are processed at once; requests that can't get a permit within {@link #asyncTimeoutMillis()}
+     * get "503 Service Unavailable".
+     */
+    private void handleOnVirtualThread(final HttpServletRequest req, final HttpServletResponse resp) {
+        final AsyncContext context = req.startAsync(req, resp);
+        // the request is completed by the virtual thread only
+        context.setTimeout(0);
+        try {
+            actionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!actionPermits.tryAcquire(asyncTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                            sendServiceUnavailable(req, resp);
+                            return;
+                        }
+                        try {
+                            processRequest(req, resp, false);
+                        }
+                        finally {
+                            actionPermits.release();
+                        }
+                    }
+                    catch (Exception e) {
+                        errorHandler.handle(req, resp, e);
+                    }
+                    finally {
+                        context.complete();
+                    }
+                }
+            });
         }
+        catch (RejectedExecutionException e) {
+            // the servlet is being destroyed
+            sendServiceUnavailable(req, resp);
+            context.complete();
+        }
+    }
+
+    private void sendServiceUnavailable(HttpServletRequest req, HttpServletResponse resp) {
+        DefaultResponseBuilder builder = HttpMethod.HEAD.name().equals(req.getMethod()) ? headResponseBuilder : responseBuilder;
+        try {
+            ServiceUnavailableResult.INSTANCE.callBuilder(builder, resp);
+        }
+        catch (IOException ignored) {
+            // client has gone
+        }
+    }
+
+    /**
+     * @return Builder of the response to the request, compressing it with the coding accepted by the client
+     */
+    private DefaultResponseBuilder builderFor(HttpServletRequest req) {
+        if (HttpMethod.HEAD.name().equals(req.getMethod())) {
+            return headResponseBuilder;
+        }
+        ResponseCompressor.Coding coding = negotiate(req);
+        if (coding == ResponseCompressor.Coding.GZIP) {
+            return gzipResponseBuilder;
+        }
+        return coding == ResponseCompressor.Coding.DEFLATE ? deflateResponseBuilder : responseBuilder;
+    }
+
+    private ResponseCompressor.Coding negotiate(HttpServletRequest req) {
+        return compressor != null ? compressor.negotiate(req.getHeader("Accept-Encoding")) : null;
+    }
+
+    /**
+     * @param mayStartAsync false if the request is already in asynchronous mode (so {@link AsyncResult}s are
+     *                      waited for by the current thread)
+     */
+    private void processRequest(HttpServletRequest req, HttpServletResponse resp, boolean mayStartAsync) throws Exception {
+        HttpMethod method = HttpMethod.parse(req.getMethod());
+        RequestImpl request = new RequestImpl(req);
+        DefaultResponseBuilder builder = builderFor(req);
+        ActionResult result = null;
+        // released once the response is sent (by this method unless the result is asynchronous)
+        ConcurrencyLimiter.Permit permit = null;
+        try {
+            Dispatcher dispatcher = method != null ? matchDispatcher(method, request) : null;
+            if (dispatcher != null) {
+                // other requests are admitted once, at priority of the matched route
+                permit = acquire(RoutePriority.NORMAL);
+                if (permit == null) {
+                    overloadedResult.callBuilder(builder, resp);
+                    return;
+                }
+                result = dispatcher.dispatch(method, request);
+                if (result == null) {
+                    permit.cancel();
+                    permit = null;
+                }
+            }
+            if (result == null && method != null) {
+                Route route = router.resolve(method, request);
+                if (route instanceof BatchRoute) {
+                    batchRunner.run((BatchRoute) route, req, resp, mayStartAsync);
+                    return;
+                }
+                if (route != null) {
+                    boolean safe = method == HttpMethod.GET || method == HttpMethod.HEAD;
+                    CachePolicy cachePolicy = safe && responseCache != null ? route.getCachePolicy() : null;
+                    // personalised pages must not be shared with other users
+                    boolean coalesced = safe && route.isCoalesced() && req.getHeader("Range") == null
+                        && req.getHeader("Cookie") == null && req.getHeader("Authorization") == null;
+                    RequestKey key = null;
+                    if (cachePolicy != null || coalesced) {
+                        key = RequestKey.of(route, request, req, cachePolicy);
+                    }
+                    if (cachePolicy != null) {
+                        ResponseCache.Entry entry = responseCache.get(key);
+                        if (entry != null) {
+                            if (!responseCache.isFresh(entry)) {
+                                cacheRunner.refreshInBackground(entry, key, cachePolicy);
+                            }
+                            send(req, resp, entry.getResult(), builder);
+                            return;
+                        }
+                    }
+
+                    permit = acquire(route.getPriority());
+                    if (permit == null) {
+                        overloadedResult.callBuilder(builder, resp);
+                        return;
+                    }
+                    // conditional requests may get "304 Not Modified", so their response isn't started early
+                    if (method == HttpMethod.GET && route.getEarlyHead() != null && key == null
+                            && req.getHeader("If-None-Match") == null) {
+                        ConcurrencyLimiter.Permit headPermit = permit;
+                        permit = null;
+                        earlyHeadRunner.run(route.getEarlyHead(), routeAction(route, request), req, resp, mayStartAsync, headPermit);
+                        return;
+                    }
+                    if (coalesced) {
+                        result = runCoalesced(key, cachePolicy, route, request);
+                    }
+                    else {
+                        result = runAndCache(key, cachePolicy, route, request);
+                    }
+                    if (result == null) {
+                        // the bulkhead is full
+                        overloadedResult.callBuilder(builder, resp);
+                        return;
+                    }
+                }
+            }
+            if (result == null) {
+                result = router.notMatched(request, dispatchers);
+            }
+
+            if (result instanceof AsyncResult) {
+                AsyncResult asyncResult = (AsyncResult) result;
+                long timeout = asyncResult.getTimeoutMillis() >= 0 ? asyncResult.getTimeoutMillis() : asyncTimeoutMillis();
+                ConcurrencyLimiter.Permit asyncPermit = permit != null ? permit : ConcurrencyLimiter.Permit.UNLIMITED;
+                permit = null;
+                if (mayStartAsync && req.isAsyncSupported()) {
+                    completeAsync(req, resp, asyncResult, timeout, builder, asyncPermit);
+                }
+                else {
+                    completeBlocking(req, resp, asyncResult, timeout, builder, asyncPermit);
+                }
+                return;
+            }
+            send(req, resp, result, builder);
+        }
+        finally {
+            if (permit != null) {
+                permit.release(false);
+            }
+        }
+    }
+
+    /**
+     * @return First dispatcher matching the request or null
+     */
+    private Dispatcher matchDispatcher(HttpMethod method, Request request) {
+        for (Dispatcher dispatcher : dispatchers) {
+            if (dispatcher.matches(method, request)) {
+                return dispatcher;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the result or "304 Not Modified" if the request is conditional and the client already has
+     * the same version of the response (so a view isn't rendered at all).
+     */
+    private static void send(HttpServletRequest req, HttpServletResponse resp, ActionResult result,
+                             DefaultResponseBuilder builder) throws IOException {
+        if (isNotModified(req, result)) {
+            builder.buildNotModified(result, resp);
+        }
+        else {
+            result.callBuilder(builder, resp);
+        }
+    }
+
+    /**
+     * Evaluates If-None-Match (weak comparison) or, if there is no such header, If-Modified-Since header
+     * against validators of the result (ETag and Last-Modified headers).
+     */
+    private static boolean isNotModified(HttpServletRequest req, ActionResult result) {
+        int status = result.getStatus();
+        if (status != HttpServletResponse.SC_OK && status != HttpServletResponse.SC_PARTIAL_CONTENT) {
+            return false;
+        }
+        String method = req.getMethod();
+        if (!HttpMethod.GET.name().equals(method) && !HttpMethod.HEAD.name().equals(method)) {
+            return false;
+        }
+
+        Map<String, String> headers = result.getHeaders();
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String etag = headers.get("ETag");
+            if (etag == null) {
+                return false;
+            }
+            String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                tag = tag.startsWith("W/") ? tag.substring(2) : tag;
+                if (tag.equals(opaque) || withoutCoding(tag).equals(opaque)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = req.getHeader("If-Modified-Since");
+        String lastModified = headers.get("Last-Modified");
+        if (ifModifiedSince == null || lastModified == null) {
+            return false;
+        }
+        if (ifModifiedSince.equals(lastModified)) {
+            // clients usually send back the same value
+            return true;
+        }
+        long since = HttpDates.parse(ifModifiedSince);
+        long modified = HttpDates.parse(lastModified);
+        return since != -1 && modified != -1 && modified <= since;
+    }
+
+    /**
+     * @return Entity tag of the compressed response (see {@link ResponseCompressor#compress}) without the coding suffix
+     */
+    private static String withoutCoding(String tag) {
+        for (ResponseCompressor.Coding coding : ResponseCompressor.Coding.values()) {
+            String suffix = "-" + coding.getToken() + "\"";
+            if (tag.endsWith(suffix)) {
+                return tag.substring(0, tag.length() - suffix.length()) + "\"";
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Runs action of the route (within its bulkhead if any), prepends early head of the route (if any)
+     * to the rendered page.
+     *
+     * @return Result of the action or null if the bulkhead is full
+     */
+    private ActionResult runAction(Route route, RequestImpl request) throws Exception {
+        ActionResult result = runRouteAction(route, request);
+        return route.getEarlyHead() != null ? EarlyHeadRunner.prependHead(route.getEarlyHead(), result) : result;
+    }
+
+    private ActionResult runRouteAction(Route route, RequestImpl request) throws Exception {
+        return route.getBulkhead() != null ? runInBulkhead(route, request) : route.runAction(request);
+    }
+
+    private Callable<ActionResult> routeAction(final Route route, final RequestImpl request) {
+        return new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                return runRouteAction(route, request);
+            }
+        };
+    }
+
+    /**
+     * Only the request which actually runs the action caches its result, see
+     * {@link #runAndCache(RequestKey, CachePolicy, Route, RequestImpl)}.
+     */
+    private ActionResult runCoalesced(final RequestKey key, final CachePolicy cachePolicy, final Route route,
+                                      final RequestImpl request) throws Exception {
+        return singleFlight.run(key, new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                ActionResult result = runAndCache(key, cachePolicy, route, request);
+                // duplicates of a request rejected by a full bulkhead are rejected as well
+                return result != null ? result : overloadedResult;
+            }
+        });
+    }
+
+    /**
+     * Runs the action and caches its result if the route has a cache policy.
+     *
+     * @return Result (cached one if it has been cached) or null if the bulkhead is full
+     */
+    private ActionResult runAndCache(RequestKey key, CachePolicy cachePolicy, Route route, RequestImpl request)
+            throws Exception {
+        return cachePolicy != null ? cacheRunner.run(key, cachePolicy, route, request) : runAction(route, request);
+    }
+
+    /**
+     * Runs action of the route in its bulkhead.
+     *
+     * @return Result of the action (asynchronous for thread pool bulkheads) or null if the bulkhead is full
+     */
+    private ActionResult runInBulkhead(final Route route, final RequestImpl request) throws Exception {
+        CompletableFuture<ActionResult> future = bulkheads.get(route.getBulkhead()).run(new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                return route.runAction(request);
+            }
+        });
+        if (future == null) {
+            return null;
+        }
+        if (future.isDone()) {
+            // semaphore bulkhead
+            try {
+                return future.get();
+            }
+            catch (ExecutionException e) {
+                throw unwrap(e.getCause());
+            }
+        }
+        // asynchronous actions complete when their own stage completes, within their own timeout
+        final CompletableFuture<ActionResult> completed = new CompletableFuture<ActionResult>();
+        future.whenComplete(new BiConsumer<ActionResult, Throwable>() {
+            @Override
+            public void accept(ActionResult result, Throwable error) {
+                if (error != null) {
+                    completed.completeExceptionally(error);
+                    return;
+                }
+                if (!(result instanceof AsyncResult)) {
+                    completed.complete(result);
+                    return;
+                }
+                AsyncResult asyncResult = (AsyncResult) result;
+                final ScheduledFuture<?> timeout = asyncResult.getTimeoutMillis() < 0 ? null : bulkheadTimeouts.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        completed.complete(ServiceUnavailableResult.INSTANCE);
+                    }
+                }, asyncResult.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+                asyncResult.getStage().whenComplete(new BiConsumer<ActionResult, Throwable>() {
+                    @Override
+                    public void accept(ActionResult actionResult, Throwable error) {
+                        if (timeout != null) {
+                            timeout.cancel(false);
+                        }
+                        if (error != null) {
+                            completed.completeExceptionally(error);
+                        }
+                        else {
+                            completed.complete(actionResult);
+                        }
+                    }
+                });
+            }
+        });
+        return new AsyncResult(completed);
+    }
+
+    /**
+     * @return Permit or null if the request is rejected by the concurrency limiter
+     */
+    private ConcurrencyLimiter.Permit acquire(RoutePriority priority) {
+        return limiter != null ? limiter.tryAcquire(priority) : ConcurrencyLimiter.Permit.UNLIMITED;
+    }
+
+    /**
+     * Releases the container thread, the response is sent by the thread that completes the stage
+     * or by the container if the request times out (whichever is the first).
+     */
+    private void completeAsync(final HttpServletRequest req, final HttpServletResponse resp, AsyncResult result,
+                               long timeout, final DefaultResponseBuilder builder, final ConcurrencyLimiter.Permit permit) {
+        final AsyncContext context = req.startAsync(req, resp);
+        final AtomicBoolean completed = new AtomicBoolean();
+        context.setTimeout(timeout);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (completed.compareAndSet(false, true)) {
+                    permit.release(true);
+                    try {
+                        ServiceUnavailableResult.INSTANCE.callBuilder(builder, resp);
+                    }
+                    finally {
+                        context.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // client has gone, there is nobody to respond to
+                if (completed.compareAndSet(false, true)) {
+                    permit.release(false);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        result.getStage().whenComplete(new BiConsumer<ActionResult, Throwable>() {
+            @Override
+            public void accept(ActionResult actionResult, Throwable error) {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    sendCompleted(req, resp, actionResult, error, builder);
+                }
+                finally {
+                    permit.release(false);
+                    context.complete();
+                }
+            }
+        });
+    }
+
+    private void completeBlocking(HttpServletRequest req, HttpServletResponse resp, AsyncResult result, long timeout,
+                                  DefaultResponseBuilder builder, ConcurrencyLimiter.Permit permit) throws Exception {
+        boolean timedOut = false;
+        try {
+            ActionResult actionResult;
+            try {
+                actionResult = result.getStage().toCompletableFuture().get(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                timedOut = true;
+                actionResult = ServiceUnavailableResult.INSTANCE;
+            }
+            catch (ExecutionException e) {
+                throw unwrap(e.getCause());
+            }
+            send(req, resp, actionResult != null ? actionResult : NotFoundResult.INSTANCE, builder);
+        }
+        finally {
+            permit.release(timedOut);
+        }
+    }
+
+    private void sendCompleted(HttpServletRequest req, HttpServletResponse resp, ActionResult result, Throwable error,
+                               DefaultResponseBuilder builder) {
+        try {
+            if (error != null) {
+                throw unwrap(error);
+            }
+            send(req, resp, result != null ? result : NotFoundResult.INSTANCE, builder);
+        }
+        catch (Exception e) {
+            errorHandler.handle(req, resp, e);
+        }
+    }
+
+    static Exception unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof Exception ? (Exception) error : new ExecutionException(error);
+    }
+
+    /**
+     * Override it to enable admission control: requests that exceed the adaptive concurrency limit are
+     * rejected right away with "503 Service Unavailable" and Retry-After header. Routes with
+     * {@link RoutePriority#CRITICAL} priority (e.g. static resources) bypass the limit, see
+     * {@link Route#withPriority(RoutePriority)}. Actions of generated dispatchers have normal priority.
+     * Called once during servlet initialization.
+     *
+     * @return Limiter or null (default) if requests aren't limited
+     */
+    protected ConcurrencyLimiter concurrencyLimiter() {
+        return null;
+    }
+
+    /**
+     * Override it to isolate route families (see {@link Route#withBulkhead(String)}). Called once during
+     * servlet initialization.
+     *
+     * @return Bulkheads, empty by default
+     */
+    protected Bulkhead[] bulkheads() {
+        return new Bulkhead[0];
+    }
+
+    /**
+     * Writes metrics of every bulkhead, one line per bulkhead (see {@link Bulkhead#dumpStats(Appendable)}).
+     */
+    protected void dumpBulkheadStats(Appendable out) throws IOException {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.dumpStats(out);
+        }
+    }
+
+    /**
+     * Override it to change size of the response cache. Called during servlet initialization
+     * if some route has a cache policy (see {@link Route#withResponseCache(CachePolicy)}).
+     *
+     * @return Response cache, by default up to 32 MB of responses with 2 refresh threads
+     */
+    protected ResponseCache responseCache() {
+        return new ResponseCache(32 * 1024 * 1024, 2);
+    }
+
+    /**
+     * Override it to enable compression of responses negotiated by Accept-Encoding header, e.g. return
+     * {@link ResponseCompressor#ResponseCompressor()} (unless the container or a proxy compresses responses).
+     * Cached static assets are compressed by it as well. Responses to HEAD requests, large resource files
+     * and parts of batch responses aren't compressed. Called once during servlet initialization.
+     *
+     * @return Response compressor or null (default) if responses aren't compressed
+     */
+    protected ResponseCompressor responseCompressor() {
+        return null;
+    }
+
+    /**
+     * @return Response cache (e.g. for invalidation by tags), null if no route has a cache policy
+     */
+    protected ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return Counters of coalesced requests (see {@link Route#withCoalescing(boolean)})
+     */
+    protected SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Override it to process requests on virtual threads (JDK 21+), so blocking actions (e.g. JDBC queries)
+     * don't hold container threads and the container thread pool size doesn't limit the number of
+     * requests processed at once. The servlet must be declared with async support.
+     *
+     * @return Maximum number of requests processed at once, 0 (default) processes requests on container threads
+     */
+    protected int virtualThreadConcurrency() {
+        return 0;
+    }
+
+    /**
+     * Override it to change the executor of the virtual thread mode (see {@link #virtualThreadConcurrency()}),
+     * e.g. to name the threads. The executor is shut down when the servlet is destroyed.
+     *
+     * @return Executor starting a new virtual thread for every request by default
+     * @throws ServletException if virtual threads aren't supported by the running JVM
+     */
+    protected ExecutorService virtualThreadExecutor() throws ServletException {
+        if (!VirtualThreads.isSupported()) {
+            throw new ServletException("Virtual thread mode requires JDK 21 or newer, running on " + System.getProperty("java.version"));
+        }
+        return VirtualThreads.newExecutor();
+    }
+
+    /**
+     * Override it to change how long {@link AsyncResult}s (and permits of the virtual thread mode,
+     * see {@link #virtualThreadConcurrency()}) are waited for by default.
+     * Requests that time out get "503 Service Unavailable".
+     *
+     * @return Timeout in milliseconds, {@link AsyncResult#DEFAULT_TIMEOUT_MILLIS} (30 seconds) by default
+     */
+    protected long asyncTimeoutMillis() {
+        return AsyncResult.DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Override it to count matches of every route and periodically reorder compiled routes so that
+     * the hottest ones are tried first (see {@link Router#reorderRoutes()}).
+     * Current order and hit shares can be seen with {@link Router#dumpRouteStats(Appendable)}.
+     *
+     * @return Reordering period in milliseconds, 0 (default) disables route stats
+     */
+    protected long routeReorderPeriodMillis() {
+        return 0;
+    }
+
+    /**
+     * @return Router compiled from {@link #routes()}
+     */
+    protected Router getRouter() {
+        return router;
+    }
+
+    /**
+     * Override it to customize rendering and reporting of errors. Called once during servlet initialization.
+     *
+     * @return Error handler, by default {@link LoggingErrorHandler}
+     */
+    protected ErrorHandler errorHandler() {
+        return new LoggingErrorHandler();
+    }
+
+    /**
+     * Override it to enable caching of resolved routes for hot request URLs
+     * (see {@link org.featherj.routes.RouteMatchCache}).
+     *
+     * @return Maximum number of cached distinct URLs, 0 (default) disables the cache
+     */
+    protected int matchCacheCapacity() {
+        return 0;
     }
 
-    private void processRequest(HttpServletRequest req, HttpServletResponse resp) throws Exception {
-        Router router = new Router(routes());
-        ActionResult result = router.routeAndRun(req);
-        result.callBuilder(responseBuilder, resp);
+    /**
+     * Override it to serve routes of annotated controllers with generated dispatchers
+     * (see {@link org.featherj.tools.RouteDispatcherProcessor}). Dispatchers are tried in order
+     * before {@link #routes()}. Called only once during servlet initialization.
+     * Requests of dispatcher methods with other HTTP methods get "405 Method Not Allowed".
+     *
+     * Dispatcher actions aren't compiled {@link Route}s, so they are run as they are: they always have
+     * {@link RoutePriority#NORMAL} priority and can't have a bulkhead, coalescing, response cache or early head
+     * (see {@link Route#withBulkhead(String)}, {@link Route#withCoalescing(boolean)},
+     * {@link Route#withResponseCache(CachePolicy)} and {@link Route#withEarlyHead(PageHead)}),
+     * declare such actions as routes.
+     *
+     * @return Dispatchers, empty by default
+     */
+    protected Dispatcher[] dispatchers() {
+        return new Dispatcher[0];
     }
 
+    /**
+     * Defines application routes. Called only once during servlet initialization.
+     */
     protected abstract Route[] routes() throws UrlParseException;
 }
\ No newline at end of file
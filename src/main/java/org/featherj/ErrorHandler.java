@@ -0,0 +1,24 @@
+package org.featherj;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Handles exceptions thrown while requests are processed by {@link EntryServlet}
+ * (see {@link EntryServlet#errorHandler()}).
+ */
+public interface ErrorHandler {
+
+    /**
+     * Renders error response and reports the error. Called on the request thread,
+     * so implementations shouldn't do slow work (e.g. I/O of logging) synchronously.
+     * The response can be already committed (e.g. after the early head of a page has been sent),
+     * then the error should only be reported.
+     */
+    void handle(HttpServletRequest req, HttpServletResponse resp, Exception e);
+
+    /**
+     * Called when the servlet is destroyed.
+     */
+    void destroy();
+}
@@ -0,0 +1,107 @@
+package org.featherj;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link ErrorHandler}: responds with preencoded "500 Internal Server Error" page
+ * and logs the exception from a background thread.
+ * Request threads only put errors into a bounded queue, if the queue is full (e.g. during
+ * an error storm) the error is dropped and only counted (see {@link #getDroppedCount()}).
+ */
+public class LoggingErrorHandler implements ErrorHandler {
+
+    private static final Logger LOG = Logger.getLogger(LoggingErrorHandler.class.getName());
+
+    private static final byte[] BODY = (
+        "<!DOCTYPE html>\n" +
+        "<html><head><title>500 Internal Server Error</title></head>" +
+        "<body><h1>500 Internal Server Error</h1></body></html>\n").getBytes(Charset.forName("UTF-8"));
+
+    private static class Report {
+        private final String url;
+        private final Exception e;
+
+        private Report(String url, Exception e) {
+            this.url = url;
+            this.e = e;
+        }
+    }
+
+    private final BlockingQueue<Report> reports;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread loggerThread;
+
+    public LoggingErrorHandler() {
+        this(1024);
+    }
+
+    /**
+     * @param queueCapacity Maximum number of errors waiting to be logged
+     */
+    public LoggingErrorHandler(int queueCapacity) {
+        reports = new ArrayBlockingQueue<Report>(queueCapacity);
+        loggerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Report report = reports.take();
+                        LOG.log(Level.SEVERE, "Request \"" + report.url + "\" failed", report.e);
+                    }
+                }
+                catch (InterruptedException ignored) {
+                    // destroyed
+                }
+            }
+        }, "featherj-error-logger");
+        loggerThread.setDaemon(true);
+        loggerThread.start();
+    }
+
+    @Override
+    public void handle(HttpServletRequest req, HttpServletResponse resp, Exception e) {
+        if (!reports.offer(new Report(req.getRequestURI(), e))) {
+            dropped.incrementAndGet();
+        }
+
+        if (resp.isCommitted()) {
+            return;
+        }
+        try {
+            resp.reset();
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            resp.setContentType("text/html;charset=UTF-8");
+            resp.setContentLength(BODY.length);
+            ServletOutputStream out = resp.getOutputStream();
+            out.write(BODY);
+            out.flush();
+        }
+        catch (IOException ignored) {
+            // client has gone
+        }
+        catch (IllegalStateException ignored) {
+            // response writer has been already obtained
+        }
+    }
+
+    /**
+     * @return Number of errors that weren't logged because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void destroy() {
+        loggerThread.interrupt();
+    }
+}
@@ -0,0 +1,56 @@
+package org.featherj;
+
+import java.nio.charset.Charset;
+
+/**
+ * Static head of a page layout (doctype, &lt;head&gt; with stylesheets and scripts, opening &lt;body&gt;...),
+ * see {@link org.featherj.routes.Route#withEarlyHead(PageHead)}. The head is encoded once and sent to the
+ * client as soon as the route is matched, before the action runs, so browsers start fetching resources early.
+ * Views of such routes render only the rest of the page.
+ *
+ * Since the status ("200 OK") is sent with the head, a late failure (an exception, a timeout or a result that
+ * isn't a "200 OK" view) can't change the response anymore: the error is reported and the late error fragment
+ * is written instead of the rest of the page.
+ */
+public final class PageHead {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DEFAULT_LATE_ERROR = "<h1>500 Internal Server Error</h1></body></html>\n";
+
+    private final byte[] head;
+    private final byte[] lateError;
+
+    private PageHead(byte[] head, byte[] lateError) {
+        this.head = head;
+        this.lateError = lateError;
+    }
+
+    /**
+     * @param html Static head of the page, must not depend on the request
+     */
+    public PageHead(String html) {
+        this(html.getBytes(UTF_8), DEFAULT_LATE_ERROR.getBytes(UTF_8));
+    }
+
+    /**
+     * @param html Fragment which completes the page after a late failure (by default "500 Internal Server Error" heading)
+     * @return Copy of the head with specified fallback
+     */
+    public PageHead withLateError(String html) {
+        return new PageHead(head, html.getBytes(UTF_8));
+    }
+
+    /**
+     * @return UTF-8 encoded head (shared, must not be modified)
+     */
+    public byte[] getHead() {
+        return head;
+    }
+
+    /**
+     * @return UTF-8 encoded late error fragment (shared, must not be modified)
+     */
+    public byte[] getLateError() {
+        return lateError;
+    }
+}
@@ -0,0 +1,163 @@
+package org.featherj;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Parameters of a request query string ("?name1=value1&name2=value2").
+ * The query string is split only once, on the first access, and values are URL decoded
+ * only when (and if) they are requested. Parameter names are compared as they are
+ * written in the URL (not decoded).
+ */
+public class QueryParams {
+
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int BOUNDS_PER_PARAM = 4;
+
+    private final String url;
+    private int count = -1;
+    private int[] bounds;
+    private String[] values;
+
+    /**
+     * @param url Request URL (see {@link Request#getUrl()}), can be without query string
+     */
+    public QueryParams(String url) {
+        this.url = url;
+    }
+
+    private void parse() {
+        count = 0;
+        bounds = new int[BOUNDS_PER_PARAM * 4];
+
+        int i = url.indexOf('?');
+        if (i == -1) {
+            return;
+        }
+        i++;
+
+        int length = url.length();
+        while (i < length) {
+            int end = url.indexOf('&', i);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > i) {
+                int eq = url.indexOf('=', i);
+                if (eq == -1 || eq > end) {
+                    eq = end;
+                }
+                add(i, eq, Math.min(eq + 1, end), end);
+            }
+            i = end + 1;
+        }
+    }
+
+    private void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int offset = count * BOUNDS_PER_PARAM;
+        if (offset + BOUNDS_PER_PARAM > bounds.length) {
+            int[] newBounds = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+            bounds = newBounds;
+        }
+        bounds[offset + NAME_START] = nameStart;
+        bounds[offset + NAME_END] = nameEnd;
+        bounds[offset + VALUE_START] = valueStart;
+        bounds[offset + VALUE_END] = valueEnd;
+        count++;
+    }
+
+    private int bound(int index, int which) {
+        if (count == -1) {
+            parse();
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return bounds[index * BOUNDS_PER_PARAM + which];
+    }
+
+    public int size() {
+        if (count == -1) {
+            parse();
+        }
+        return count;
+    }
+
+    /**
+     * @return Index of the first parameter with specified name or -1 if there is no such parameter
+     */
+    public int indexOf(String name) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            int start = bounds[i * BOUNDS_PER_PARAM + NAME_START];
+            int end = bounds[i * BOUNDS_PER_PARAM + NAME_END];
+            if (end - start == name.length() && url.regionMatches(start, name, 0, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean has(String name) {
+        return indexOf(name) != -1;
+    }
+
+    /**
+     * @return Decoded value of the first parameter with specified name or null if there is no such parameter
+     */
+    public String get(String name) {
+        int i = indexOf(name);
+        return i == -1 ? null : getValue(i);
+    }
+
+    public String getName(int index) {
+        return url.substring(bound(index, NAME_START), bound(index, NAME_END));
+    }
+
+    /**
+     * @return Decoded parameter value ("" if parameter has no value)
+     */
+    public String getValue(int index) {
+        int start = bound(index, VALUE_START);
+        if (values == null) {
+            values = new String[count];
+        }
+        String value = values[index];
+        if (value == null) {
+            value = decode(url.substring(start, bound(index, VALUE_END)));
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return Index of the first character of raw (not decoded) parameter value in request URL
+     */
+    public int getValueStart(int index) {
+        return bound(index, VALUE_START);
+    }
+
+    /**
+     * @return Index of the first character after raw (not decoded) parameter value in request URL
+     */
+    public int getValueEnd(int index) {
+        return bound(index, VALUE_END);
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // theoretically this is not possible, because UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+}
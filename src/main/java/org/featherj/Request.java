@@ -8,6 +8,23 @@ public interface Request {
      */
     String getUrl();
 
+    /**
+     * Gets request URL without query string.
+     * @return Request URL starting first "/" after domains (up to "?")
+     */
+    String getPath();
+
+    /**
+     * @return Value of the request header or null if there is no such header (or the request is detached,
+     * e.g. a sub-request of a batch)
+     */
+    String getHeader(String name);
+
+    /**
+     * @return Parameters of request query string (parsed on demand, once per request)
+     */
+    QueryParams getQuery();
+
     /**
      * Returns request parameter (typed) value that was obtained during routing matching
      * procedure.
@@ -17,4 +34,14 @@ public interface Request {
      * @return
      */
     <T> T param(String name);
+
+    /**
+     * Returns request parameter (typed) value by its slot, that is the position of the parameter reference
+     * in the route URL pattern (see {@link org.featherj.routes.Route#getParamSlot(String)}).
+     *
+     * @param slot Parameter slot
+     * @param <T> Parameter value type
+     * @return
+     */
+    <T> T param(int slot);
 }
\ No newline at end of file
@@ -2,36 +2,126 @@ package org.featherj;
 
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class RequestImpl implements Request {
 
+    private static final String[] NO_KEYS = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
     private final HttpServletRequest req;
-    private HashMap<String, Object> params = new HashMap<String, Object>();
+    // headers of request which isn't backed by a servlet request
+    private Map<String, String> headers = Collections.emptyMap();
+    private String url;
+    private String path;
+    private QueryParams query;
+    private String[] paramKeys = NO_KEYS;
+    private Object[] paramValues = NO_VALUES;
 
     public RequestImpl(HttpServletRequest req) {
         this.req = req;
     }
 
+    /**
+     * Creates request which isn't backed by a servlet request (e.g. to run an action in background,
+     * after the servlet request has been completed).
+     */
+    public static RequestImpl forUrl(String url) {
+        RequestImpl request = new RequestImpl(null);
+        request.url = url;
+        return request;
+    }
+
+    /**
+     * Creates request which isn't backed by a servlet request, with specified headers
+     * (e.g. headers the cached response varies by).
+     *
+     * @param headers Header values by name (names are case insensitive)
+     */
+    public static RequestImpl forUrl(String url, Map<String, String> headers) {
+        RequestImpl request = forUrl(url);
+        if (!headers.isEmpty()) {
+            request.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            request.headers.putAll(headers);
+        }
+        return request;
+    }
+
+    /**
+     * The URL is built only on the first call, subsequent calls return the same string.
+     */
     @Override
     public String getUrl() {
-        String uri = req.getRequestURI();
-        String queryStr = req.getQueryString();
-        if (queryStr != null) {
-            return uri + "?" + queryStr;
+        if (url == null) {
+            String uri = req.getRequestURI();
+            String queryStr = req.getQueryString();
+            url = queryStr != null ? uri + "?" + queryStr : uri;
+        }
+        return url;
+    }
+
+    @Override
+    public String getPath() {
+        if (path == null) {
+            String url = getUrl();
+            int i = url.indexOf('?');
+            path = i == -1 ? url : url.substring(0, i);
+        }
+        return path;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return req != null ? req.getHeader(name) : headers.get(name);
+    }
+
+    @Override
+    public QueryParams getQuery() {
+        if (query == null) {
+            query = new QueryParams(getUrl());
         }
-        return uri;
+        return query;
     }
 
     public <T> T param(String name) {
-        Object val = params.get(name);
-        if (val == null) {
+        int slot = indexOf(paramKeys, name);
+        if (slot == -1) {
             throw new IllegalArgumentException(name);
         }
-        return (T) val;
+        return param(slot);
+    }
+
+    public <T> T param(int slot) {
+        if (slot < 0 || slot >= paramValues.length) {
+            throw new IllegalArgumentException(Integer.toString(slot));
+        }
+        return (T) paramValues[slot];
+    }
+
+    /**
+     * Sets values of route parameters.
+     *
+     * @param keys Parameter keys ordered by slots (shared by all requests of a route, so not copied)
+     * @param values Parameter values ordered by slots
+     */
+    public void params(String[] keys, Object[] values) {
+        this.paramKeys = keys;
+        this.paramValues = values;
     }
 
-    public void param(String name, Object value) {
-        params.put(name, value);
+    private static int indexOf(String[] keys, String name) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == name) {
+                return i;
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -0,0 +1,77 @@
+package org.featherj;
+
+import org.featherj.routes.Route;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key of identical requests: coalesced by {@link SingleFlight} or cached in {@link ResponseCache}
+ * by {@link EntryServlet}.
+ */
+final class RequestKey {
+
+    private static final String[] NO_VARY = new String[0];
+
+    final Route route;
+    final String url;
+    // values of headers listed by the route cache policy
+    final String[] vary;
+
+    private RequestKey(Route route, String url, String[] vary) {
+        this.route = route;
+        this.url = url;
+        this.vary = vary;
+    }
+
+    /**
+     * @param cachePolicy Cache policy of the route or null if the request is only coalesced
+     */
+    static RequestKey of(Route route, RequestImpl request, HttpServletRequest req, CachePolicy cachePolicy) {
+        return new RequestKey(route, request.getUrl(), cachePolicy != null ? varyValues(req, cachePolicy) : NO_VARY);
+    }
+
+    private static String[] varyValues(HttpServletRequest req, CachePolicy cachePolicy) {
+        String[] headers = cachePolicy.getVary();
+        if (headers.length == 0) {
+            return NO_VARY;
+        }
+        String[] values = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            String value = req.getHeader(headers[i]);
+            values[i] = value != null ? value : "";
+        }
+        return values;
+    }
+
+    /**
+     * @return Headers of the request the key has been created for which are listed by the cache policy
+     */
+    Map<String, String> varyHeaders(CachePolicy cachePolicy) {
+        String[] names = cachePolicy.getVary();
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 0; i < names.length; i++) {
+            // empty value stands for a missing header, see varyValues()
+            if (!vary[i].isEmpty()) {
+                headers.put(names[i], vary[i]);
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) o;
+        return route == other.route && url.equals(other.url) && Arrays.equals(vary, other.vary);
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * System.identityHashCode(route) + url.hashCode()) * 31 + Arrays.hashCode(vary);
+    }
+}
@@ -0,0 +1,413 @@
+package org.featherj;
+
+import org.featherj.actions.BytesResult;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Cache of rendered responses (status, headers and encoded body) of routes with a {@link CachePolicy}.
+ * Cached responses are sent without running actions and rendering views.
+ *
+ * The cache is bounded by total size of cached bodies and split into segments with their own locks and
+ * LRU eviction. A response is fresh during its TTL; after that, during stale-while-revalidate period,
+ * it's still served while a single background refresh runs. Responses can be invalidated by tags.
+ *
+ * A response rendered while its tag is invalidated must not be cached: take {@link #generation(String[])}
+ * before running the action and pass it to {@link #put(Object, BytesResult, CachePolicy, String[], long)}.
+ */
+public class ResponseCache {
+
+    public static class Entry {
+        private final Object key;
+        private final BytesResult result;
+        private final String[] tags;
+        private final long freshUntil;
+        private final long staleUntil;
+        // fixed when the entry is created, so the size of a segment stays consistent
+        private final int weight;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(Object key, BytesResult result, String[] tags, long freshUntil, long staleUntil) {
+            this.key = key;
+            this.result = result;
+            this.tags = tags;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+            this.weight = result.getWeight();
+        }
+
+        public BytesResult getResult() {
+            return result;
+        }
+
+        private int weight() {
+            return weight;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<Object, Entry> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Must be called under the lock.
+         */
+        void putEntry(Entry entry) {
+            removeEntry(entry.key);
+            put(entry.key, entry);
+            bytes += entry.weight();
+            index(entry);
+
+            Iterator<Entry> eldest = values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Entry e = eldest.next();
+                eldest.remove();
+                bytes -= e.weight();
+                unindex(e);
+                evictions.increment();
+            }
+        }
+
+        /**
+         * Must be called under the lock.
+         */
+        Entry removeEntry(Object key) {
+            Entry entry = remove(key);
+            if (entry != null) {
+                bytes -= entry.weight();
+                unindex(entry);
+            }
+            return entry;
+        }
+    }
+
+    private static final int SEGMENTS = 16;
+    // tags share invalidation counters, a collision only makes a response uncached
+    private static final int TAG_STRIPES = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    // keys of cached entries by tag, sets are modified only by compute methods of the map
+    private final ConcurrentMap<String, Set<Object>> tagIndex = new ConcurrentHashMap<String, Set<Object>>();
+    // number of invalidations by tag stripe, the last counter is incremented by invalidateAll()
+    private final AtomicLongArray invalidations = new AtomicLongArray(TAG_STRIPES + 1);
+    private final ThreadPoolExecutor refreshExecutor;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    /**
+     * @param maxBytes Maximum total size of cached responses (bodies and headers)
+     * @param refreshThreads Number of threads refreshing stale responses
+     */
+    public ResponseCache(long maxBytes, int refreshThreads) {
+        if (maxBytes < 1 || refreshThreads < 1) {
+            throw new IllegalArgumentException("Positive size and number of refresh threads are expected");
+        }
+        long segmentBytes = Math.max(1, (maxBytes + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentBytes);
+        }
+        refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(1024), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "featherj-response-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return Current time in nanoseconds, overridable for tests
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return Fresh or stale (see {@link #isFresh(Entry)}) entry or null
+     */
+    public Entry get(Object key) {
+        Segment segment = segmentFor(key);
+        long now = nanoTime();
+        Entry entry;
+        segment.lock.lock();
+        try {
+            entry = segment.get(key);
+            if (entry != null && now - entry.staleUntil >= 0) {
+                segment.removeEntry(key);
+                entry = null;
+            }
+        }
+        finally {
+            segment.lock.unlock();
+        }
+
+        if (entry == null) {
+            misses.increment();
+        }
+        else if (now - entry.freshUntil < 0) {
+            hits.increment();
+        }
+        else {
+            staleHits.increment();
+        }
+        return entry;
+    }
+
+    public boolean isFresh(Entry entry) {
+        return nanoTime() - entry.freshUntil < 0;
+    }
+
+    private static int stripe(String tag) {
+        int h = tag.hashCode();
+        h ^= (h >>> 16);
+        return h & (TAG_STRIPES - 1);
+    }
+
+    /**
+     * @return Opaque value which changes whenever a response with any of the tags is invalidated
+     */
+    public long generation(String[] tags) {
+        long generation = invalidations.get(TAG_STRIPES);
+        for (String tag : tags) {
+            generation += invalidations.get(stripe(tag));
+        }
+        return generation;
+    }
+
+    /**
+     * Caches the response unconditionally, see {@link #put(Object, BytesResult, CachePolicy, String[], long)}.
+     */
+    public void put(Object key, BytesResult result, CachePolicy policy, String[] tags) {
+        put(key, result, policy, tags, generation(tags));
+    }
+
+    /**
+     * Caches the response unless any of its tags has been invalidated since the generation was taken
+     * (the response may be rendered from data changed meanwhile).
+     *
+     * @param generation Value of {@link #generation(String[])} taken before the response was rendered
+     * @return Whether the response has been cached
+     */
+    public boolean put(Object key, BytesResult result, CachePolicy policy, String[] tags, long generation) {
+        if (generation(tags) != generation) {
+            return false;
+        }
+        long now = nanoTime();
+        long freshUntil = now + TimeUnit.MILLISECONDS.toNanos(policy.getTtlMillis());
+        Entry entry = new Entry(key, result, tags, freshUntil, freshUntil + TimeUnit.MILLISECONDS.toNanos(policy.getStaleMillis()));
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.putEntry(entry);
+        }
+        finally {
+            segment.lock.unlock();
+        }
+        if (generation(tags) != generation) {
+            // invalidated after the check, possibly before the entry was indexed
+            remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    public void remove(Object key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.removeEntry(key);
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Refreshes the stale entry in background unless it's already being refreshed.
+     * The task is expected to replace (or remove) the entry.
+     *
+     * @return Whether the refresh has been started
+     */
+    public boolean refresh(final Entry entry, final Runnable task) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    }
+                    finally {
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+            return false;
+        }
+        refreshes.increment();
+        return true;
+    }
+
+    /**
+     * Removes all responses with the tag.
+     */
+    public void invalidate(String tag) {
+        invalidations.incrementAndGet(stripe(tag));
+        Set<Object> keys = tagIndex.remove(tag);
+        if (keys == null) {
+            return;
+        }
+        for (Object key : keys) {
+            remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet(TAG_STRIPES);
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (Object key : segment.keySet().toArray()) {
+                    segment.removeEntry(key);
+                }
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    private void index(final Entry entry) {
+        for (String tag : entry.tags) {
+            tagIndex.compute(tag, new BiFunction<String, Set<Object>, Set<Object>>() {
+                @Override
+                public Set<Object> apply(String tag, Set<Object> keys) {
+                    if (keys == null) {
+                        keys = new HashSet<Object>();
+                    }
+                    keys.add(entry.key);
+                    return keys;
+                }
+            });
+        }
+    }
+
+    private void unindex(final Entry entry) {
+        for (String tag : entry.tags) {
+            tagIndex.computeIfPresent(tag, new BiFunction<String, Set<Object>, Set<Object>>() {
+                @Override
+                public Set<Object> apply(String tag, Set<Object> keys) {
+                    keys.remove(entry.key);
+                    // don't keep sets of tags without responses (e.g. of deleted users)
+                    return keys.isEmpty() ? null : keys;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Number of tags of cached responses
+     */
+    public int getTagCount() {
+        return tagIndex.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of stale responses served (while being refreshed)
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    /**
+     * @return Total size of cached response bodies
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                bytes += segment.bytes;
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Stops refresh threads.
+     */
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,285 @@
+package org.featherj;
+
+import org.featherj.actions.BytesResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compression of responses (including cached static assets) negotiated by Accept-Encoding header (see {@link EntryServlet#responseCompressor()}).
+ * Responses are compressed by streams over pooled {@link Deflater}s (native deflater state is expensive to
+ * allocate per response). Only responses of allowed MIME types and of at least minimum size are compressed.
+ */
+public class ResponseCompressor {
+
+    /**
+     * Supported content codings.
+     */
+    public enum Coding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Coding(String token) {
+            this.token = token;
+        }
+
+        /**
+         * @return Value of Content-Encoding header
+         */
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static final String[] DEFAULT_MIME_TYPES = {
+        "text/html", "text/plain", "text/css", "text/javascript", "text/xml",
+        "application/javascript", "application/json", "application/xml", "image/svg+xml"
+    };
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final int level;
+    private final int minBytes;
+    private final String[] mimeTypes;
+    private final BlockingQueue<Deflater> gzipPool;
+    private final BlockingQueue<Deflater> deflatePool;
+
+    /**
+     * Creates compressor of responses of at least 1 KB of text, scripts, JSON, XML and SVG with default level 6.
+     */
+    public ResponseCompressor() {
+        this(6, 1024, DEFAULT_MIME_TYPES);
+    }
+
+    /**
+     * @param level Compression level, from 1 (fastest) to 9 (best)
+     * @param minBytes Minimum size of compressed responses, smaller ones aren't worth it
+     * @param mimeTypes Compressed MIME types (parameters such as charset are ignored)
+     */
+    public ResponseCompressor(int level, int minBytes, String... mimeTypes) {
+        if (level < 1 || level > 9 || minBytes < 0) {
+            throw new IllegalArgumentException("Level 1..9 and non-negative minimum size are expected");
+        }
+        this.level = level;
+        this.minBytes = minBytes;
+        this.mimeTypes = new String[mimeTypes.length];
+        for (int i = 0; i < mimeTypes.length; i++) {
+            this.mimeTypes[i] = mimeTypes[i].toLowerCase(Locale.ROOT);
+        }
+        int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+        this.gzipPool = new ArrayBlockingQueue<Deflater>(poolSize);
+        this.deflatePool = new ArrayBlockingQueue<Deflater>(poolSize);
+    }
+
+    /**
+     * Chooses coding by Accept-Encoding header, gzip is preferred if both codings are acceptable.
+     *
+     * @return Coding or null if the response should be sent as it is
+     */
+    public Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (isRejected(parts)) {
+                continue;
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = true;
+            }
+            else if (name.equals("deflate")) {
+                deflate = true;
+            }
+            else if (name.equals("*")) {
+                any = true;
+            }
+        }
+        if (gzip || (any && !acceptEncoding.contains("gzip"))) {
+            return Coding.GZIP;
+        }
+        return deflate ? Coding.DEFLATE : null;
+    }
+
+    /**
+     * @return Whether the coding has "q=0" parameter
+     */
+    private static boolean isRejected(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                }
+                catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether responses of the type are compressed (regardless of size)
+     */
+    public boolean isCompressible(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        int end = mimeType.indexOf(';');
+        String type = (end == -1 ? mimeType : mimeType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+        for (String allowed : mimeTypes) {
+            if (allowed.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * Wraps the response stream, closing the returned stream finishes compression and returns the deflater
+     * to the pool (it doesn't close the response stream). Flushing it flushes all compressed data written
+     * so far, so a part of a page can be sent early.
+     */
+    public OutputStream wrap(OutputStream out, Coding coding) throws IOException {
+        return new CompressingStream(out, coding);
+    }
+
+    /**
+     * Compresses the result (e.g. a cached response), see {@link BytesResult#encoded(Coding, ResponseCompressor)}.
+     *
+     * @return Compressed copy of the result or the result itself if it isn't worth compressing
+     */
+    public BytesResult compress(BytesResult result, Coding coding) throws IOException {
+        byte[] body = result.getBody();
+        if (body.length < minBytes || !isCompressible(result.getMimeType()) || result.getHeaders().containsKey("Content-Encoding")) {
+            return result;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 3 + 64);
+        OutputStream out = wrap(bytes, coding);
+        try {
+            out.write(body);
+        }
+        finally {
+            out.close();
+        }
+        if (bytes.size() >= body.length) {
+            return result;
+        }
+
+        Map<String, String> headers = new LinkedHashMap<String, String>(result.getHeaders());
+        headers.put("Content-Encoding", coding.getToken());
+        headers.put("Vary", varyAcceptEncoding(headers.get("Vary")));
+        String etag = headers.get("ETag");
+        if (etag != null && !etag.startsWith("W/") && etag.endsWith("\"")) {
+            // representations differ, so do their strong entity tags
+            headers.put("ETag", etag.substring(0, etag.length() - 1) + "-" + coding.getToken() + "\"");
+        }
+        return new BytesResult(result.getStatus(), result.getMimeType(), headers, bytes.toByteArray());
+    }
+
+    /**
+     * @return Value of Vary header including Accept-Encoding
+     */
+    public static String varyAcceptEncoding(String vary) {
+        if (vary == null || vary.isEmpty()) {
+            return "Accept-Encoding";
+        }
+        return vary.toLowerCase(Locale.ROOT).contains("accept-encoding") ? vary : vary + ", Accept-Encoding";
+    }
+
+    private Deflater borrow(Coding coding) {
+        Deflater deflater = (coding == Coding.GZIP ? gzipPool : deflatePool).poll();
+        // gzip has its own header and trailer, deflate coding is zlib format
+        return deflater != null ? deflater : new Deflater(level, coding == Coding.GZIP);
+    }
+
+    private void release(Deflater deflater, Coding coding) {
+        deflater.reset();
+        if (!(coding == Coding.GZIP ? gzipPool : deflatePool).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private class CompressingStream extends DeflaterOutputStream {
+        private final Coding coding;
+        // null for deflate coding
+        private final CRC32 crc;
+        private boolean closed;
+
+        CompressingStream(OutputStream out, Coding coding) throws IOException {
+            super(out, borrow(coding), 8192, true);
+            this.coding = coding;
+            if (coding == Coding.GZIP) {
+                crc = new CRC32();
+                out.write(GZIP_HEADER);
+            }
+            else {
+                crc = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            super.finish();
+            if (crc != null) {
+                writeInt((int) crc.getValue());
+                writeInt((int) def.getBytesRead());
+            }
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+        }
+
+        /**
+         * Finishes compression, but doesn't close the underlying stream.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+                out.flush();
+            }
+            finally {
+                release(def, coding);
+            }
+        }
+    }
+}
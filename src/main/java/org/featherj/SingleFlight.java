@@ -0,0 +1,123 @@
+package org.featherj;
+
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.SimpleResult;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces concurrent identical requests: the first request for a key runs the action and renders its
+ * result into bytes ({@link BytesResult}), concurrent requests with the same key don't run the action,
+ * they wait for that result and share it. Nothing is cached: the key is forgotten as soon as the result is ready.
+ *
+ * Results other than plain {@link SimpleResult}s (e.g. resource files) are shared as they are.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<Object, CompletableFuture<ActionResult>> inFlight =
+        new ConcurrentHashMap<Object, CompletableFuture<ActionResult>>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Runs the action unless an action with the same key is already running.
+     *
+     * @param key Key of identical requests (must implement equals and hashCode)
+     * @return Shared result of the action, {@link AsyncResult} if the result is computed by another request
+     * (or the action is asynchronous itself)
+     */
+    public ActionResult run(final Object key, Callable<ActionResult> action) throws Exception {
+        final CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        CompletableFuture<ActionResult> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.increment();
+            return new AsyncResult(running);
+        }
+
+        executed.increment();
+        ActionResult result;
+        try {
+            result = action.call();
+        }
+        catch (Throwable e) {
+            // errors too, otherwise the key would stay in flight and its duplicates would wait forever
+            complete(key, future, null, e);
+            throw e;
+        }
+
+        if (result instanceof AsyncResult) {
+            ((AsyncResult) result).getStage().whenComplete(new BiConsumer<ActionResult, Throwable>() {
+                @Override
+                public void accept(ActionResult actionResult, Throwable error) {
+                    if (error != null) {
+                        complete(key, future, null, error);
+                        return;
+                    }
+                    try {
+                        complete(key, future, share(actionResult), null);
+                    }
+                    catch (Throwable e) {
+                        complete(key, future, null, e);
+                    }
+                }
+            });
+            return new AsyncResult(future, ((AsyncResult) result).getTimeoutMillis());
+        }
+
+        ActionResult shared;
+        try {
+            shared = share(result);
+        }
+        catch (Throwable e) {
+            complete(key, future, null, e);
+            throw e;
+        }
+        complete(key, future, shared, null);
+        return shared;
+    }
+
+    private void complete(Object key, CompletableFuture<ActionResult> future, ActionResult result, Throwable error) {
+        inFlight.remove(key, future);
+        if (error != null) {
+            future.completeExceptionally(error);
+        }
+        else {
+            future.complete(result);
+        }
+    }
+
+    private static ActionResult share(ActionResult result) {
+        if (result != null && result.getClass() == SimpleResult.class) {
+            return BytesResult.render((SimpleResult) result);
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of actions run
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return Number of requests that shared result of another request instead of running the action
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of keys which results are being computed
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,48 @@
+package org.featherj;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (JDK 21+) from the code compiled for older JDKs.
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_EXECUTOR = findNewExecutorMethod();
+
+    private VirtualThreads() {
+    }
+
+    private static Method findNewExecutorMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether the running JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * @return Executor that starts a new virtual thread for every task
+     * @throws UnsupportedOperationException if virtual threads aren't supported by the running JVM
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer, running on " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+}
@@ -4,20 +4,26 @@ import org.featherj.View;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
 
+/**
+ * Result of an action. Results are only read when the response is built: {@link SimpleResult} is built
+ * by an action, {@link ViewResult}s are immutable.
+ */
 public interface ActionResult {
 
     int getStatus();
-    void setStatus(int status);
 
     View getView();
-    void setView(View view);
 
     String getMimeType();
-    void setMimeType(String contentType);
 
     int getContentLength();
-    void setContentLength(int len);
+
+    /**
+     * @return Additional response headers (name to value), empty map if there are none
+     */
+    Map<String, String> getHeaders();
 
     /**
      * Simply calls corresponding {@link ResponseBuilder#build} method of specified builder.
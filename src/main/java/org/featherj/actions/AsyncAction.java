@@ -0,0 +1,15 @@
+package org.featherj.actions;
+
+import org.featherj.Request;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Action that doesn't block a container thread while its result is being prepared
+ * (e.g. while a slow query runs on an application executor).
+ * See {@link AsyncResult} for how the result is sent.
+ */
+public abstract class AsyncAction {
+
+    public abstract CompletionStage<? extends ActionResult> run(Request request) throws Exception;
+}
@@ -0,0 +1,87 @@
+package org.featherj.actions;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result which isn't ready yet. {@link org.featherj.EntryServlet} puts the request into asynchronous mode,
+ * releases the container thread and sends the result when the stage completes (a stage failed with
+ * an exception is reported by the servlet {@link org.featherj.ErrorHandler}).
+ * If the stage doesn't complete in time the client gets "503 Service Unavailable".
+ *
+ * The servlet must be declared with async support (<code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>),
+ * otherwise the container thread waits for the stage.
+ */
+public final class AsyncResult extends SimpleResult {
+
+    /**
+     * Default timeout of asynchronous results, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final CompletionStage<? extends ActionResult> stage;
+    private final long timeoutMillis;
+
+    /**
+     * Creates result completed within the servlet default timeout
+     * (see {@link org.featherj.EntryServlet#asyncTimeoutMillis()}).
+     */
+    public AsyncResult(CompletionStage<? extends ActionResult> stage) {
+        this(stage, -1);
+    }
+
+    /**
+     * @param timeoutMillis Maximum time to wait for the stage, -1 for the servlet default
+     */
+    public AsyncResult(CompletionStage<? extends ActionResult> stage, long timeoutMillis) {
+        this.stage = stage;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public CompletionStage<? extends ActionResult> getStage() {
+        return stage;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Asynchronous results are sent by {@link org.featherj.EntryServlet} once the stage completes.
+     * Other callers (e.g. custom servlets) block until the stage completes and build its result:
+     * "503 Service Unavailable" if it doesn't complete in time, "404 Not Found" if it completes with null.
+     *
+     * @throws IOException if the stage failed
+     */
+    @Override
+    public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
+        ActionResult result;
+        try {
+            result = stage.toCompletableFuture().get(timeoutMillis >= 0 ? timeoutMillis : DEFAULT_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            result = ServiceUnavailableResult.INSTANCE;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the result");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Result failed", cause);
+        }
+        (result != null ? result : NotFoundResult.INSTANCE).callBuilder(builder, response);
+    }
+}
@@ -0,0 +1,124 @@
+package org.featherj.actions;
+
+import org.featherj.ResponseCompressor;
+import org.featherj.View;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result with already rendered response body. It's immutable, so a single instance can be sent
+ * to many clients (e.g. to requests coalesced by {@link org.featherj.SingleFlight}).
+ */
+public final class BytesResult extends ViewResult {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] body;
+    // compressed variants, computed once per result (e.g. once per cached response)
+    private volatile BytesResult gzipped;
+    private volatile BytesResult deflated;
+
+    /**
+     * @param body Response body (must not be modified afterwards)
+     */
+    public BytesResult(int status, String mimeType, Map<String, String> headers, byte[] body) {
+        super(status, null, mimeType, body.length, headers);
+        this.body = body;
+    }
+
+    /**
+     * Renders view of the result (if any) into UTF-8 encoded body.
+     */
+    public static BytesResult render(SimpleResult result) {
+        View view = result.getView();
+        byte[] body = view != null ? view.render().getBytes(UTF_8) : new byte[0];
+        String mimeType = result.getMimeType();
+        if (mimeType != null && !mimeType.contains("charset=")) {
+            mimeType += ";charset=UTF-8";
+        }
+        return new BytesResult(result.getStatus(), mimeType, result.getHeaders(), body);
+    }
+
+    /**
+     * @return Copy of the result with additional header (the body is shared)
+     */
+    public BytesResult withHeader(String name, String value) {
+        Map<String, String> headers = new LinkedHashMap<String, String>(getHeaders());
+        headers.put(name, value);
+        return new BytesResult(getStatus(), getMimeType(), headers, body);
+    }
+
+    /**
+     * Returns compressed variant of the result, it's computed on the first call and then shared
+     * (concurrent first calls may compute it twice).
+     *
+     * @return Compressed result or this result if it isn't worth compressing
+     */
+    public BytesResult encoded(ResponseCompressor.Coding coding, ResponseCompressor compressor) throws IOException {
+        BytesResult variant = coding == ResponseCompressor.Coding.GZIP ? gzipped : deflated;
+        if (variant == null) {
+            variant = compressor.compress(this, coding);
+            if (coding == ResponseCompressor.Coding.GZIP) {
+                gzipped = variant;
+            }
+            else {
+                deflated = variant;
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * @return Response body (shared, must not be modified)
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Computes compressed variants of the result ahead (e.g. before the result is cached), so their size
+     * is known to {@link #getWeight()}.
+     *
+     * @return This result
+     */
+    public BytesResult withVariants(ResponseCompressor compressor) throws IOException {
+        for (ResponseCompressor.Coding coding : ResponseCompressor.Coding.values()) {
+            encoded(coding, compressor);
+        }
+        return this;
+    }
+
+    /**
+     * @return Approximate size of the result kept in memory (e.g. by a cache): body, headers and compressed
+     * variants computed so far
+     */
+    public int getWeight() {
+        int weight = ownWeight();
+        BytesResult gzip = gzipped;
+        BytesResult deflate = deflated;
+        if (gzip != null && gzip != this) {
+            weight += gzip.ownWeight();
+        }
+        if (deflate != null && deflate != this) {
+            weight += deflate.ownWeight();
+        }
+        return weight;
+    }
+
+    private int ownWeight() {
+        int weight = body.length;
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            weight += header.getKey().length() + header.getValue().length();
+        }
+        return weight;
+    }
+
+    @Override
+    public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
+        builder.build(this, response);
+    }
+}
@@ -0,0 +1,37 @@
+package org.featherj.actions;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formats and parses HTTP dates (IMF-fixdate, e.g. "Sun, 06 Nov 1994 08:49:37 GMT") used by Last-Modified,
+ * If-Modified-Since and If-Range headers. The formatter is immutable, so it's shared by all threads.
+ */
+public final class HttpDates {
+
+    private static final DateTimeFormatter FORMAT =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private HttpDates() {
+    }
+
+    public static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @return Milliseconds (whole seconds) or -1 if the value isn't a valid date
+     */
+    public static long parse(String value) {
+        try {
+            return ZonedDateTime.parse(value, FORMAT).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.featherj.actions;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+/**
+ * Result returned by {@link org.featherj.routes.Router} when no route matches request URL.
+ * There is a single immutable instance with preencoded response body, so requests to
+ * unknown URLs don't allocate anything for the response (and don't throw exceptions).
+ */
+public final class NotFoundResult extends ViewResult {
+
+    private static final byte[] BODY = (
+        "<!DOCTYPE html>\n" +
+        "<html><head><title>404 Not Found</title></head>" +
+        "<body><h1>404 Not Found</h1></body></html>\n").getBytes(Charset.forName("UTF-8"));
+
+    public static final NotFoundResult INSTANCE = new NotFoundResult();
+
+    private NotFoundResult() {
+        super(HttpServletResponse.SC_NOT_FOUND, null, "text/html;charset=UTF-8", BODY.length,
+            Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @return Preencoded response body (shared, must not be modified)
+     */
+    public byte[] getBody() {
+        return BODY;
+    }
+
+    @Override
+    public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
+        builder.build(this, response);
+    }
+}
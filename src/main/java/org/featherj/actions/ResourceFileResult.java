@@ -1,22 +1,240 @@
 package org.featherj.actions;
 
+import org.featherj.Request;
+
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
+/**
+ * File sent as the response body. Requests with Range header get only requested parts of the file
+ * ("206 Partial Content", "multipart/byteranges" if there are several ranges) or "416 Range Not Satisfiable".
+ * Ranges of the file body are read by positions of the file channel and copied to the response through
+ * one buffer (Servlet 3.0 output stream accepts byte arrays only, so zero-copy transfer isn't possible).
+ */
 public class ResourceFileResult extends SimpleResult {
+
+    // more ranges are ignored (the whole file is sent), so a request can't make the response much larger than the file
+    private static final int MAX_RANGES = 16;
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    // null if the resource isn't a file (e.g. it's in a jar)
     private final File resourceFile;
+    private final URL resourceUrl;
+    private final long length;
+    private final long lastModified;
+    private final String etag;
+    // first and last byte positions of requested ranges (sorted and merged), null if the whole file is sent
+    private final long[] ranges;
 
     public ResourceFileResult(String mimeType, File resourceFile) {
+        this(mimeType, resourceFile, null);
+    }
+
+    /**
+     * @param request Request with Range (and If-Range) header, null if the whole file is sent
+     */
+    public ResourceFileResult(String mimeType, File resourceFile, Request request) {
+        this(mimeType, resourceFile, null, resourceFile.length(), resourceFile.lastModified(), null, request);
+    }
+
+    /**
+     * Creates result of a file which length, modification time and content hash are already known (e.g. indexed).
+     *
+     * @param hash Content hash used as the strong entity tag, null if the weak one is derived from the length and time
+     */
+    public ResourceFileResult(String mimeType, File resourceFile, long length, long lastModified, String hash, Request request) {
+        this(mimeType, resourceFile, null, length, lastModified, hash, request);
+    }
+
+    /**
+     * Creates result of a resource which isn't a file (e.g. it's in a jar), the body is streamed from the URL.
+     *
+     * @param hash Content hash used as the strong entity tag, null if the weak one is derived from the length and time
+     */
+    public ResourceFileResult(String mimeType, URL resourceUrl, long length, long lastModified, String hash, Request request) {
+        this(mimeType, null, resourceUrl, length, lastModified, hash, request);
+    }
+
+    private ResourceFileResult(String mimeType, File resourceFile, URL resourceUrl, long length, long lastModified,
+                               String hash, Request request) {
         this.resourceFile = resourceFile;
+        this.resourceUrl = resourceUrl;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = hash != null ? "\"" + hash + "\"" : "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
         setMimeType(mimeType);
-        setStatus(HttpServletResponse.SC_OK);
+        setHeader("Accept-Ranges", "bytes");
+        setHeader("ETag", etag);
+        setHeader("Last-Modified", HttpDates.format(lastModified));
+
+        String range = request != null ? request.getHeader("Range") : null;
+        if (range != null && isRangeValid(request.getHeader("If-Range"))) {
+            this.ranges = parseRanges(range, length);
+        }
+        else {
+            this.ranges = null;
+        }
+
+        if (ranges == null) {
+            setStatus(HttpServletResponse.SC_OK);
+        }
+        else if (ranges.length == 0) {
+            setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            setHeader("Content-Range", "bytes */" + length);
+        }
+        else {
+            setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            if (ranges.length == 2) {
+                setHeader("Content-Range", "bytes " + ranges[0] + "-" + ranges[1] + "/" + length);
+            }
+        }
+        long contentLength = ranges == null ? length : ranges.length == 2 ? ranges[1] - ranges[0] + 1 : 0;
+        setContentLength((int) Math.min(contentLength, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Range request is conditional if there is If-Range header: the range is sent only if the strong entity tag
+     * matches or the file hasn't been modified since the date.
+     */
+    private boolean isRangeValid(String ifRange) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        return HttpDates.parse(ifRange) == lastModified / 1000 * 1000;
+    }
+
+    /**
+     * Parses value of Range header (RFC 7233).
+     *
+     * @param length Length of the file
+     * @return First and last byte positions of satisfiable ranges (sorted, overlapping and adjacent ranges are merged),
+     * empty array if no range is satisfiable or null if the header is malformed (or has too many ranges)
+     */
+    public static long[] parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            long first;
+            long last;
+            try {
+                if (dash == 0) {
+                    // suffix range: last N bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    first = Math.max(0, length - suffix);
+                    last = suffix > 0 ? length - 1 : -1;
+                }
+                else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    if (first < 0) {
+                        return null;
+                    }
+                    if (dash == spec.length() - 1) {
+                        last = length - 1;
+                    }
+                    else {
+                        last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(last, length - 1);
+                    }
+                }
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+            if (first < length && first <= last) {
+                ranges.add(new long[] {first, last});
+            }
+        }
+        if (ranges.isEmpty()) {
+            return UNSATISFIABLE;
+        }
+
+        long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        long[] merged = new long[sorted.length * 2];
+        int n = 0;
+        for (long[] range : sorted) {
+            if (n > 0 && range[0] <= merged[n - 1] + 1) {
+                merged[n - 1] = Math.max(merged[n - 1], range[1]);
+            }
+            else {
+                merged[n++] = range[0];
+                merged[n++] = range[1];
+            }
+        }
+        return Arrays.copyOf(merged, n);
     }
 
+    /**
+     * @return File of the resource or null if it isn't a file (see {@link #getResourceUrl()})
+     */
     public File getResourceFile() {
         return resourceFile;
     }
 
+    /**
+     * @return URL of the resource if it isn't a file, otherwise null
+     */
+    public URL getResourceUrl() {
+        return resourceUrl;
+    }
+
+    /**
+     * @return Entity tag of the resource (quoted)
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Length of the file (when the result was created)
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return First and last byte positions of requested ranges, null if the whole file is sent
+     * or empty array if the range isn't satisfiable
+     */
+    public long[] getRanges() {
+        return ranges;
+    }
+
     @Override
     public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
         builder.build(this, response);
@@ -11,4 +11,7 @@ import java.io.IOException;
 public interface ResponseBuilder {
     void build(SimpleResult result, HttpServletResponse response) throws IOException;
     void build(ResourceFileResult result, HttpServletResponse response) throws IOException;
+    void build(NotFoundResult result, HttpServletResponse response) throws IOException;
+    void build(ServiceUnavailableResult result, HttpServletResponse response) throws IOException;
+    void build(BytesResult result, HttpServletResponse response) throws IOException;
 }
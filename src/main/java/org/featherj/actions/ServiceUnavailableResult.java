@@ -0,0 +1,47 @@
+package org.featherj.actions;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+/**
+ * Result sent when a request can't be served in time (e.g. an {@link AsyncResult} timed out).
+ * There is a single immutable instance with preencoded response body.
+ */
+public final class ServiceUnavailableResult extends ViewResult {
+
+    private static final byte[] BODY = (
+        "<!DOCTYPE html>\n" +
+        "<html><head><title>503 Service Unavailable</title></head>" +
+        "<body><h1>503 Service Unavailable</h1></body></html>\n").getBytes(Charset.forName("UTF-8"));
+
+    public static final ServiceUnavailableResult INSTANCE = new ServiceUnavailableResult(0);
+
+    private ServiceUnavailableResult(int retryAfterSeconds) {
+        super(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null, "text/html;charset=UTF-8", BODY.length,
+            retryAfterSeconds > 0
+                ? Collections.singletonMap("Retry-After", String.valueOf(retryAfterSeconds))
+                : Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates immutable result with Retry-After header (the body is shared with {@link #INSTANCE}).
+     * Should be created once and reused for all responses.
+     */
+    public static ServiceUnavailableResult withRetryAfter(int retryAfterSeconds) {
+        return new ServiceUnavailableResult(retryAfterSeconds);
+    }
+
+    /**
+     * @return Preencoded response body (shared, must not be modified)
+     */
+    public byte[] getBody() {
+        return BODY;
+    }
+
+    @Override
+    public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
+        builder.build(this, response);
+    }
+}
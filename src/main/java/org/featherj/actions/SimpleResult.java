@@ -4,14 +4,21 @@ import org.featherj.View;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-
-//FIXME: extract ViewResult and change EntryServlet.ResponseBuilder implementation (remove view rendering logic from there)
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//FIXME: remove view rendering logic from EntryServlet.ResponseBuilder implementation
+/**
+ * Mutable result built by an action. Immutable results shared between requests extend {@link ViewResult}.
+ */
 public class SimpleResult implements ActionResult {
 
     private int status;
     private View view;
     private String mimeType ="text/html";
     private int contentLength;
+    private Map<String, String> headers;
 
     public SimpleResult() {
     }
@@ -30,7 +37,6 @@ public class SimpleResult implements ActionResult {
         return status;
     }
 
-    @Override
     public void setStatus(int status) {
         this.status = status;
     }
@@ -40,7 +46,6 @@ public class SimpleResult implements ActionResult {
         return view;
     }
 
-    @Override
     public void setView(View view) {
         this.view = view;
     }
@@ -50,7 +55,6 @@ public class SimpleResult implements ActionResult {
         return mimeType;
     }
 
-    @Override
     public void setMimeType(String mimeType) {
         this.mimeType = mimeType;
     }
@@ -60,11 +64,42 @@ public class SimpleResult implements ActionResult {
         return contentLength;
     }
 
-    @Override
     public void setContentLength(int contentLength) {
         this.contentLength = contentLength;
     }
 
+    @Override
+    public Map<String, String> getHeaders() {
+        if (headers == null) {
+            return Collections.emptyMap();
+        }
+        return headers;
+    }
+
+    public void setHeader(String name, String value) {
+        if (headers == null) {
+            headers = new LinkedHashMap<String, String>();
+        }
+        headers.put(name, value);
+    }
+
+    /**
+     * Sets (weak) entity tag of the response computed from the version of the data the view shows
+     * (e.g. "user:10:" + user.getUpdatedAt()). Conditional requests of the same version (If-None-Match)
+     * get "304 Not Modified" before the view is rendered.
+     *
+     * @param versionKey Version of the data, it must change whenever the rendered page changes
+     */
+    public void setVersion(String versionKey) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < versionKey.length(); i++) {
+            hash ^= versionKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        setHeader("ETag", "W/\"" + Long.toHexString(hash) + "\"");
+    }
+
     @Override
     public void callBuilder(ResponseBuilder builder, HttpServletResponse response) throws IOException {
         builder.build(this, response);
@@ -0,0 +1,59 @@
+package org.featherj.actions;
+
+import org.featherj.View;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable result: status, view (if any), MIME type and headers are set once by the constructor.
+ * Subclasses with preencoded bodies (e.g. {@link BytesResult}) can be shared between requests
+ * and threads. Use {@link SimpleResult} to build a result in an action.
+ */
+public abstract class ViewResult implements ActionResult {
+
+    private final int status;
+    private final View view;
+    private final String mimeType;
+    private final int contentLength;
+    private final Map<String, String> headers;
+
+    /**
+     * @param headers Response headers (copied)
+     */
+    protected ViewResult(int status, View view, String mimeType, int contentLength, Map<String, String> headers) {
+        this.status = status;
+        this.view = view;
+        this.mimeType = mimeType;
+        this.contentLength = contentLength;
+        this.headers = headers.isEmpty()
+            ? Collections.<String, String>emptyMap()
+            : Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public View getView() {
+        return view;
+    }
+
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+}
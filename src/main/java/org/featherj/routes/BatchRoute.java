@@ -0,0 +1,127 @@
+package org.featherj.routes;
+
+import org.featherj.Bulkhead;
+import org.featherj.Request;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.routes.params.RouteParam;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Built-in POST route which runs a batch of sub-requests in one round trip. The request body lists
+ * sub-requests, one per line: method and URL separated by a space (e.g. "GET /users/10?tab=posts").
+ * The servlet dispatches them through the same {@link Router} in-process, runs them in parallel on the
+ * route's bounded thread pool and streams back "multipart/mixed" response: one "application/http" part
+ * per sub-request, in order of completion, with "Content-ID: &lt;response-N&gt;" (N is the line index).
+ *
+ * The batch itself is admitted by the concurrency limiter at the route priority. Sub-requests have no body,
+ * get headers of the batch request (e.g. Cookie and Authorization, but not Range, If-* and Content-* headers)
+ * and are admitted, isolated and rate limited like ordinary requests of their routes. Batches can't be nested.
+ */
+public class BatchRoute extends Route {
+
+    private static final BytesResult NOT_SERVED = new BytesResult(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+        "text/plain;charset=UTF-8", Collections.<String, String>emptyMap(),
+        "Batch requests must be served by EntryServlet".getBytes(Charset.forName("UTF-8")));
+
+    /**
+     * Sub-request of a batch.
+     */
+    public static class Part {
+        private final HttpMethod method;
+        private final String url;
+
+        public Part(HttpMethod method, String url) {
+            this.method = method;
+            this.url = url;
+        }
+
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    private final int maxParts;
+    private final Bulkhead bulkhead;
+
+    /**
+     * @param threads Number of sub-requests run at once (by all batches)
+     * @param maxParts Maximum number of sub-requests in a batch
+     */
+    public BatchRoute(String urlPattern, int threads, int maxParts) throws UrlParseException {
+        super(HttpMethod.POST, urlPattern, new RouteParam<?>[0]);
+        if (maxParts < 1) {
+            throw new IllegalArgumentException("Positive number of sub-requests is expected");
+        }
+        this.maxParts = maxParts;
+        this.bulkhead = Bulkhead.threadPool("batch", threads, threads * maxParts);
+    }
+
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    /**
+     * @return Thread pool of sub-requests
+     */
+    public Bulkhead getPartBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Parses sub-requests of a batch, empty lines are skipped.
+     *
+     * @throws IllegalArgumentException if a line is malformed or there are too many (or no) sub-requests
+     */
+    public List<Part> parse(BufferedReader body) throws IOException {
+        List<Part> parts = new ArrayList<Part>();
+        String line;
+        while ((line = body.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            HttpMethod method = space > 0 ? HttpMethod.parse(line.substring(0, space)) : null;
+            String url = space > 0 ? line.substring(space + 1).trim() : "";
+            if (method == null || !url.startsWith("/")) {
+                throw new IllegalArgumentException("Malformed sub-request \"" + line + "\"");
+            }
+            if (parts.size() == maxParts) {
+                throw new IllegalArgumentException("More than " + maxParts + " sub-requests in a batch");
+            }
+            parts.add(new Part(method, url));
+        }
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("Empty batch");
+        }
+        return parts;
+    }
+
+    /**
+     * Batches are run by {@link org.featherj.EntryServlet}, which streams the response. Other callers
+     * (e.g. {@link Router#routeAndRun}) get "500 Internal Server Error".
+     */
+    @Override
+    public ActionResult runAction(Request request) {
+        return NOT_SERVED;
+    }
+
+    /**
+     * Stops threads of sub-requests.
+     */
+    public void shutdown() {
+        bulkhead.shutdown();
+    }
+}
@@ -0,0 +1,26 @@
+package org.featherj.routes;
+
+import org.featherj.Request;
+import org.featherj.RequestImpl;
+import org.featherj.actions.ActionResult;
+
+/**
+ * Dispatches requests to actions without compiled {@link Route} objects. Implementations are
+ * usually generated at build time from annotated controller methods
+ * (see {@link org.featherj.tools.RouteDispatcherProcessor}).
+ */
+public interface Dispatcher {
+
+    /**
+     * Runs action matching the request, if any.
+     *
+     * @return Action result or null if the request isn't matched
+     */
+    ActionResult dispatch(HttpMethod method, RequestImpl request) throws Exception;
+
+    /**
+     * Tells whether the request would be dispatched to an action, without running it
+     * (e.g. to list allowed methods of a URL).
+     */
+    boolean matches(HttpMethod method, Request request);
+}
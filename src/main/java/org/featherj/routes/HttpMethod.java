@@ -0,0 +1,25 @@
+package org.featherj.routes;
+
+/**
+ * HTTP methods supported by routes. HEAD requests are dispatched to GET routes
+ * (response body is not written for them).
+ */
+public enum HttpMethod {
+    GET,
+    POST,
+    PUT,
+    DELETE,
+    HEAD;
+
+    /**
+     * @return Method with specified name or null if the method isn't supported
+     */
+    public static HttpMethod parse(String name) {
+        for (HttpMethod m : values()) {
+            if (m.name().equals(name)) {
+                return m;
+            }
+        }
+        return null;
+    }
+}
@@ -1,18 +1,24 @@
 package org.featherj.routes;
 
+import org.featherj.CachePolicy;
+import org.featherj.PageHead;
+import org.featherj.QueryParams;
 import org.featherj.Request;
 import org.featherj.RequestImpl;
 import org.featherj.actions.ActionResult;
+import org.featherj.routes.params.IntRouteParam;
+import org.featherj.routes.params.LongRouteParam;
 import org.featherj.routes.params.RouteParam;
+import org.featherj.routes.params.UrlEncoding;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 
 public abstract class Route {
 
-    private abstract class RoutePart {
+    abstract static class RoutePart {
         private final String str;
 
         public RoutePart(String str) {
@@ -23,99 +29,253 @@ public abstract class Route {
             return str;
         }
 
-        public abstract int match(String url, int currentUrlIndex);
+        public abstract int match(CharSequence url, int currentUrlIndex, RouteMatch match);
 
-        public abstract void fillParams(RequestImpl request);
+        public void fillParams(Object[] values, RouteMatch match) {
+        }
     }
 
-    private class SlashRoutePart extends RoutePart {
+    static class SlashRoutePart extends RoutePart {
 
         public SlashRoutePart() {
             super("/");
         }
 
         @Override
-        public int match(String url, int currentUrlIndex) {
-            if (url.charAt(currentUrlIndex) == '/') {
+        public int match(CharSequence url, int currentUrlIndex, RouteMatch match) {
+            if (currentUrlIndex < url.length() && url.charAt(currentUrlIndex) == '/') {
                 currentUrlIndex++;
                 return currentUrlIndex;
             }
 
             return -1;
         }
-
-        @Override
-        public void fillParams(RequestImpl request) {
-        }
     }
 
-    private class UrlRoutePart extends RoutePart {
+    static class UrlRoutePart extends RoutePart {
         public UrlRoutePart(String str) {
             super(str);
         }
 
         @Override
-        public int match(String url, int currentUrlIndex) {
+        public int match(CharSequence url, int currentUrlIndex, RouteMatch match) {
             String str = getStr();
-            if (str.regionMatches(0, url, currentUrlIndex, str.length())) {
+            if (regionMatches(url, currentUrlIndex, str)) {
                 return currentUrlIndex + str.length();
             }
 
             return -1;
         }
 
-        @Override
-        public void fillParams(RequestImpl request) {
+        static boolean regionMatches(CharSequence url, int currentUrlIndex, String str) {
+            if (url.length() - currentUrlIndex < str.length()) {
+                return false;
+            }
+            for (int i = 0; i < str.length(); i++) {
+                if (url.charAt(currentUrlIndex + i) != str.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
-    private class ParamKeyRoutePart extends RoutePart {
-        private RouteParam<?> param;
+    static class ParamKeyRoutePart extends RoutePart {
+        private final RouteParam<?> param;
+        private final int slot;
 
-        public ParamKeyRoutePart(RouteParam<?> param) {
+        public ParamKeyRoutePart(RouteParam<?> param, int slot) {
             super(param.getKey());
             this.param = param;
+            this.slot = slot;
+        }
+
+        public RouteParam<?> getParam() {
+            return param;
         }
 
         @Override
-        public int match(String url, int currentUrlIndex) {
-            Matcher m = param.getExpr().matcher(url);
-            if (m.find(currentUrlIndex)) {
-                param.extractValue(m.group());
-                return m.end();
+        public int match(CharSequence url, int currentUrlIndex, RouteMatch match) {
+            int end = matchParam(param, url, currentUrlIndex, url.length());
+            if (end != -1) {
+                match.capture(slot, currentUrlIndex, end);
             }
+            return end;
+        }
 
-            return -1;
+        /**
+         * @return Index of the first character after matched (non-empty) value or -1
+         */
+        static int matchParam(RouteParam<?> param, CharSequence url, int currentUrlIndex, int limit) {
+            int end = param.match(url, currentUrlIndex, limit);
+            return end > currentUrlIndex ? end : -1;
         }
 
         @Override
-        public void fillParams(RequestImpl request) {
-            request.param(param.getKey(), param.getValue());
+        public void fillParams(Object[] values, RouteMatch match) {
+            values[slot] = param.parseValue(match.getUrl(), match.start(slot), match.end(slot));
         }
     }
 
-    private class AsteriskRoutePart extends RoutePart {
+    static class AsteriskRoutePart extends RoutePart {
 
         public AsteriskRoutePart() {
             super("*");
         }
 
         @Override
-        public int match(String url, int currentUrlIndex) {
+        public int match(CharSequence url, int currentUrlIndex, RouteMatch match) {
             return url.length();
         }
+    }
 
-        @Override
-        public void fillParams(RequestImpl request) {
+    /**
+     * Query string part of a URL pattern ("name=:param" or "name=literal"). Query parameters
+     * are looked up by name, so their order in request URL doesn't matter.
+     */
+    static class QueryRoutePart {
+        private final String name;
+        private final String literal;
+        private final RouteParam<?> param;
+        private final int slot;
+
+        public QueryRoutePart(String name, String literal) {
+            this.name = name;
+            this.literal = literal;
+            this.param = null;
+            this.slot = -1;
+        }
+
+        public QueryRoutePart(String name, RouteParam<?> param, int slot) {
+            this.name = name;
+            this.literal = null;
+            this.param = param;
+            this.slot = slot;
+        }
+
+        public boolean match(QueryParams query, RouteMatch match) {
+            int i = query.indexOf(name);
+            if (i == -1) {
+                return false;
+            }
+
+            CharSequence url = match.getUrl();
+            int start = query.getValueStart(i);
+            int end = query.getValueEnd(i);
+            if (param == null) {
+                return end - start == literal.length() && UrlRoutePart.regionMatches(url, start, literal);
+            }
+            if (ParamKeyRoutePart.matchParam(param, url, start, end) != end) {
+                return false;
+            }
+            match.capture(slot, start, end);
+            return true;
+        }
+
+        public void fillParams(Object[] values, RouteMatch match) {
+            if (param != null) {
+                values[slot] = param.parseValue(match.getUrl(), match.start(slot), match.end(slot));
+            }
         }
     }
 
-    private class UrlPatternParser {
+    /**
+     * URL writer precompiled from the pattern: adjacent literal parts (slashes, URL parts, query parameter
+     * names and literal values) are joined into single strings, so writing a URL is appending of
+     * literals interleaved with formatted parameter values.
+     */
+    private static class UrlWriter {
+        // literals[i] precedes params[i], the last literal follows the last parameter
+        private final String[] literals;
+        // null stands for the asterisk
+        private final RouteParam<?>[] params;
+
+        public UrlWriter(RoutePart[] parts, QueryRoutePart[] queryParts) {
+            ArrayList<String> literals = new ArrayList<String>();
+            ArrayList<RouteParam<?>> params = new ArrayList<RouteParam<?>>();
+            StringBuilder literal = new StringBuilder();
+            for (RoutePart part : parts) {
+                if (part instanceof ParamKeyRoutePart || part instanceof AsteriskRoutePart) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    params.add(part instanceof ParamKeyRoutePart ? ((ParamKeyRoutePart) part).getParam() : null);
+                }
+                else {
+                    literal.append(part.getStr());
+                }
+            }
+            for (int i = 0; i < queryParts.length; i++) {
+                QueryRoutePart part = queryParts[i];
+                literal.append(i == 0 ? '?' : '&').append(part.name).append('=');
+                if (part.param == null) {
+                    literal.append(part.literal);
+                }
+                else {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    params.add(part.param);
+                }
+            }
+            literals.add(literal.toString());
+
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.params = params.toArray(new RouteParam<?>[params.size()]);
+        }
+
+        public int getValueCount() {
+            return params.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void write(Appendable out, Object[] values) throws IOException {
+            if (values.length != params.length) {
+                throw new IllegalArgumentException(params.length + " URL parameter values are expected, but got " + values.length);
+            }
+            for (int i = 0; i < params.length; i++) {
+                out.append(literals[i]);
+                Object value = values[i];
+                if (value == null) {
+                    throw new IllegalArgumentException("URL parameter value #" + i + " is null");
+                }
+                if (params[i] == null) {
+                    UrlEncoding.appendEncoded(value.toString(), true, out);
+                }
+                else {
+                    ((RouteParam<Object>) params[i]).format(value, out);
+                }
+            }
+            out.append(literals[params.length]);
+        }
+
+        public void write(Appendable out, long value) throws IOException {
+            if (params.length != 1 || !(params[0] instanceof IntRouteParam || params[0] instanceof LongRouteParam)) {
+                throw new IllegalArgumentException("Route doesn't have a single int or long parameter");
+            }
+            if (value < 1) {
+                throw new IllegalArgumentException("URL parameter value must be positive: " + value);
+            }
+            if (params[0] instanceof IntRouteParam && value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("URL parameter value doesn't fit into int: " + value);
+            }
+            out.append(literals[0]);
+            UrlEncoding.appendLong(value, out);
+            out.append(literals[1]);
+        }
+    }
+
+    /**
+     * Parses URL patterns: <code>path-part* ("?" query-part ("&amp;" query-part)*)?</code>, where
+     * <code>path-part</code> is "/", ":param", "*" (only at the end of the path) or a literal,
+     * and <code>query-part</code> is "name=:param" or "name=literal".
+     */
+    private static class UrlPatternParser {
         private final Map<String, RouteParam<?>> params;
         private String urlPattern;
         private int i;
         private StringBuilder currentPartStr;
         private ArrayList<RoutePart> readyParts;
+        private ArrayList<QueryRoutePart> queryParts;
+        private ArrayList<String> paramKeys;
 
         public UrlPatternParser(Map<String, RouteParam<?>> params) {
             this.params = params;
@@ -126,10 +286,15 @@ public abstract class Route {
             i = 0;
             currentPartStr = new StringBuilder();
             readyParts = new ArrayList<RoutePart>();
+            queryParts = new ArrayList<QueryRoutePart>();
+            paramKeys = new ArrayList<String>();
 
             while (hasNext()) {
                 char ch = peek();
-                if (ch == '/') {
+                if (ch == '?') {
+                    queryPart();
+                }
+                else if (ch == '/') {
                     slashPart();
                 }
                 else if (ch == ':') {
@@ -146,6 +311,17 @@ public abstract class Route {
             return readyParts.toArray(new RoutePart[readyParts.size()]);
         }
 
+        public QueryRoutePart[] getQueryParts() {
+            return queryParts.toArray(new QueryRoutePart[queryParts.size()]);
+        }
+
+        /**
+         * @return Keys of parsed parameter references, ordered by their slots
+         */
+        public String[] getParamKeys() {
+            return paramKeys.toArray(new String[paramKeys.size()]);
+        }
+
         private char read() {
             char ch = urlPattern.charAt(i);
             currentPartStr.append(ch);
@@ -179,6 +355,12 @@ public abstract class Route {
         }
 
         private void paramPart() throws UrlParseException {
+            String paramKey = paramKey();
+            readyParts.add(new ParamKeyRoutePart(resolveParam(paramKey), paramKeys.size()));
+            paramKeys.add(paramKey);
+        }
+
+        private String paramKey() throws UrlParseException {
             read(':');
             int index = i;
             while (hasNext() && Character.isLetterOrDigit(peek())) {
@@ -190,7 +372,51 @@ public abstract class Route {
             }
 
             String paramKey = currentPartStr.toString();
-            readyParts.add(new ParamKeyRoutePart(resolveParam(paramKey)));
+            currentPartStr = new StringBuilder();
+            return paramKey;
+        }
+
+        private void queryPart() throws UrlParseException {
+            read('?');
+            currentPartStr = new StringBuilder();
+            do {
+                queryParam();
+            }
+            while (hasNext() && peek() == '&' && readAndReset('&'));
+
+            if (hasNext()) {
+                throw new UrlParseException("'&' or end of the pattern is expected after " + getParsedPrefix());
+            }
+        }
+
+        private boolean readAndReset(char match) throws UrlParseException {
+            read(match);
+            currentPartStr = new StringBuilder();
+            return true;
+        }
+
+        private void queryParam() throws UrlParseException {
+            while (hasNext() && peek() != '=' && peek() != '&') {
+                read();
+            }
+            if (currentPartStr.length() == 0) {
+                throw new UrlParseException("A query parameter name is expected after " + getParsedPrefix());
+            }
+            String name = currentPartStr.toString();
+            read('=');
+            currentPartStr = new StringBuilder();
+
+            if (peek() == ':') {
+                String paramKey = paramKey();
+                queryParts.add(new QueryRoutePart(name, resolveParam(paramKey), paramKeys.size()));
+                paramKeys.add(paramKey);
+                return;
+            }
+
+            while (hasNext() && peek() != '&') {
+                read();
+            }
+            queryParts.add(new QueryRoutePart(name, currentPartStr.toString()));
             currentPartStr = new StringBuilder();
         }
 
@@ -205,6 +431,9 @@ public abstract class Route {
 
         private void asteriskPart() throws UrlParseException {
             read('*');
+            if (hasNext() && peek() != '?') {
+                throw new UrlParseException("'*' is allowed only at the end of the path, but got " + getParsedPrefix());
+            }
             readyParts.add(new AsteriskRoutePart());
             currentPartStr = new StringBuilder();
         }
@@ -212,7 +441,7 @@ public abstract class Route {
         private void urlPart() throws UrlParseException {
             char ch = peek();
             int index = i;
-            while (hasNext() && ch != '/' && ch != ':') {
+            while (hasNext() && ch != '/' && ch != ':' && ch != '?') {
                 read();
                 ch = peek();
             }
@@ -229,37 +458,342 @@ public abstract class Route {
         }
     }
 
+    private final HttpMethod method;
+    private final String urlPattern;
     private final RoutePart[] urlPatternParts;
+    private final QueryRoutePart[] queryParts;
+    private final String[] paramKeysBySlot;
+    private final UrlWriter urlWriter;
+    private RoutePriority priority;
+    private String bulkhead;
+    private boolean coalesced;
+    private CachePolicy cachePolicy;
+    private PageHead earlyHead;
 
     public Route(String urlPattern, RouteParam<?>...params) throws UrlParseException {
+        this(null, urlPattern, params);
+    }
+
+    /**
+     * @param method HTTP method of requests the route matches, null if any method is matched
+     */
+    public Route(HttpMethod method, String urlPattern, RouteParam<?>...params) throws UrlParseException {
+        this.method = method;
+        this.urlPattern = urlPattern;
         Map<String, RouteParam<?>> paramsMap = new HashMap<String, RouteParam<?>>();
         for (RouteParam<?> p : params) {
             paramsMap.put(p.getKey(), p);
-            p.clearValue();
         }
 
-        this.urlPatternParts = new UrlPatternParser(paramsMap).parse(urlPattern);
+        UrlPatternParser parser = new UrlPatternParser(paramsMap);
+        this.urlPatternParts = parser.parse(urlPattern);
+        this.queryParts = parser.getQueryParts();
+        this.paramKeysBySlot = parser.getParamKeys();
+        this.urlWriter = new UrlWriter(urlPatternParts, queryParts);
+    }
+
+    /**
+     * @return HTTP method of requests the route matches, null if any method is matched
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public String getUrlPattern() {
+        return urlPattern;
+    }
+
+    /**
+     * Tells whether the route matches requests with specified method (HEAD requests are matched by GET routes).
+     */
+    public boolean isMethodAllowed(HttpMethod requestMethod) {
+        return method == null || method == requestMethod || (method == HttpMethod.GET && requestMethod == HttpMethod.HEAD);
+    }
+
+    /**
+     * @return Number of parameter slots required by {@link RouteMatch} to match this route
+     */
+    public int getParamCount() {
+        return paramKeysBySlot.length;
+    }
+
+    /**
+     * Resolves parameter slot, so parameter value can be obtained with {@link Request#param(int)}
+     * without looking it up by name.
+     *
+     * @return Slot of the first parameter reference with specified key or -1
+     */
+    public int getParamSlot(String key) {
+        for (int i = 0; i < paramKeysBySlot.length; i++) {
+            if (paramKeysBySlot[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes URL of this route (e.g. a link in a view) straight into the output, without intermediate strings.
+     * Literal parts of the pattern are written as is (they are already URL encoded), parameter values
+     * are written by {@link RouteParam#format}.
+     *
+     * @param values Values of pattern parameters in the order of their appearance in the pattern
+     *               (the value of the asterisk, if any, is written with '/' kept as is)
+     * @throws IllegalArgumentException if number of values doesn't match the pattern or a value is null
+     * @throws ClassCastException if a value has type which isn't supported by its parameter
+     */
+    public void url(Appendable out, Object... values) throws IOException {
+        urlWriter.write(out, values);
+    }
+
+    /**
+     * Writes URL of a route which has the only int or long parameter, without boxing of the value.
+     *
+     * @throws IllegalArgumentException if the route has other parameters or the value isn't positive
+     * @see #url(Appendable, Object...)
+     */
+    public void url(Appendable out, long value) throws IOException {
+        urlWriter.write(out, value);
+    }
+
+    /**
+     * Appends URL of this route to the builder (e.g. to the view being rendered).
+     *
+     * @see #url(Appendable, Object...)
+     */
+    public void url(StringBuilder out, Object... values) {
+        try {
+            urlWriter.write(out, values);
+        }
+        catch (IOException e) {
+            // StringBuilder doesn't throw IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @see #url(Appendable, long)
+     */
+    public void url(StringBuilder out, long value) {
+        try {
+            urlWriter.write(out, value);
+        }
+        catch (IOException e) {
+            // StringBuilder doesn't throw IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return URL of this route
+     * @see #url(Appendable, Object...)
+     */
+    public String url(Object... values) {
+        StringBuilder url = new StringBuilder();
+        url(url, values);
+        return url.toString();
+    }
+
+    /**
+     * @return Number of values {@link #url(Appendable, Object...)} expects
+     */
+    public int getUrlValueCount() {
+        return urlWriter.getValueCount();
+    }
+
+    RoutePart[] getParts() {
+        return urlPatternParts;
     }
 
     public boolean matches(Request request) {
-        String requestUrl = request.getUrl();
-        int requestUrlIndex = 0;
+        return matches(request, new RouteMatch(getParamCount()));
+    }
+
+    /**
+     * Matches request URL against the route pattern. The path is matched part by part, query
+     * string parameters are looked up by name (any order, extra parameters are ignored). Bounds of the URL fragments matched by
+     * route parameters are stored into the specified (per-request) match state.
+     * Note that {@link Router} doesn't call this method, it dispatches requests through the
+     * compiled {@link RouteTrie}, so additional checks should be done in {@link #acceptsMatch(Request)}.
+     */
+    public boolean matches(Request request, RouteMatch match) {
+        CharSequence requestPath = request.getPath();
+        int requestPathIndex = 0;
+        match.reset(request.getUrl());
 
         for (RoutePart part : urlPatternParts) {
-            requestUrlIndex = part.match(requestUrl, requestUrlIndex);
-            if (requestUrlIndex == -1) {
+            requestPathIndex = part.match(requestPath, requestPathIndex, match);
+            if (requestPathIndex == -1) {
                 return false;
             }
         }
 
-        return requestUrl.length() == requestUrlIndex;
+        return requestPath.length() == requestPathIndex && matchesQuery(request, match) && acceptsMatch(request);
+    }
+
+    /**
+     * Matches query string part of the pattern. Parameter captures are stored into the match state.
+     */
+    boolean matchesQuery(Request request, RouteMatch match) {
+        if (queryParts.length == 0) {
+            return true;
+        }
+
+        QueryParams query = request.getQuery();
+        for (QueryRoutePart part : queryParts) {
+            if (!part.match(query, match)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Additional check of a request which URL is already matched by the route pattern.
+     * Override it if a route can't be chosen by the URL only (e.g. a requested file doesn't exist).
+     */
+    protected boolean acceptsMatch(Request request) {
+        return true;
+    }
+
+    /**
+     * Sets priority of the route for admission control (see {@link org.featherj.ConcurrencyLimiter}).
+     * Should be called before the route is passed to {@link Router}.
+     *
+     * @return This route
+     */
+    public Route withPriority(RoutePriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public RoutePriority getPriority() {
+        return priority != null ? priority : defaultPriority();
+    }
+
+    /**
+     * Puts the route into a bulkhead, so its actions are run within the bulkhead (see {@link org.featherj.Bulkhead}).
+     * Should be called before the route is passed to {@link Router}.
+     *
+     * @param bulkhead Name of a bulkhead defined by the servlet, null if the route isn't isolated
+     * @return This route
+     */
+    public Route withBulkhead(String bulkhead) {
+        this.bulkhead = bulkhead;
+        return this;
+    }
+
+    /**
+     * @return Name of the bulkhead of the route or null
+     */
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Enables coalescing of concurrent identical GET (and HEAD) requests of the route: only one of them runs
+     * the action, the others share its rendered result (see {@link org.featherj.SingleFlight}).
+     * Requests are identical if they have the same URL, including the query string, so the action must not
+     * depend on other request headers. Requests with Cookie or Authorization header (which may get
+     * personalised pages) and range requests run the action on their own.
+     * Should be called before the route is passed to {@link Router}.
+     *
+     * @return This route
+     */
+    public Route withCoalescing(boolean coalesced) {
+        this.coalesced = coalesced;
+        return this;
+    }
+
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Enables caching of rendered GET (and HEAD) responses of the route (see {@link org.featherj.ResponseCache}).
+     * Only "200 OK" responses without Set-Cookie header are cached. Should be called before the route is passed to {@link Router}.
+     *
+     * @param cachePolicy Caching policy, null disables caching
+     * @return This route
+     */
+    public Route withResponseCache(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Declares static head of the route pages, which is flushed to the client before the action runs
+     * (see {@link PageHead}). Views of the route render only the rest of the page. The head is sent early only to
+     * GET requests which aren't cached or coalesced, other responses get it prepended to the rendered view.
+     * Should be called before the route is passed to {@link Router}.
+     *
+     * @param earlyHead Static head, null if pages are sent only when they're rendered completely
+     * @return This route
+     */
+    public Route withEarlyHead(PageHead earlyHead) {
+        this.earlyHead = earlyHead;
+        return this;
+    }
+
+    public PageHead getEarlyHead() {
+        return earlyHead;
+    }
+
+    /**
+     * @return Priority of the route unless it's set by {@link #withPriority(RoutePriority)}, {@link RoutePriority#NORMAL} by default
+     */
+    protected RoutePriority defaultPriority() {
+        return RoutePriority.NORMAL;
+    }
+
+    /**
+     * Tells whether {@link Router} can cache the fact that a URL matches this route.
+     * Should return false if {@link #acceptsMatch(Request)} depends on anything but the URL.
+     * URLs rejected by such a route aren't cached as matches of routes declared after it either
+     * (e.g. a file that appears later must not stay shadowed by a catch-all route).
+     */
+    protected boolean isMatchCacheable() {
+        return true;
     }
 
     public abstract ActionResult runAction(Request request) throws Exception;
 
-    public void fillParams(RequestImpl request) {
+    /**
+     * Converts parameter values captured by successful {@link #matches(Request, RouteMatch)}
+     * call and puts them into the request.
+     */
+    public void fillParams(RequestImpl request, RouteMatch match) {
+        if (paramKeysBySlot.length > 0) {
+            request.params(paramKeysBySlot, parseParams(match));
+        }
+    }
+
+    /**
+     * Converts parameter values captured by successful {@link #matches(Request, RouteMatch)} call.
+     *
+     * @return Parameter values ordered by slots
+     */
+    Object[] parseParams(RouteMatch match) {
+        Object[] values = new Object[paramKeysBySlot.length];
         for (RoutePart part : urlPatternParts) {
-            part.fillParams(request);
+            part.fillParams(values, match);
         }
+        for (QueryRoutePart part : queryParts) {
+            part.fillParams(values, match);
+        }
+        return values;
+    }
+
+    String[] getParamKeys() {
+        return paramKeysBySlot;
+    }
+
+    @Override
+    public String toString() {
+        return (method != null ? method.name() : "*") + " " + urlPattern;
     }
 }
@@ -0,0 +1,95 @@
+package org.featherj.routes;
+
+/**
+ * Per-request state of a route matching procedure.
+ * Keeps bounds of URL fragments captured by route parameters. Captures are indexed by
+ * parameter slot that is assigned to every parameter reference when a route is compiled,
+ * so the same instance can be reused while trying several routes for one request.
+ * Captured fragments are converted into values only after the whole route is matched
+ * (see {@link Route#fillParams}).
+ */
+public class RouteMatch {
+    private CharSequence url;
+    private final int[] bounds;
+    private final int[] keptBounds;
+    private Route route;
+    private int routeIndex;
+    // index of the first route that rejected the URL by a check that can't be cached
+    private int uncacheableIndex;
+
+    public RouteMatch(int slotCount) {
+        this.bounds = new int[slotCount * 2];
+        this.keptBounds = new int[slotCount * 2];
+    }
+
+    void reset(CharSequence url) {
+        this.url = url;
+        this.route = null;
+        this.routeIndex = Integer.MAX_VALUE;
+        this.uncacheableIndex = Integer.MAX_VALUE;
+    }
+
+    void found(Route route, int routeIndex) {
+        this.route = route;
+        this.routeIndex = routeIndex;
+    }
+
+    void rejected(int routeIndex) {
+        uncacheableIndex = Math.min(uncacheableIndex, routeIndex);
+    }
+
+    void capture(int slot, int start, int end) {
+        bounds[slot * 2] = start;
+        bounds[slot * 2 + 1] = end;
+    }
+
+    /**
+     * Remembers current captures, so matching can try other alternatives and
+     * then {@link #restore()} them.
+     */
+    void keep() {
+        System.arraycopy(bounds, 0, keptBounds, 0, bounds.length);
+    }
+
+    void restore() {
+        System.arraycopy(keptBounds, 0, bounds, 0, bounds.length);
+    }
+
+    public CharSequence getUrl() {
+        return url;
+    }
+
+    /**
+     * @return Route found by {@link Router#match}, null if no route matched
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return Index of matched route among the routes of the trie that found it
+     */
+    int getRouteIndex() {
+        return routeIndex;
+    }
+
+    /**
+     * @return Whether the matched route would still win if the URL was matched again later, that is no route declared
+     * before it rejected the URL by a check that isn't cacheable (see {@link Route#isMatchCacheable()})
+     */
+    boolean isCacheable() {
+        return route != null && route.isMatchCacheable() && routeIndex < uncacheableIndex;
+    }
+
+    public int getSlotCount() {
+        return bounds.length / 2;
+    }
+
+    public int start(int slot) {
+        return bounds[slot * 2];
+    }
+
+    public int end(int slot) {
+        return bounds[slot * 2 + 1];
+    }
+}
@@ -0,0 +1,147 @@
+package org.featherj.routes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of resolved routes keyed by full request URL (including query string).
+ * Every entry keeps the matched route and already parsed (decoded) parameter values,
+ * so requests to hot URLs skip matching completely.
+ *
+ * The cache is split into segments with their own locks and LRU eviction, so concurrent
+ * requests don't contend on a single lock. Only matches of routes that can be chosen by URL only
+ * are cached (see {@link Route#isMatchCacheable()}), URLs that don't match any route are never cached.
+ */
+public class RouteMatchCache {
+
+    static class Entry {
+        private final Route route;
+        private final int routeIndex;
+        private final Object[] paramValues;
+
+        Entry(Route route, int routeIndex, Object[] paramValues) {
+            this.route = route;
+            this.routeIndex = routeIndex;
+            this.paramValues = paramValues;
+        }
+
+        public int getRouteIndex() {
+            return routeIndex;
+        }
+
+        public Route getRoute() {
+            return route;
+        }
+
+        /**
+         * @return Parsed parameter values ordered by slots (shared by requests, must not be modified)
+         */
+        public Object[] getParamValues() {
+            return paramValues;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<String, Entry> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity Maximum number of cached URLs
+     */
+    public RouteMatchCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    private Segment segmentFor(String url) {
+        int h = url.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    Entry get(String url) {
+        Segment segment = segmentFor(url);
+        Entry entry;
+        segment.lock.lock();
+        try {
+            entry = segment.get(url);
+        }
+        finally {
+            segment.lock.unlock();
+        }
+
+        if (entry != null) {
+            hits.increment();
+        }
+        else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    void put(String url, Route route, int routeIndex, Object[] paramValues) {
+        Segment segment = segmentFor(url);
+        segment.lock.lock();
+        try {
+            segment.put(url, new Entry(route, routeIndex, paramValues));
+        }
+        finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,21 @@
+package org.featherj.routes;
+
+/**
+ * Priority of a route for admission control (see {@link org.featherj.ConcurrencyLimiter}).
+ */
+public enum RoutePriority {
+    /**
+     * Requests are never rejected by the limiter and aren't counted by it
+     * (e.g. static resources and health checks).
+     */
+    CRITICAL,
+    /**
+     * Requests are admitted while the number of requests in flight is below the limit.
+     */
+    NORMAL,
+    /**
+     * Requests are shed first: they are admitted only while the number of requests in flight
+     * is below 3/4 of the limit.
+     */
+    LOW
+}
@@ -0,0 +1,332 @@
+package org.featherj.routes;
+
+import org.featherj.Request;
+import org.featherj.routes.params.RouteParam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiled prefix tree of route patterns that is used by {@link Router} to dispatch requests.
+ * Only URL path is matched by the tree, query string parts of the patterns are checked
+ * for the routes found by path.
+ * Literal pattern parts ("/" and URL parts) are merged into edges of a radix tree, parameters
+ * and "*" are separate edges of a node, so dispatch time depends on the URL length
+ * rather than on the number of routes.
+ * If several routes match the same URL, the one declared first wins (exactly as if the routes
+ * were tried one by one in declaration order).
+ * The tree is not modified after construction, so it can be shared between request threads.
+ */
+class RouteTrie {
+
+    private static class Node {
+        private final List<LiteralEdge> literalEdges = new ArrayList<LiteralEdge>();
+        private final List<ParamEdge> paramEdges = new ArrayList<ParamEdge>();
+        private final List<Terminal> terminals = new ArrayList<Terminal>();
+        private Node asteriskChild;
+
+        // compiled state
+        private char[] literalChars;
+        private LiteralEdge[] literals;
+        private volatile ParamEdge[] params;
+        private Terminal[] routes;
+        private int minIndex;
+    }
+
+    private static class LiteralEdge {
+        private String label;
+        private Node child;
+
+        private LiteralEdge(String label, Node child) {
+            this.label = label;
+            this.child = child;
+        }
+    }
+
+    private static class ParamEdge {
+        private final RouteParam<?> param;
+        private final Node child = new Node();
+
+        private ParamEdge(RouteParam<?> param) {
+            this.param = param;
+        }
+    }
+
+    private static class Terminal {
+        private final Route route;
+        private final int index;
+
+        private Terminal(Route route, int index) {
+            this.route = route;
+            this.index = index;
+        }
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param routes Routes in declaration (priority) order
+     */
+    public RouteTrie(Route[] routes) {
+        for (int i = 0; i < routes.length; i++) {
+            add(routes[i], i);
+        }
+        compile(root);
+    }
+
+    /**
+     * Finds the first declared route matching request URL.
+     *
+     * @param match Per-request match state, receives captured parameters and matched route
+     * @return Matched route or null if no route matches the request
+     */
+    public Route find(Request request, RouteMatch match) {
+        match.reset(request.getUrl());
+        find(root, request.getPath(), 0, 0, request, match);
+        if (match.getRoute() != null) {
+            match.restore();
+        }
+        return match.getRoute();
+    }
+
+    private void find(Node node, CharSequence path, int i, int slot, Request request, RouteMatch match) {
+        // note that pruning by minIndex (and not the order of edges) guarantees that the first declared route wins
+        if (node.minIndex >= match.getRouteIndex()) {
+            return;
+        }
+
+        int length = path.length();
+        if (i == length) {
+            acceptTerminal(node, request, match);
+        }
+        else if (node.literalChars.length > 0) {
+            int e = Arrays.binarySearch(node.literalChars, path.charAt(i));
+            if (e >= 0) {
+                String label = node.literals[e].label;
+                if (Route.UrlRoutePart.regionMatches(path, i, label)) {
+                    find(node.literals[e].child, path, i + label.length(), slot, request, match);
+                }
+            }
+        }
+
+        ParamEdge[] params = node.params;
+        for (ParamEdge edge : params) {
+            if (edge.child.minIndex >= match.getRouteIndex()) {
+                continue;
+            }
+            int end = Route.ParamKeyRoutePart.matchParam(edge.param, path, i, length);
+            if (end != -1) {
+                match.capture(slot, i, end);
+                find(edge.child, path, end, slot + 1, request, match);
+            }
+        }
+
+        if (node.asteriskChild != null) {
+            acceptTerminal(node.asteriskChild, request, match);
+        }
+    }
+
+    private void acceptTerminal(Node node, Request request, RouteMatch match) {
+        for (Terminal t : node.routes) {
+            if (t.index >= match.getRouteIndex()) {
+                return;
+            }
+            if (t.route.matchesQuery(request, match)) {
+                if (t.route.acceptsMatch(request)) {
+                    match.found(t.route, t.index);
+                    match.keep();
+                    return;
+                }
+                if (!t.route.isMatchCacheable()) {
+                    match.rejected(t.index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes the order in which parameter edges of every node are tried, so that edges leading to
+     * the most frequently matched routes are tried first. A match found earlier prunes subtrees
+     * of routes declared later, so the hottest routes are found with fewer attempts.
+     * The order doesn't affect which route is matched. Can be called concurrently with {@link #find},
+     * but not with itself.
+     *
+     * @param hits Number of matches of every route (indexed as routes passed to the constructor)
+     */
+    public void reorder(long[] hits) {
+        reorder(root, hits);
+    }
+
+    private static long reorder(Node node, final long[] hits) {
+        long total = 0;
+        for (Terminal t : node.routes) {
+            total += hits[t.index];
+        }
+        for (LiteralEdge edge : node.literals) {
+            total += reorder(edge.child, hits);
+        }
+        if (node.asteriskChild != null) {
+            total += reorder(node.asteriskChild, hits);
+        }
+
+        final ParamEdge[] params = node.params;
+        final long[] edgeHits = new long[params.length];
+        Integer[] order = new Integer[params.length];
+        for (int i = 0; i < params.length; i++) {
+            edgeHits[i] = reorder(params[i].child, hits);
+            order[i] = i;
+            total += edgeHits[i];
+        }
+        if (params.length > 1) {
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    if (edgeHits[i1] != edgeHits[i2]) {
+                        return edgeHits[i1] > edgeHits[i2] ? -1 : 1;
+                    }
+                    return params[i1].child.minIndex - params[i2].child.minIndex;
+                }
+            });
+            ParamEdge[] reordered = new ParamEdge[params.length];
+            for (int i = 0; i < order.length; i++) {
+                reordered[i] = params[order[i]];
+            }
+            node.params = reordered;
+        }
+        return total;
+    }
+
+    /**
+     * Lists route indexes in the order routes are tried (depth first, with current order of edges).
+     */
+    public void collectRoutes(List<Integer> indexes) {
+        collectRoutes(root, indexes);
+    }
+
+    private static void collectRoutes(Node node, List<Integer> indexes) {
+        for (Terminal t : node.routes) {
+            indexes.add(t.index);
+        }
+        for (LiteralEdge edge : node.literals) {
+            collectRoutes(edge.child, indexes);
+        }
+        for (ParamEdge edge : node.params) {
+            collectRoutes(edge.child, indexes);
+        }
+        if (node.asteriskChild != null) {
+            collectRoutes(node.asteriskChild, indexes);
+        }
+    }
+
+    private void add(Route route, int index) {
+        Node node = root;
+        StringBuilder literal = new StringBuilder();
+        for (Route.RoutePart part : route.getParts()) {
+            if (part instanceof Route.ParamKeyRoutePart) {
+                node = literalNode(node, literal.toString());
+                literal.setLength(0);
+                node = paramNode(node, ((Route.ParamKeyRoutePart) part).getParam());
+            }
+            else if (part instanceof Route.AsteriskRoutePart) {
+                node = literalNode(node, literal.toString());
+                literal.setLength(0);
+                if (node.asteriskChild == null) {
+                    node.asteriskChild = new Node();
+                }
+                node = node.asteriskChild;
+            }
+            else {
+                literal.append(part.getStr());
+            }
+        }
+        node = literalNode(node, literal.toString());
+        node.terminals.add(new Terminal(route, index));
+    }
+
+    private Node literalNode(Node node, String literal) {
+        if (literal.length() == 0) {
+            return node;
+        }
+
+        for (LiteralEdge edge : node.literalEdges) {
+            if (edge.label.charAt(0) != literal.charAt(0)) {
+                continue;
+            }
+
+            int common = 1;
+            int max = Math.min(edge.label.length(), literal.length());
+            while (common < max && edge.label.charAt(common) == literal.charAt(common)) {
+                common++;
+            }
+
+            if (common < edge.label.length()) {
+                // split the edge
+                Node middle = new Node();
+                middle.literalEdges.add(new LiteralEdge(edge.label.substring(common), edge.child));
+                edge.label = edge.label.substring(0, common);
+                edge.child = middle;
+            }
+            return literalNode(edge.child, literal.substring(common));
+        }
+
+        Node child = new Node();
+        node.literalEdges.add(new LiteralEdge(literal, child));
+        return child;
+    }
+
+    private Node paramNode(Node node, RouteParam<?> param) {
+        for (ParamEdge edge : node.paramEdges) {
+            if (edge.param.matchesSameAs(param)) {
+                return edge.child;
+            }
+        }
+
+        ParamEdge edge = new ParamEdge(param);
+        node.paramEdges.add(edge);
+        return edge.child;
+    }
+
+    private static int compile(Node node) {
+        int min = Integer.MAX_VALUE;
+
+        node.routes = node.terminals.toArray(new Terminal[node.terminals.size()]);
+        if (node.routes.length > 0) {
+            min = node.routes[0].index;
+        }
+
+        Collections.sort(node.literalEdges, new Comparator<LiteralEdge>() {
+            @Override
+            public int compare(LiteralEdge e1, LiteralEdge e2) {
+                return e1.label.charAt(0) - e2.label.charAt(0);
+            }
+        });
+        node.literals = node.literalEdges.toArray(new LiteralEdge[node.literalEdges.size()]);
+        node.literalChars = new char[node.literals.length];
+        for (int i = 0; i < node.literals.length; i++) {
+            node.literalChars[i] = node.literals[i].label.charAt(0);
+            min = Math.min(min, compile(node.literals[i].child));
+        }
+
+        node.params = node.paramEdges.toArray(new ParamEdge[node.paramEdges.size()]);
+        for (ParamEdge edge : node.params) {
+            min = Math.min(min, compile(edge.child));
+        }
+        // try parameters that can lead to earlier declared routes first
+        Arrays.sort(node.params, new Comparator<ParamEdge>() {
+            @Override
+            public int compare(ParamEdge e1, ParamEdge e2) {
+                return e1.child.minIndex - e2.child.minIndex;
+            }
+        });
+
+        if (node.asteriskChild != null) {
+            min = Math.min(min, compile(node.asteriskChild));
+        }
+
+        node.minIndex = min;
+        return min;
+    }
+}
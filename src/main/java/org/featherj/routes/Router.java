@@ -4,46 +4,395 @@ import org.featherj.Request;
 import org.featherj.RequestImpl;
 import org.featherj.actions.Action;
 import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncAction;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.NotFoundResult;
+import org.featherj.actions.SimpleResult;
 import org.featherj.routes.params.RouteParam;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Router {
 
-    public class RouteNotFoundException extends Exception {
-        public RouteNotFoundException(String message) {
-            super(message);
+    /**
+     * Compiled routes matching requests with a particular HTTP method.
+     */
+    private static class MethodTable {
+        private final HttpMethod method;
+        private final RouteTrie trie;
+        private final RouteMatchCache matchCache;
+        // declaration indexes of the table routes
+        private final int[] routeIds;
+
+        MethodTable(HttpMethod method, Route[] routes, int[] routeIds, int matchCacheCapacity) {
+            this.method = method;
+            this.trie = new RouteTrie(routes);
+            this.matchCache = matchCacheCapacity > 0 ? new RouteMatchCache(matchCacheCapacity) : null;
+            this.routeIds = routeIds;
         }
     }
 
+    private static final HttpMethod[] METHODS = HttpMethod.values();
+    private static final Dispatcher[] NO_DISPATCHERS = new Dispatcher[0];
+
     private final Route[] routes;
+    private final int maxParamCount;
+    private final MethodTable[] tables = new MethodTable[METHODS.length];
+    // number of matches of every route (by declaration index), null if route stats are disabled
+    private final LongAdder[] hits;
 
-    public Router(Route[] routes) {
-        this.routes = routes;
+    /**
+     * Creates router over the specified routes. The routes array is copied, so the router
+     * is immutable and can be shared between request threads.
+     *
+     * @param routes Routes in priority order (first matched route wins)
+     * @throws UrlParseException if routes array is empty or contains null elements
+     */
+    public Router(Route[] routes) throws UrlParseException {
+        this(routes, 0);
     }
 
-    public ActionResult routeAndRun(final HttpServletRequest req) throws Exception {
-        RequestImpl request = new RequestImpl(req);
+    /**
+     * Creates router over the specified routes that caches resolved routes for up to
+     * specified number of distinct request URLs per HTTP method (see {@link RouteMatchCache}).
+     *
+     * @param routes Routes in priority order (first matched route wins)
+     * @param matchCacheCapacity Match cache capacity, 0 disables the cache
+     * @throws UrlParseException if routes array is empty or contains null elements
+     */
+    public Router(Route[] routes, int matchCacheCapacity) throws UrlParseException {
+        this(routes, matchCacheCapacity, false);
+    }
+
+    /**
+     * Creates router over the specified routes.
+     *
+     * @param routes Routes in priority order (first matched route wins)
+     * @param matchCacheCapacity Match cache capacity, 0 disables the cache
+     * @param collectRouteStats Whether number of matches of every route should be counted
+     *                          (see {@link #reorderRoutes()} and {@link #dumpRouteStats(Appendable)})
+     * @throws UrlParseException if routes array is null or contains null elements
+     */
+    public Router(Route[] routes, int matchCacheCapacity, boolean collectRouteStats) throws UrlParseException {
+        if (routes == null) {
+            throw new UrlParseException("Routes array is expected.");
+        }
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] == null) {
+                throw new UrlParseException("Route #" + i + " is null.");
+            }
+        }
+        this.routes = routes.clone();
+
+        int max = 0;
         for (Route r : routes) {
-            if (r.matches(request)) {
-                r.fillParams(request);
-                return r.runAction(request);
+            max = Math.max(max, r.getParamCount());
+        }
+        this.maxParamCount = max;
+
+        for (HttpMethod method : METHODS) {
+            ArrayList<Route> methodRoutes = new ArrayList<Route>();
+            int[] routeIds = new int[this.routes.length];
+            for (int i = 0; i < this.routes.length; i++) {
+                if (this.routes[i].isMethodAllowed(method)) {
+                    routeIds[methodRoutes.size()] = i;
+                    methodRoutes.add(this.routes[i]);
+                }
             }
+            tables[method.ordinal()] = new MethodTable(method, methodRoutes.toArray(new Route[methodRoutes.size()]),
+                Arrays.copyOf(routeIds, methodRoutes.size()), matchCacheCapacity);
         }
 
-        throw new RouteNotFoundException("Cannot find route for \"" + request.getUrl() + "\"");
+        if (collectRouteStats) {
+            hits = new LongAdder[this.routes.length];
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] = new LongAdder();
+            }
+        }
+        else {
+            hits = null;
+        }
+    }
+
+    /**
+     * @return Match cache of the specified method routes or null if the cache is disabled
+     */
+    public RouteMatchCache getMatchCache(HttpMethod method) {
+        return tables[method.ordinal()].matchCache;
+    }
+
+    /**
+     * Finds the first declared route that matches request method and URL and puts parsed parameter
+     * values into the request.
+     *
+     * @return Matched route or null if there is no such route
+     */
+    public Route resolve(HttpMethod method, RequestImpl request) {
+        MethodTable table = tables[method.ordinal()];
+        if (table.matchCache != null) {
+            RouteMatchCache.Entry entry = table.matchCache.get(request.getUrl());
+            if (entry != null) {
+                Route r = entry.getRoute();
+                request.params(r.getParamKeys(), entry.getParamValues());
+                countHit(table, entry.getRouteIndex());
+                return r;
+            }
+        }
+
+        RouteMatch match = newMatch();
+        Route r = table.trie.find(request, match);
+        if (r == null) {
+            return null;
+        }
+
+        Object[] values = r.parseParams(match);
+        request.params(r.getParamKeys(), values);
+        if (table.matchCache != null && match.isCacheable()) {
+            table.matchCache.put(request.getUrl(), r, match.getRouteIndex(), values);
+        }
+        countHit(table, match.getRouteIndex());
+        return r;
+    }
+
+    private void countHit(MethodTable table, int routeIndex) {
+        if (hits != null) {
+            hits[table.routeIds[routeIndex]].increment();
+        }
+    }
+
+    /**
+     * Reorders compiled routes by number of matches, so the hottest routes are matched with fewer attempts.
+     * It never changes which route matches a URL: if routes overlap, the one declared first still wins.
+     * Is supposed to be called periodically (see {@link org.featherj.EntryServlet#routeReorderPeriodMillis()}),
+     * but not concurrently with itself.
+     *
+     * @throws IllegalStateException if route stats are disabled
+     */
+    public void reorderRoutes() {
+        if (hits == null) {
+            throw new IllegalStateException("Route stats are disabled.");
+        }
+        for (MethodTable table : tables) {
+            long[] tableHits = new long[table.routeIds.length];
+            for (int i = 0; i < tableHits.length; i++) {
+                tableHits[i] = hits[table.routeIds[i]].sum();
+            }
+            table.trie.reorder(tableHits);
+        }
+    }
+
+    /**
+     * Writes routes of every HTTP method in the order they're currently tried along with
+     * their number of matches and share of all matches.
+     *
+     * @throws IllegalStateException if route stats are disabled
+     */
+    public void dumpRouteStats(Appendable out) throws IOException {
+        if (hits == null) {
+            throw new IllegalStateException("Route stats are disabled.");
+        }
+        long[] counts = new long[hits.length];
+        long total = 0;
+        for (int i = 0; i < hits.length; i++) {
+            counts[i] = hits[i].sum();
+            total += counts[i];
+        }
+
+        for (MethodTable table : tables) {
+            out.append(table.method.name()).append(":\n");
+            ArrayList<Integer> order = new ArrayList<Integer>();
+            table.trie.collectRoutes(order);
+            for (int index : order) {
+                int id = table.routeIds[index];
+                double share = total > 0 ? 100.0 * counts[id] / total : 0;
+                out.append(String.format(Locale.ROOT, "  #%-4d %-60s %12d hits %6.2f%%%n", id, routes[id], counts[id], share));
+            }
+        }
+    }
+
+    /**
+     * Finds the first declared route that matches request method and URL.
+     *
+     * @param match Per-request match state (see {@link #newMatch()})
+     * @return Matched route or null if there is no such route
+     */
+    public Route match(HttpMethod method, Request request, RouteMatch match) {
+        return tables[method.ordinal()].trie.find(request, match);
+    }
+
+    /**
+     * @return New match state that has enough parameter slots for any of the router routes
+     */
+    public RouteMatch newMatch() {
+        return new RouteMatch(maxParamCount);
+    }
+
+    /**
+     * Lists methods of the routes that match request URL. Used to respond with "405 Method Not Allowed"
+     * when request URL is matched by routes of other methods only.
+     *
+     * @return Value of "Allow" header (e.g. "GET, HEAD") or null if no route matches request URL
+     */
+    public String getAllowedMethods(Request request) {
+        return getAllowedMethods(request, NO_DISPATCHERS);
+    }
+
+    /**
+     * Lists methods of the routes and of actions of the dispatchers that match request URL.
+     *
+     * @see #getAllowedMethods(Request)
+     */
+    public String getAllowedMethods(Request request, Dispatcher[] dispatchers) {
+        RouteMatch match = newMatch();
+        StringBuilder allowed = null;
+        for (HttpMethod method : METHODS) {
+            if (match(method, request, match) != null || matches(dispatchers, method, request)) {
+                if (allowed == null) {
+                    allowed = new StringBuilder();
+                }
+                else {
+                    allowed.append(", ");
+                }
+                allowed.append(method.name());
+            }
+        }
+        return allowed != null ? allowed.toString() : null;
+    }
+
+    private static boolean matches(Dispatcher[] dispatchers, HttpMethod method, Request request) {
+        for (Dispatcher dispatcher : dispatchers) {
+            if (dispatcher.matches(method, request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs action of the route matched by the request.
+     *
+     * @return Action result, "405 Method Not Allowed" result if URL is matched by routes of other HTTP methods only,
+     * or {@link NotFoundResult#INSTANCE} if no route matches request URL
+     */
+    public ActionResult routeAndRun(final HttpServletRequest req) throws Exception {
+        return routeAndRun(HttpMethod.parse(req.getMethod()), new RequestImpl(req));
+    }
+
+    /**
+     * Runs action of the route matched by the request.
+     *
+     * @param method Request HTTP method, null if the method isn't supported
+     * @see #routeAndRun(HttpServletRequest)
+     */
+    public ActionResult routeAndRun(HttpMethod method, RequestImpl request) throws Exception {
+        Route r = method != null ? resolve(method, request) : null;
+        if (r != null) {
+            return r.runAction(request);
+        }
+        return notMatched(request);
+    }
+
+    /**
+     * @return Result for a request that isn't matched by any route: "405 Method Not Allowed" result
+     * if URL is matched by routes of other HTTP methods, {@link NotFoundResult#INSTANCE} otherwise
+     */
+    public ActionResult notMatched(Request request) {
+        return notMatched(request, NO_DISPATCHERS);
+    }
+
+    /**
+     * @return Result for a request that isn't matched by any route or action of the dispatchers
+     * (see {@link #notMatched(Request)})
+     */
+    public ActionResult notMatched(Request request, Dispatcher[] dispatchers) {
+        String allowed = getAllowedMethods(request, dispatchers);
+        if (allowed != null) {
+            SimpleResult result = new SimpleResult(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            result.setHeader("Allow", allowed);
+            return result;
+        }
+
+        return NotFoundResult.INSTANCE;
     }
 
     public static Route resourceRoute(String urlPattern) throws UrlParseException {
         return new StaticResourceFileRoute(urlPattern);
     }
 
+    /**
+     * Creates a route serving static resources (see {@link StaticResourceFileRoute}).
+     *
+     * @param watching Whether resource directories are watched for changes (development mode)
+     */
+    public static Route resourceRoute(String urlPattern, boolean watching) throws UrlParseException {
+        return new StaticResourceFileRoute(urlPattern, watching);
+    }
+
+    /**
+     * Creates a route running batches of sub-requests (see {@link BatchRoute}).
+     *
+     * @param threads Number of sub-requests run at once
+     * @param maxParts Maximum number of sub-requests in a batch
+     */
+    public static Route batchRoute(String urlPattern, int threads, int maxParts) throws UrlParseException {
+        return new BatchRoute(urlPattern, threads, maxParts);
+    }
+
+    /**
+     * Creates a route with an asynchronous action (see {@link AsyncResult}).
+     *
+     * @param method HTTP method of matched requests, null matches any method
+     */
+    public static Route asyncRoute(HttpMethod method, final AsyncAction action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return new Route(method, urlPattern, params) {
+            @Override
+            public ActionResult runAction(Request request) throws Exception {
+                return new AsyncResult(action.run(request));
+            }
+        };
+    }
+
+    /**
+     * Creates a route that matches requests with any HTTP method.
+     */
     public static Route route(final Action action, String urlPattern, RouteParam... params) throws UrlParseException {
-        return new Route(urlPattern, params) {
+        return route(null, action, urlPattern, params);
+    }
+
+    /**
+     * Creates a route that matches requests with specified HTTP method (null matches any method).
+     */
+    public static Route route(HttpMethod method, final Action action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return new Route(method, urlPattern, params) {
             @Override
             public ActionResult runAction(Request request) throws Exception {
                 return action.run(request);
             }
         };
     }
+
+    /**
+     * Creates a route that matches GET (and HEAD) requests.
+     */
+    public static Route get(Action action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return route(HttpMethod.GET, action, urlPattern, params);
+    }
+
+    public static Route post(Action action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return route(HttpMethod.POST, action, urlPattern, params);
+    }
+
+    public static Route put(Action action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return route(HttpMethod.PUT, action, urlPattern, params);
+    }
+
+    public static Route delete(Action action, String urlPattern, RouteParam... params) throws UrlParseException {
+        return route(HttpMethod.DELETE, action, urlPattern, params);
+    }
 }
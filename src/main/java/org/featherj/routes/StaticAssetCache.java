@@ -0,0 +1,243 @@
+package org.featherj.routes;
+
+import org.featherj.ResponseCompressor;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.HttpDates;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of small static assets (CSS, scripts, icons...) of {@link StaticResourceFileRoute}. An entry holds
+ * preencoded response with ETag, Last-Modified and MIME type, so serving a cached asset is a single write
+ * of a shared byte array. Compressed variants are computed by the servlet compressor (see
+ * {@link org.featherj.EntryServlet#responseCompressor()}) when the asset is loaded and are counted
+ * in the size of the cache.
+ *
+ * The cache is bounded by total size of cached assets, split into segments with their
+ * own locks and LRU eviction. Assets larger than the threshold aren't cached, they're transferred from files.
+ * Entries are validated by content hash, so assets changed in development mode are reloaded.
+ */
+public class StaticAssetCache {
+
+    private static final class Entry {
+        private final String path;
+        private final String hash;
+        private final BytesResult result;
+        // fixed when the entry is created, so the size of a segment stays consistent
+        private final int weight;
+
+        private Entry(String path, String hash, BytesResult result) {
+            this.path = path;
+            this.hash = hash;
+            this.result = result;
+            this.weight = result.getWeight();
+        }
+
+        private int weight() {
+            return weight;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<String, Entry> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Must be called under the lock.
+         */
+        void putEntry(Entry entry) {
+            Entry old = put(entry.path, entry);
+            if (old != null) {
+                bytes -= old.weight();
+            }
+            bytes += entry.weight();
+
+            Iterator<Entry> eldest = values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Entry e = eldest.next();
+                eldest.remove();
+                bytes -= e.weight();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long maxAssetBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates cache of up to 8 MB of assets of up to 64 KB.
+     */
+    public StaticAssetCache() {
+        this(8 * 1024 * 1024, 64 * 1024);
+    }
+
+    /**
+     * @param maxBytes Maximum total size of cached assets
+     * @param maxAssetBytes Maximum size of a cached asset, larger assets are transferred from files
+     */
+    public StaticAssetCache(long maxBytes, long maxAssetBytes) {
+        if (maxBytes < 1 || maxAssetBytes < 0) {
+            throw new IllegalArgumentException("Positive size and non-negative asset size are expected");
+        }
+        this.maxAssetBytes = maxAssetBytes;
+        long segmentBytes = Math.max(1, (maxBytes + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentBytes);
+        }
+    }
+
+    private Segment segmentFor(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Returns cached response of the asset, see {@link #get(StaticResourceIndex.Resource, ResponseCompressor)}.
+     */
+    public BytesResult get(StaticResourceIndex.Resource resource) throws IOException {
+        return get(resource, null);
+    }
+
+    /**
+     * Returns cached response of the asset, loads the asset on a miss.
+     *
+     * @param compressor Compressor of the servlet (variants are computed on a miss) or null
+     * @return Shared immutable response or null if the asset is too large to be cached
+     */
+    public BytesResult get(StaticResourceIndex.Resource resource, ResponseCompressor compressor) throws IOException {
+        if (resource.getSize() > maxAssetBytes) {
+            bypassed.increment();
+            return null;
+        }
+
+        Segment segment = segmentFor(resource.getPath());
+        Entry entry;
+        segment.lock.lock();
+        try {
+            entry = segment.get(resource.getPath());
+        }
+        finally {
+            segment.lock.unlock();
+        }
+        if (entry != null && entry.hash.equals(resource.getHash())) {
+            hits.increment();
+        }
+        else {
+            // loaded outside of the lock, concurrent misses of the same asset may load it twice
+            misses.increment();
+            entry = load(resource, compressor);
+            segment.lock.lock();
+            try {
+                segment.putEntry(entry);
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return entry.result;
+    }
+
+    private static Entry load(StaticResourceIndex.Resource resource, ResponseCompressor compressor) throws IOException {
+        byte[] raw;
+        InputStream in = resource.getFile() != null ? new FileInputStream(resource.getFile()) : resource.getUrl().openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) resource.getSize());
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            raw = out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("ETag", "\"" + resource.getHash() + "\"");
+        headers.put("Last-Modified", HttpDates.format(resource.getLastModified()));
+        BytesResult result = new BytesResult(200, resource.getMimeType(), headers, raw);
+        return new Entry(resource.getPath(), resource.getHash(), compressor != null ? result.withVariants(compressor) : result);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of requests of assets too large to be cached
+     */
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Share of cacheable requests served from the cache, from 0 to 1
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    /**
+     * @return Total size of cached assets (with their headers and compressed variants)
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                bytes += segment.bytes;
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            }
+            finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+}
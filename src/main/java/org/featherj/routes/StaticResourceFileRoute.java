@@ -1,51 +1,226 @@
 package org.featherj.routes;
 
 import org.featherj.Request;
+import org.featherj.ResponseCompressor;
 import org.featherj.actions.ActionResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.NotFoundResult;
 import org.featherj.actions.ResourceFileResult;
 import org.featherj.routes.params.RouteParam;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Serves static resources from the classpath directory named by the literal prefix of the URL pattern
+ * (e.g. "/static/*" serves resources of "static" directory, in directories and jars). The prefix can't be
+ * empty (e.g. "/*"), the classpath root holds classes and configuration of the application.
+ * The directory is scanned once, when the route is created (see {@link StaticResourceIndex}), requests
+ * are matched and served from the index. Small assets are served from memory (see {@link StaticAssetCache}).
+ * In development mode the directories (but not jars) are watched
+ * and the index is rebuilt when they change.
+ */
 public class StaticResourceFileRoute extends Route {
 
+    private static final Logger LOG = Logger.getLogger(StaticResourceFileRoute.class.getName());
+
+    private final String directory;
+    private final ClassLoader classLoader;
+    private final boolean watching;
+    private volatile StaticResourceIndex index;
+    private StaticAssetCache assetCache = new StaticAssetCache();
+    private ResponseCompressor compressor;
+    private Thread watcher;
+
     public StaticResourceFileRoute(String urlPattern) throws UrlParseException {
-        super(urlPattern, new RouteParam<?>[0]);
+        this(urlPattern, false);
     }
 
-    @Override
-    public boolean matches(Request request) {
-        if (!super.matches(request)) {
-            return false;
+    /**
+     * @param watching Whether resource directories should be watched for changes (development mode)
+     * @throws UrlParseException if the pattern has no literal directory prefix (e.g. "/*")
+     * @throws UncheckedIOException if resources can't be scanned
+     */
+    public StaticResourceFileRoute(String urlPattern, boolean watching) throws UrlParseException {
+        super(HttpMethod.GET, urlPattern, new RouteParam<?>[0]);
+        this.directory = directoryOf(urlPattern);
+        if (directory.isEmpty()) {
+            throw new UrlParseException("Static resource pattern " + urlPattern + " must start with a directory (e.g. \"/static/*\")");
         }
-
+        this.classLoader = getClass().getClassLoader();
+        this.watching = watching;
         try {
-            URL url = getClass().getResource(request.getUrl());
-            if (url == null) {
-                return false;
-            }
-            File file = new File(url.toURI());
-            return file.exists();
+            this.index = StaticResourceIndex.scan(directory, classLoader);
         }
-        catch (Exception ignored) {
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot scan static resources of " + urlPattern, e);
+        }
+        if (watching) {
+            startWatching();
+        }
+    }
+
+    /**
+     * @return Classpath directory of the literal prefix of the pattern, e.g. "static" for "/static/*", empty for "/*"
+     */
+    private static String directoryOf(String urlPattern) {
+        int end = urlPattern.length();
+        for (int i = 0; i < urlPattern.length(); i++) {
+            char c = urlPattern.charAt(i);
+            if (c == ':' || c == '*' || c == '?') {
+                end = i;
+                break;
+            }
         }
+        String prefix = urlPattern.substring(0, urlPattern.lastIndexOf('/', end - 1) + 1);
+        int start = prefix.startsWith("/") ? 1 : 0;
+        return prefix.length() > start ? prefix.substring(start, prefix.length() - 1) : "";
+    }
+
+    /**
+     * Replaces the default cache of small assets (8 MB of assets up to 64 KB).
+     * Should be called before the route is passed to {@link Router}.
+     *
+     * @param assetCache Cache (it can be shared by several routes), null if assets are always read from files
+     * @return This route
+     */
+    public StaticResourceFileRoute withAssetCache(StaticAssetCache assetCache) {
+        this.assetCache = assetCache;
+        return this;
+    }
+
+    /**
+     * Called by the servlet with its compressor, so compressed variants of cached assets are computed
+     * when they're loaded (and counted in the size of the cache).
+     *
+     * @param compressor Compressor or null if responses aren't compressed
+     * @return This route
+     */
+    public StaticResourceFileRoute withCompressor(ResponseCompressor compressor) {
+        this.compressor = compressor;
+        return this;
+    }
+
+    /**
+     * @return Cache of small assets (e.g. for metrics) or null
+     */
+    public StaticAssetCache getAssetCache() {
+        return assetCache;
+    }
+
+    /**
+     * @return Current index of the resources
+     */
+    public StaticResourceIndex getIndex() {
+        return index;
+    }
 
-        return false;
+    @Override
+    protected boolean acceptsMatch(Request request) {
+        return index.get(request.getPath()) != null;
+    }
+
+    /**
+     * Static resources are cheap, so they aren't limited by default.
+     */
+    @Override
+    protected RoutePriority defaultPriority() {
+        return RoutePriority.CRITICAL;
+    }
+
+    @Override
+    protected boolean isMatchCacheable() {
+        // the index is replaced when resources change
+        return !watching;
     }
 
     @Override
     public ActionResult runAction(Request request) throws Exception {
-        URL url = getClass().getResource(request.getUrl());
-        File file = new File(url.toURI());
-        return new ResourceFileResult(getMimeType(url), file);
+        StaticResourceIndex.Resource resource = index.get(request.getPath());
+        if (resource == null) {
+            // removed after the request was matched
+            return NotFoundResult.INSTANCE;
+        }
+        if (assetCache != null && request.getHeader("Range") == null) {
+            BytesResult cached = assetCache.get(resource, compressor);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (resource.getFile() != null) {
+            return new ResourceFileResult(resource.getMimeType(), resource.getFile(), resource.getSize(),
+                resource.getLastModified(), resource.getHash(), request);
+        }
+        return new ResourceFileResult(resource.getMimeType(), resource.getUrl(), resource.getSize(),
+            resource.getLastModified(), resource.getHash(), request);
     }
 
-    private String getMimeType(URL url) throws IOException {
-//        URLConnection uc = url.openConnection();
-//        return uc.gue
-        return URLConnection.guessContentTypeFromName(url.getFile());
+    private void startWatching() {
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        WatchService service = FileSystems.getDefault().newWatchService();
+                        try {
+                            for (File root : index.getRoots()) {
+                                register(service, root);
+                            }
+                            service.take();
+                            // changes usually come in bursts (e.g. a build copies many files)
+                            Thread.sleep(100);
+                            index = StaticResourceIndex.scan(directory, classLoader);
+                        }
+                        catch (IOException e) {
+                            LOG.log(Level.WARNING, "Cannot rescan static resources of " + getUrlPattern(), e);
+                            Thread.sleep(1000);
+                        }
+                        finally {
+                            service.close();
+                        }
+                    }
+                }
+                catch (InterruptedException ignored) {
+                    // stopped
+                }
+                catch (ClosedWatchServiceException ignored) {
+                    // stopped
+                }
+                catch (IOException e) {
+                    LOG.log(Level.WARNING, "Cannot watch static resources of " + getUrlPattern(), e);
+                }
+            }
+        }, "featherj-static-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void register(WatchService service, File dir) throws IOException {
+        dir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    register(service, child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops watching resource directories (if the route watches them).
+     */
+    public void stopWatching() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
     }
 }
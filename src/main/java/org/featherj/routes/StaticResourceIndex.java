@@ -0,0 +1,289 @@
+package org.featherj.routes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Immutable index of static resources under a classpath directory (in directories and jars),
+ * built once by scanning the classpath. Requests are matched and served from the index, without
+ * classloader lookups and file system checks.
+ * If a resource is present in several classpath roots, the first root wins (as with {@link ClassLoader#getResource(String)}).
+ */
+public class StaticResourceIndex {
+
+    /**
+     * Indexed resource.
+     */
+    public static final class Resource {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String mimeType;
+        private final String hash;
+        // null for resources in jars
+        private final File file;
+        private final URL url;
+
+        private Resource(String path, long size, long lastModified, String mimeType, String hash, File file, URL url) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.hash = hash;
+            this.file = file;
+            this.url = url;
+        }
+
+        /**
+         * @return URL path of the resource, e.g. "/css/site.css"
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return Hex encoded SHA-1 of the content
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return File of the resource or null if the resource is in a jar
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+    }
+
+    private static final Map<String, String> MIME_TYPES = new HashMap<String, String>();
+    static {
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("js", "text/javascript");
+        MIME_TYPES.put("mjs", "text/javascript");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("map", "application/json");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+        MIME_TYPES.put("ttf", "font/ttf");
+        MIME_TYPES.put("wasm", "application/wasm");
+        MIME_TYPES.put("txt", "text/plain");
+    }
+
+    private final String directory;
+    private final Map<String, Resource> resources;
+    // directories of the scanned classpath roots which aren't jars
+    private final File[] roots;
+
+    private StaticResourceIndex(String directory, Map<String, Resource> resources, File[] roots) {
+        this.directory = directory;
+        this.resources = resources;
+        this.roots = roots;
+    }
+
+    /**
+     * Scans resources under the classpath directory.
+     *
+     * @param directory Classpath directory without leading and trailing slashes (e.g. "static"). The classpath
+     *                  root isn't accepted, it would expose classes and configuration of the application
+     * @param classLoader Class loader of the resources
+     * @throws IllegalArgumentException if the directory is empty
+     */
+    public static StaticResourceIndex scan(String directory, ClassLoader classLoader) throws IOException {
+        if (directory.isEmpty()) {
+            throw new IllegalArgumentException("Static resources can't be served from the classpath root");
+        }
+        Map<String, Resource> resources = new HashMap<String, Resource>();
+        List<File> roots = new ArrayList<File>();
+        String urlPrefix = "/" + directory + "/";
+        Enumeration<URL> urls = classLoader.getResources(directory);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            if ("file".equals(url.getProtocol())) {
+                File root;
+                try {
+                    root = new File(url.toURI());
+                }
+                catch (URISyntaxException e) {
+                    throw new IOException("Invalid resource directory " + url, e);
+                }
+                roots.add(root);
+                scanDirectory(root, urlPrefix, resources);
+            }
+            else if ("jar".equals(url.getProtocol())) {
+                scanJar(url, directory + "/", resources);
+            }
+        }
+        return new StaticResourceIndex(directory, Collections.unmodifiableMap(resources), roots.toArray(new File[roots.size()]));
+    }
+
+    private static void scanDirectory(File dir, String urlPrefix, Map<String, Resource> resources) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = urlPrefix + file.getName();
+            if (file.isDirectory()) {
+                scanDirectory(file, path + "/", resources);
+            }
+            else if (!resources.containsKey(path)) {
+                Content content = read(new FileInputStream(file));
+                resources.put(path, new Resource(path, content.size, file.lastModified(), mimeType(path), content.hash,
+                    file, file.toURI().toURL()));
+            }
+        }
+    }
+
+    private static void scanJar(URL url, String entryPrefix, Map<String, Resource> resources) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return;
+        }
+        connection.setUseCaches(false);
+        JarFile jar = ((JarURLConnection) connection).getJarFile();
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(entryPrefix)) {
+                    continue;
+                }
+                String path = "/" + entry.getName();
+                if (resources.containsKey(path)) {
+                    continue;
+                }
+                Content content = read(jar.getInputStream(entry));
+                resources.put(path, new Resource(path, content.size, entry.getTime(), mimeType(path), content.hash, null,
+                    new URL("jar:" + ((JarURLConnection) connection).getJarFileURL() + "!/" + entry.getName())));
+            }
+        }
+        finally {
+            jar.close();
+        }
+    }
+
+    private static class Content {
+        private final long size;
+        private final String hash;
+
+        private Content(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Reads the resource (and closes the stream) to compute its size and hash.
+     */
+    private static Content read(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long size = 0;
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                size += n;
+            }
+        }
+        finally {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder(40);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new Content(size, hex.toString());
+    }
+
+    /**
+     * @return MIME type by the file extension, "application/octet-stream" if it's unknown
+     */
+    static String mimeType(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot != -1 && path.indexOf('/', dot) == -1) {
+            String type = MIME_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        String type = URLConnection.guessContentTypeFromName(path);
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * @return Classpath directory of the index
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param path URL path (e.g. "/static/css/site.css")
+     * @return Resource or null if there is no such resource
+     */
+    public Resource get(String path) {
+        return resources.get(path);
+    }
+
+    public int size() {
+        return resources.size();
+    }
+
+    /**
+     * @return All resources by URL path
+     */
+    public Map<String, Resource> getResources() {
+        return resources;
+    }
+
+    /**
+     * @return Scanned directories (excluding jars), e.g. to watch them for changes
+     */
+    public File[] getRoots() {
+        return roots.clone();
+    }
+}
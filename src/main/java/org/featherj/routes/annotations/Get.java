@@ -0,0 +1,19 @@
+package org.featherj.routes.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a controller method as an action of GET requests (HEAD requests are dispatched to it as well).
+ * See {@link org.featherj.tools.RouteDispatcherProcessor} for supported patterns and method signatures.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Get {
+    /**
+     * @return URL pattern (e.g. "/users/:id")
+     */
+    String value();
+}
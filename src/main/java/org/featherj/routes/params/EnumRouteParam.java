@@ -0,0 +1,73 @@
+package org.featherj.routes.params;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Name of an enum constant, case insensitive (e.g. "/orders/:status" matches "/orders/shipped"
+ * for <code>Status.SHIPPED</code>). The longest matching constant name wins.
+ */
+public class EnumRouteParam<E extends Enum<E>> extends RouteParam<E> {
+
+    private final Class<E> enumClass;
+    private final E[] constants;
+    // lower case names written into generated URLs, by ordinal
+    private final String[] urlNames;
+
+    public EnumRouteParam(String key, Class<E> enumClass) {
+        super(key);
+        this.enumClass = enumClass;
+        this.constants = enumClass.getEnumConstants();
+        this.urlNames = new String[constants.length];
+        for (E e : constants) {
+            urlNames[e.ordinal()] = e.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Override
+    public int match(CharSequence url, int start, int limit) {
+        int end = -1;
+        for (E e : constants) {
+            String name = e.name();
+            if (start + name.length() > end && start + name.length() <= limit && regionMatches(url, start, name)) {
+                end = start + name.length();
+            }
+        }
+        return end;
+    }
+
+    @Override
+    public E parseValue(CharSequence url, int start, int end) {
+        for (E e : constants) {
+            String name = e.name();
+            if (name.length() == end - start && regionMatches(url, start, name)) {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("Not a " + enumClass.getName() + " constant: " + url.subSequence(start, end));
+    }
+
+    @Override
+    public void format(E value, Appendable out) throws IOException {
+        out.append(urlNames[value.ordinal()]);
+    }
+
+    @Override
+    public boolean matchesSameAs(RouteParam<?> other) {
+        return super.matchesSameAs(other) && enumClass == ((EnumRouteParam<?>) other).enumClass;
+    }
+
+    private static boolean regionMatches(CharSequence url, int start, String name) {
+        if (url.length() - start < name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = url.charAt(start + i);
+            char nameCh = name.charAt(i);
+            if (ch != nameCh && Character.toUpperCase(ch) != Character.toUpperCase(nameCh)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
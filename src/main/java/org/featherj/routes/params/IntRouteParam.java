@@ -1,27 +1,62 @@
 package org.featherj.routes.params;
 
-import java.util.regex.Pattern;
+import java.io.IOException;
 
+/**
+ * Positive int value without leading zeros (e.g. "/users/:id" matches "/users/10").
+ * Values that don't fit into int don't match.
+ */
 public class IntRouteParam extends RouteParam<Integer> {
 
-    private Integer value;
-
     public IntRouteParam(String key) {
-        super(key, Pattern.compile("[1-9][0-9]*"));
+        super(key);
     }
 
     @Override
-    public void extractValue(String value) {
-        this.value = Integer.parseInt(value);
+    public int match(CharSequence url, int start, int limit) {
+        int length = limit;
+        if (start >= length) {
+            return -1;
+        }
+        char ch = url.charAt(start);
+        if (ch < '1' || ch > '9') {
+            return -1;
+        }
+
+        int value = ch - '0';
+        int i = start + 1;
+        while (i < length) {
+            ch = url.charAt(i);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            int digit = ch - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        return i;
     }
 
     @Override
-    public void clearValue() {
-        value = null;
+    public Integer parseValue(CharSequence url, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (url.charAt(i) - '0');
+        }
+        return value;
     }
 
+    /**
+     * @throws IllegalArgumentException if the value isn't positive (it wouldn't be matched)
+     */
     @Override
-    public Integer getValue() {
-        return value;
+    public void format(Integer value, Appendable out) throws IOException {
+        if (value < 1) {
+            throw new IllegalArgumentException("URL parameter value must be positive: " + value);
+        }
+        UrlEncoding.appendLong(value, out);
     }
 }
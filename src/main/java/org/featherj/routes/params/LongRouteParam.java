@@ -0,0 +1,61 @@
+package org.featherj.routes.params;
+
+import java.io.IOException;
+
+/**
+ * Positive long value without leading zeros. Values that don't fit into long don't match.
+ */
+public class LongRouteParam extends RouteParam<Long> {
+
+    public LongRouteParam(String key) {
+        super(key);
+    }
+
+    @Override
+    public int match(CharSequence url, int start, int limit) {
+        int length = limit;
+        if (start >= length) {
+            return -1;
+        }
+        char ch = url.charAt(start);
+        if (ch < '1' || ch > '9') {
+            return -1;
+        }
+
+        long value = ch - '0';
+        int i = start + 1;
+        while (i < length) {
+            ch = url.charAt(i);
+            if (ch < '0' || ch > '9') {
+                break;
+            }
+            int digit = ch - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public Long parseValue(CharSequence url, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (url.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value isn't positive (it wouldn't be matched)
+     */
+    @Override
+    public void format(Long value, Appendable out) throws IOException {
+        if (value < 1) {
+            throw new IllegalArgumentException("URL parameter value must be positive: " + value);
+        }
+        UrlEncoding.appendLong(value, out);
+    }
+}
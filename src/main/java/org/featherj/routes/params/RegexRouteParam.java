@@ -0,0 +1,47 @@
+package org.featherj.routes.params;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fallback parameter type for values that can't be described by built-in parameters.
+ * Creates a {@link Matcher} on every match attempt, so prefer other parameter types for hot routes.
+ * The value is the raw (not decoded) matched URL fragment.
+ */
+public class RegexRouteParam extends RouteParam<String> {
+
+    private final Pattern expr;
+
+    public RegexRouteParam(String key, Pattern expr) {
+        super(key);
+        this.expr = expr;
+    }
+
+    public RegexRouteParam(String key, String expr) {
+        this(key, Pattern.compile(expr));
+    }
+
+    public Pattern getExpr() {
+        return expr;
+    }
+
+    @Override
+    public int match(CharSequence url, int start, int limit) {
+        Matcher m = expr.matcher(url);
+        m.region(start, limit);
+        if (m.lookingAt() && m.end() > start) {
+            return m.end();
+        }
+        return -1;
+    }
+
+    @Override
+    public String parseValue(CharSequence url, int start, int end) {
+        return url.subSequence(start, end).toString();
+    }
+
+    @Override
+    public boolean matchesSameAs(RouteParam<?> other) {
+        return super.matchesSameAs(other) && expr.pattern().equals(((RegexRouteParam) other).expr.pattern());
+    }
+}
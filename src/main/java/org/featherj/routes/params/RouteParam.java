@@ -1,27 +1,57 @@
 package org.featherj.routes.params;
 
-import java.util.regex.Pattern;
-
+import java.io.IOException;
+
+/**
+ * Declaration of a typed route parameter. Instances hold no per-request state and can be
+ * shared between routes and request threads: matched URL fragments are kept in
+ * {@link org.featherj.routes.RouteMatch} and converted by {@link #parseValue}
+ * only after the whole route has matched.
+ *
+ * Implementations scan request URL in place, without creating substrings or regex matchers
+ * (see {@link RegexRouteParam} if a regular expression is really needed).
+ */
 public abstract class RouteParam<T> {
     private final String key;
-    private final Pattern expr;
 
-    public RouteParam(String key, Pattern expr) {
+    public RouteParam(String key) {
         this.key = key;
-        this.expr = expr;
     }
 
     public String getKey() {
         return key;
     }
 
-    public Pattern getExpr() {
-        return expr;
+    /**
+     * Matches parameter value exactly at the specified URL index (matched fragment can't be
+     * preceded by skipped characters).
+     *
+     * @param url Request URL
+     * @param start Index of the first character of the value
+     * @param limit Index the value can't span beyond (e.g. end of the path or of a query parameter)
+     * @return Index of the first character after matched value or -1 if the value doesn't match
+     */
+    public abstract int match(CharSequence url, int start, int limit);
+
+    /**
+     * Converts URL fragment previously matched by {@link #match} into a parameter value.
+     */
+    public abstract T parseValue(CharSequence url, int start, int end);
+
+    /**
+     * Writes the value as a URL fragment that is matched by {@link #match} and parsed back by {@link #parseValue}.
+     * Used for generation of URLs by routes (see {@link org.featherj.routes.Route#url(Appendable, Object...)}).
+     * By default the value string is percent encoded.
+     */
+    public void format(T value, Appendable out) throws IOException {
+        UrlEncoding.appendEncoded(String.valueOf(value), out);
     }
 
-    public abstract void extractValue(String value);
-
-    public abstract void clearValue();
-
-    public abstract T getValue();
+    /**
+     * Tells whether the other parameter matches exactly the same URL fragments as this one.
+     * Compiled route tree shares matching of such parameters between routes.
+     */
+    public boolean matchesSameAs(RouteParam<?> other) {
+        return getClass() == other.getClass();
+    }
 }
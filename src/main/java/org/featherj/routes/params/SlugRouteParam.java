@@ -0,0 +1,32 @@
+package org.featherj.routes.params;
+
+/**
+ * Human readable URL identifier: ASCII letters, digits, '-' and '_' (e.g. "my-first-post").
+ * The value doesn't need URL decoding.
+ */
+public class SlugRouteParam extends RouteParam<String> {
+
+    public SlugRouteParam(String key) {
+        super(key);
+    }
+
+    @Override
+    public int match(CharSequence url, int start, int limit) {
+        int length = limit;
+        int i = start;
+        while (i < length && isSlugChar(url.charAt(i))) {
+            i++;
+        }
+        return i > start ? i : -1;
+    }
+
+    @Override
+    public String parseValue(CharSequence url, int start, int end) {
+        return url.subSequence(start, end).toString();
+    }
+
+    private static boolean isSlugChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+            || ch == '-' || ch == '_';
+    }
+}
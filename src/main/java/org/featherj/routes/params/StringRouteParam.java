@@ -2,34 +2,58 @@ package org.featherj.routes.params;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.regex.Pattern;
 
+/**
+ * URL encoded string (letters, digits and <code>-+&@%=~_|!:,.;</code>). The value is URL decoded.
+ */
 public class StringRouteParam extends RouteParam<String> {
 
-    private String value;
+    private static final boolean[] ALLOWED_CHARS = new boolean[128];
+    static {
+        for (char ch = 'a'; ch <= 'z'; ch++) {
+            ALLOWED_CHARS[ch] = true;
+        }
+        for (char ch = 'A'; ch <= 'Z'; ch++) {
+            ALLOWED_CHARS[ch] = true;
+        }
+        for (char ch = '0'; ch <= '9'; ch++) {
+            ALLOWED_CHARS[ch] = true;
+        }
+        for (char ch : "-+&@%=~_|!:,.;".toCharArray()) {
+            ALLOWED_CHARS[ch] = true;
+        }
+    }
 
     public StringRouteParam(String key) {
-        super(key, Pattern.compile("[-a-zA-Z0-9+&@%=~_|!:,.;]+"));
+        super(key);
     }
 
     @Override
-    public void extractValue(String value) {
-        try {
-            this.value = URLDecoder.decode(value, "UTF-8");
-        }
-        catch (UnsupportedEncodingException ignore) {
-            // theoretically this is not possible, because regex above should catch
-            // everything invalid
+    public int match(CharSequence url, int start, int limit) {
+        int length = limit;
+        int i = start;
+        while (i < length) {
+            char ch = url.charAt(i);
+            if (ch >= ALLOWED_CHARS.length || !ALLOWED_CHARS[ch]) {
+                break;
+            }
+            i++;
         }
+        return i > start ? i : -1;
     }
 
     @Override
-    public void clearValue() {
-        value = null;
-    }
-
-    @Override
-    public String getValue() {
-        return value;
+    public String parseValue(CharSequence url, int start, int end) {
+        String value = url.subSequence(start, end).toString();
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // theoretically this is not possible, because UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
     }
-}
\ No newline at end of file
+}
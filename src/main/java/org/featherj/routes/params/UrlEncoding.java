@@ -0,0 +1,105 @@
+package org.featherj.routes.params;
+
+import java.io.IOException;
+
+/**
+ * Writes URL fragments straight into an {@link Appendable} (no intermediate strings or byte arrays).
+ * Used by {@link RouteParam#format} implementations and by route URL writers.
+ */
+public final class UrlEncoding {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER_HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private UrlEncoding() {
+    }
+
+    /**
+     * Appends decimal representation of the value.
+     */
+    public static void appendLong(long value, Appendable out) throws IOException {
+        // negative values are used to cover Long.MIN_VALUE
+        if (value < 0) {
+            out.append('-');
+        }
+        else {
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor <= -10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.append((char) ('0' - (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Appends the value percent encoded as UTF-8. Only unreserved characters (letters, digits and <code>-._~</code>)
+     * are written as is, so the result can be used both as a path segment and as a query parameter value.
+     */
+    public static void appendEncoded(CharSequence value, Appendable out) throws IOException {
+        appendEncoded(value, false, out);
+    }
+
+    /**
+     * Appends the value percent encoded as UTF-8.
+     *
+     * @param keepSlashes Whether '/' should be written as is (e.g. when the value is a path suffix)
+     */
+    public static void appendEncoded(CharSequence value, boolean keepSlashes, Appendable out) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if (isUnreserved(ch) || (keepSlashes && ch == '/')) {
+                out.append(ch);
+                continue;
+            }
+
+            int codePoint = ch;
+            if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(ch, value.charAt(++i));
+            }
+            else if (Character.isSurrogate(ch)) {
+                codePoint = '?';
+            }
+
+            if (codePoint < 0x80) {
+                appendByte(codePoint, out);
+            }
+            else if (codePoint < 0x800) {
+                appendByte(0xC0 | (codePoint >> 6), out);
+                appendByte(0x80 | (codePoint & 0x3F), out);
+            }
+            else if (codePoint < 0x10000) {
+                appendByte(0xE0 | (codePoint >> 12), out);
+                appendByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendByte(0x80 | (codePoint & 0x3F), out);
+            }
+            else {
+                appendByte(0xF0 | (codePoint >> 18), out);
+                appendByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+                appendByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendByte(0x80 | (codePoint & 0x3F), out);
+            }
+        }
+    }
+
+    static void appendHex(long value, int digits, Appendable out) throws IOException {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            out.append(LOWER_HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    private static void appendByte(int b, Appendable out) throws IOException {
+        out.append('%');
+        out.append(HEX_DIGITS[(b >> 4) & 0xF]);
+        out.append(HEX_DIGITS[b & 0xF]);
+    }
+
+    private static boolean isUnreserved(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+            || ch == '-' || ch == '.' || ch == '_' || ch == '~';
+    }
+}
@@ -0,0 +1,84 @@
+package org.featherj.routes.params;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * UUID in canonical form ("123e4567-e89b-12d3-a456-426655440000"), any case of hex digits.
+ */
+public class UuidRouteParam extends RouteParam<UUID> {
+
+    private static final int LENGTH = 36;
+
+    public UuidRouteParam(String key) {
+        super(key);
+    }
+
+    @Override
+    public int match(CharSequence url, int start, int limit) {
+        if (limit - start < LENGTH) {
+            return -1;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char ch = url.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') {
+                    return -1;
+                }
+            }
+            else if (hex(ch) == -1) {
+                return -1;
+            }
+        }
+        return start + LENGTH;
+    }
+
+    @Override
+    public UUID parseValue(CharSequence url, int start, int end) {
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            int digit = hex(url.charAt(i));
+            if (digit == -1) {
+                continue;
+            }
+            if (digits < 16) {
+                msb = (msb << 4) | digit;
+            }
+            else {
+                lsb = (lsb << 4) | digit;
+            }
+            digits++;
+        }
+        return new UUID(msb, lsb);
+    }
+
+    @Override
+    public void format(UUID value, Appendable out) throws IOException {
+        long msb = value.getMostSignificantBits();
+        long lsb = value.getLeastSignificantBits();
+        UrlEncoding.appendHex(msb >>> 32, 8, out);
+        out.append('-');
+        UrlEncoding.appendHex(msb >>> 16, 4, out);
+        out.append('-');
+        UrlEncoding.appendHex(msb, 4, out);
+        out.append('-');
+        UrlEncoding.appendHex(lsb >>> 48, 4, out);
+        out.append('-');
+        UrlEncoding.appendHex(lsb, 12, out);
+    }
+
+    private static int hex(char ch) {
+        if (ch >= '0' && ch <= '9') {
+            return ch - '0';
+        }
+        if (ch >= 'a' && ch <= 'f') {
+            return ch - 'a' + 10;
+        }
+        if (ch >= 'A' && ch <= 'F') {
+            return ch - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,602 @@
+package org.featherj.tools;
+
+import org.featherj.routes.HttpMethod;
+import org.featherj.routes.annotations.Delete;
+import org.featherj.routes.annotations.Get;
+import org.featherj.routes.annotations.Post;
+import org.featherj.routes.annotations.Put;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor that generates a {@link org.featherj.routes.Dispatcher} for every class with
+ * methods annotated by {@link Get}, {@link Post}, {@link Put} or {@link Delete}.
+ * Generated dispatcher ("&lt;Controller&gt;Dispatcher" in the controller package) matches URL path segment
+ * by segment (switching on segment length and comparing literal segments in place) and calls controller
+ * methods directly with typed arguments, so there is no pattern parsing at runtime and no reflection.
+ *
+ * Supported patterns consist of whole segments: literals, parameters (":name") and "*" as the last segment.
+ * Query string sections aren't supported. Literal segments are tried before parameters, parameters
+ * and methods of the same path are tried in declaration order.
+ *
+ * Controller methods must be non-private, return {@link org.featherj.actions.ActionResult} (or its subtype)
+ * and every their parameter must be either {@link org.featherj.Request} (or {@link org.featherj.RequestImpl})
+ * or be named as a pattern parameter and have one of the types: int, long (or their wrappers), String
+ * (URL decoded), {@link java.util.UUID} or an enum. Non-static methods are called on the controller instance
+ * passed to the dispatcher constructor.
+ */
+public class RouteDispatcherProcessor extends AbstractProcessor {
+
+    private static final String PARAMS_PACKAGE = "org.featherj.routes.params.";
+
+    private static class GenerationException extends Exception {
+        private final Element element;
+
+        GenerationException(String message, Element element) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+    private static class RouteMethod {
+        private final HttpMethod httpMethod;
+        private final String pattern;
+        private final ExecutableElement element;
+        private final List<String> args = new ArrayList<String>();
+
+        RouteMethod(HttpMethod httpMethod, String pattern, ExecutableElement element) {
+            this.httpMethod = httpMethod;
+            this.pattern = pattern;
+            this.element = element;
+        }
+    }
+
+    private static class ParamEdge {
+        private final String paramType;
+        private final String field;
+        private final SegmentNode child;
+
+        ParamEdge(String paramType, String field, SegmentNode child) {
+            this.paramType = paramType;
+            this.field = field;
+            this.child = child;
+        }
+    }
+
+    private static class SegmentNode {
+        private final int id;
+        private final Map<String, SegmentNode> literals = new LinkedHashMap<String, SegmentNode>();
+        private final List<ParamEdge> params = new ArrayList<ParamEdge>();
+        private SegmentNode asteriskChild;
+        private final List<RouteMethod> routes = new ArrayList<RouteMethod>();
+
+        SegmentNode(int id) {
+            this.id = id;
+        }
+
+        boolean hasSegmentChildren() {
+            return !literals.isEmpty() || !params.isEmpty();
+        }
+    }
+
+    /**
+     * State of generation of a single dispatcher class.
+     */
+    private class DispatcherBuilder {
+        private final TypeElement controller;
+        private final List<SegmentNode> nodes = new ArrayList<SegmentNode>();
+        private final StringBuilder fields = new StringBuilder();
+        private int paramFieldCount;
+        private int maxDepth;
+
+        DispatcherBuilder(TypeElement controller) {
+            this.controller = controller;
+            newNode();
+        }
+
+        private SegmentNode newNode() {
+            SegmentNode node = new SegmentNode(nodes.size());
+            nodes.add(node);
+            return node;
+        }
+
+        void add(RouteMethod route) throws GenerationException {
+            String pattern = route.pattern;
+            if (!pattern.startsWith("/")) {
+                throw new GenerationException("URL pattern must start with '/': " + pattern, route.element);
+            }
+            if (pattern.indexOf('?') != -1) {
+                throw new GenerationException("Query string patterns aren't supported by generated dispatchers: " + pattern, route.element);
+            }
+
+            Map<String, VariableElement> methodParams = new LinkedHashMap<String, VariableElement>();
+            for (VariableElement p : route.element.getParameters()) {
+                methodParams.put(p.getSimpleName().toString(), p);
+            }
+
+            Map<String, String> paramArgs = new LinkedHashMap<String, String>();
+            String[] segments = pattern.substring(1).split("/", -1);
+            SegmentNode node = nodes.get(0);
+            int depth = 0;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("*")) {
+                    if (i != segments.length - 1) {
+                        throw new GenerationException("'*' is allowed only as the last segment: " + pattern, route.element);
+                    }
+                    if (node.asteriskChild == null) {
+                        node.asteriskChild = newNode();
+                    }
+                    node = node.asteriskChild;
+                }
+                else if (segment.startsWith(":")) {
+                    String name = segment.substring(1);
+                    VariableElement p = methodParams.get(name);
+                    if (p == null) {
+                        throw new GenerationException("Method doesn't have parameter \"" + name + "\" referenced by pattern " + pattern, route.element);
+                    }
+                    String paramType = paramType(p);
+                    ParamEdge edge = paramEdge(node, paramType, segment);
+                    paramArgs.put(name, edge.field + ".parseValue(path, c[" + (depth * 2) + "], c[" + (depth * 2 + 1) + "])");
+                    depth++;
+                    node = edge.child;
+                }
+                else {
+                    if (segment.indexOf(':') != -1 || segment.indexOf('*') != -1) {
+                        throw new GenerationException("Parameters and '*' must be whole segments: " + pattern, route.element);
+                    }
+                    SegmentNode child = node.literals.get(segment);
+                    if (child == null) {
+                        child = newNode();
+                        node.literals.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            maxDepth = Math.max(maxDepth, depth);
+
+            for (VariableElement p : route.element.getParameters()) {
+                String name = p.getSimpleName().toString();
+                if (paramArgs.containsKey(name)) {
+                    route.args.add(paramArgs.get(name));
+                }
+                else if (isRequestType(p.asType())) {
+                    route.args.add("request");
+                }
+                else {
+                    throw new GenerationException("Parameter \"" + name + "\" is neither referenced by pattern " + pattern
+                        + " nor a Request", p);
+                }
+            }
+            node.routes.add(route);
+        }
+
+        private ParamEdge paramEdge(SegmentNode node, String paramType, String key) {
+            for (ParamEdge edge : node.params) {
+                if (edge.paramType.equals(paramType)) {
+                    return edge;
+                }
+            }
+
+            String field = "P" + paramFieldCount++;
+            String init;
+            if (paramType.startsWith("enum:")) {
+                String enumType = paramType.substring("enum:".length());
+                String type = PARAMS_PACKAGE + "EnumRouteParam<" + enumType + ">";
+                init = type + " " + field + " = new " + type + "(\"" + key + "\", " + enumType + ".class)";
+            }
+            else {
+                String type = PARAMS_PACKAGE + paramType + "RouteParam";
+                init = type + " " + field + " = new " + type + "(\"" + key + "\")";
+            }
+            fields.append("    private static final ").append(init).append(";\n");
+
+            ParamEdge edge = new ParamEdge(paramType, field, newNode());
+            node.params.add(edge);
+            return edge;
+        }
+
+        String generate(String packageName, String className) {
+            String controllerType = controller.getQualifiedName().toString();
+
+            StringBuilder code = new StringBuilder();
+            if (packageName.length() > 0) {
+                code.append("package ").append(packageName).append(";\n\n");
+            }
+            code.append("import org.featherj.Request;\n");
+            code.append("import org.featherj.RequestImpl;\n");
+            code.append("import org.featherj.actions.ActionResult;\n");
+            code.append("import org.featherj.routes.Dispatcher;\n");
+            code.append("import org.featherj.routes.HttpMethod;\n\n");
+            code.append("/**\n");
+            code.append(" * Generated by ").append(RouteDispatcherProcessor.class.getName())
+                .append(" from route annotations of {@link ").append(controllerType).append("}.\n");
+            code.append(" */\n");
+            code.append("public class ").append(className).append(" implements Dispatcher {\n\n");
+            if (fields.length() > 0) {
+                code.append(fields).append("\n");
+            }
+            code.append("    private final ").append(controllerType).append(" controller;\n\n");
+            code.append("    public ").append(className).append("(").append(controllerType).append(" controller) {\n");
+            code.append("        this.controller = controller;\n");
+            code.append("    }\n\n");
+
+            code.append("    @Override\n");
+            code.append("    public ActionResult dispatch(HttpMethod method, RequestImpl request) throws Exception {\n");
+            code.append("        String path = request.getPath();\n");
+            code.append("        if (path.length() == 0 || path.charAt(0) != '/') {\n");
+            code.append("            return null;\n");
+            code.append("        }\n");
+            code.append("        return n0(method, request, path, 1, new int[").append(maxDepth * 2).append("]);\n");
+            code.append("    }\n\n");
+
+            code.append("    @Override\n");
+            code.append("    public boolean matches(HttpMethod method, Request request) {\n");
+            code.append("        String path = request.getPath();\n");
+            code.append("        return path.length() > 0 && path.charAt(0) == '/' && m0(method, path, 1);\n");
+            code.append("    }\n");
+
+            for (SegmentNode node : nodes) {
+                generateNode(code, node, false);
+            }
+            for (SegmentNode node : nodes) {
+                generateNode(code, node, true);
+            }
+            code.append("}\n");
+            return code.toString();
+        }
+
+        /**
+         * Generates method of the node that runs the matched action ("n" + id) or, if matchOnly is set,
+         * only tells whether there is such an action ("m" + id).
+         */
+        private void generateNode(StringBuilder code, SegmentNode node, boolean matchOnly) {
+            String prefix = matchOnly ? "m" : "n";
+            String args = matchOnly ? "(method, path, " : "(method, request, path, ";
+            String captures = matchOnly ? ")" : ", c)";
+            code.append("\n");
+            if (matchOnly) {
+                code.append("    private boolean m").append(node.id).append("(HttpMethod method, String path, int start) {\n");
+            }
+            else {
+                code.append("    private ActionResult n").append(node.id)
+                    .append("(HttpMethod method, RequestImpl request, String path, int start, int[] c) throws Exception {\n");
+            }
+            code.append("        int length = path.length();\n");
+            code.append("        if (start > length) {\n");
+            for (RouteMethod route : node.routes) {
+                generateCall(code, route, matchOnly);
+            }
+            code.append("            return ").append(matchOnly ? "false" : "null").append(";\n");
+            code.append("        }\n");
+
+            if (!matchOnly && (node.hasSegmentChildren() || node.asteriskChild != null)) {
+                code.append("        ActionResult result;\n");
+            }
+            if (node.hasSegmentChildren()) {
+                code.append("        int end = path.indexOf('/', start);\n");
+                code.append("        if (end == -1) {\n");
+                code.append("            end = length;\n");
+                code.append("        }\n");
+            }
+
+            if (!node.literals.isEmpty()) {
+                Map<Integer, List<String>> byLength = new LinkedHashMap<Integer, List<String>>();
+                for (String literal : node.literals.keySet()) {
+                    List<String> list = byLength.get(literal.length());
+                    if (list == null) {
+                        list = new ArrayList<String>();
+                        byLength.put(literal.length(), list);
+                    }
+                    list.add(literal);
+                }
+
+                code.append("        switch (end - start) {\n");
+                for (Map.Entry<Integer, List<String>> e : byLength.entrySet()) {
+                    code.append("            case ").append(e.getKey()).append(":\n");
+                    for (String literal : e.getValue()) {
+                        code.append("                if (path.startsWith(\"").append(escape(literal)).append("\", start)) {\n");
+                        String call = prefix + node.literals.get(literal).id + args + "end + 1" + captures;
+                        if (matchOnly) {
+                            code.append("                    if (").append(call).append(") {\n");
+                            code.append("                        return true;\n");
+                            code.append("                    }\n");
+                        }
+                        else {
+                            code.append("                    result = ").append(call).append(";\n");
+                            code.append("                    if (result != null) {\n");
+                            code.append("                        return result;\n");
+                            code.append("                    }\n");
+                        }
+                        code.append("                }\n");
+                    }
+                    code.append("                break;\n");
+                }
+                code.append("        }\n");
+            }
+
+            int depth = depth(node);
+            for (ParamEdge edge : node.params) {
+                code.append("        if (").append(edge.field).append(".match(path, start, end) == end) {\n");
+                String call = prefix + edge.child.id + args + "end + 1" + captures;
+                if (matchOnly) {
+                    code.append("            if (").append(call).append(") {\n");
+                    code.append("                return true;\n");
+                    code.append("            }\n");
+                }
+                else {
+                    code.append("            c[").append(depth * 2).append("] = start;\n");
+                    code.append("            c[").append(depth * 2 + 1).append("] = end;\n");
+                    code.append("            result = ").append(call).append(";\n");
+                    code.append("            if (result != null) {\n");
+                    code.append("                return result;\n");
+                    code.append("            }\n");
+                }
+                code.append("        }\n");
+            }
+
+            if (node.asteriskChild != null) {
+                String call = prefix + node.asteriskChild.id + args + "length + 1" + captures;
+                if (matchOnly) {
+                    code.append("        if (").append(call).append(") {\n");
+                    code.append("            return true;\n");
+                    code.append("        }\n");
+                }
+                else {
+                    code.append("        result = ").append(call).append(";\n");
+                    code.append("        if (result != null) {\n");
+                    code.append("            return result;\n");
+                    code.append("        }\n");
+                }
+            }
+            code.append("        return ").append(matchOnly ? "false" : "null").append(";\n");
+            code.append("    }\n");
+        }
+
+        private void generateCall(StringBuilder code, RouteMethod route, boolean matchOnly) {
+            code.append("            if (method == HttpMethod.").append(route.httpMethod.name());
+            if (route.httpMethod == HttpMethod.GET) {
+                code.append(" || method == HttpMethod.HEAD");
+            }
+            code.append(") {\n");
+            if (matchOnly) {
+                code.append("                return true;\n");
+                code.append("            }\n");
+                return;
+            }
+            code.append("                return ");
+            if (route.element.getModifiers().contains(Modifier.STATIC)) {
+                code.append(controller.getQualifiedName());
+            }
+            else {
+                code.append("controller");
+            }
+            code.append(".").append(route.element.getSimpleName()).append("(");
+            for (int i = 0; i < route.args.size(); i++) {
+                if (i > 0) {
+                    code.append(", ");
+                }
+                code.append(route.args.get(i));
+            }
+            code.append(");\n");
+            code.append("            }\n");
+        }
+
+        /**
+         * @return Number of parameter edges on the path from the root to the node
+         */
+        private int depth(SegmentNode target) {
+            return depth(nodes.get(0), target, 0);
+        }
+
+        private int depth(SegmentNode node, SegmentNode target, int depth) {
+            if (node == target) {
+                return depth;
+            }
+            for (SegmentNode child : node.literals.values()) {
+                int d = depth(child, target, depth);
+                if (d != -1) {
+                    return d;
+                }
+            }
+            for (ParamEdge edge : node.params) {
+                int d = depth(edge.child, target, depth + 1);
+                if (d != -1) {
+                    return d;
+                }
+            }
+            if (node.asteriskChild != null) {
+                return depth(node.asteriskChild, target, depth);
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<String>();
+        types.add(Get.class.getName());
+        types.add(Post.class.getName());
+        types.add(Put.class.getName());
+        types.add(Delete.class.getName());
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<RouteMethod>> controllers = new LinkedHashMap<TypeElement, List<RouteMethod>>();
+        try {
+            collect(roundEnv, Get.class, HttpMethod.GET, controllers);
+            collect(roundEnv, Post.class, HttpMethod.POST, controllers);
+            collect(roundEnv, Put.class, HttpMethod.PUT, controllers);
+            collect(roundEnv, Delete.class, HttpMethod.DELETE, controllers);
+        }
+        catch (GenerationException e) {
+            error(e);
+            return true;
+        }
+
+        for (Map.Entry<TypeElement, List<RouteMethod>> e : controllers.entrySet()) {
+            try {
+                generate(e.getKey(), e.getValue());
+            }
+            catch (GenerationException ex) {
+                error(ex);
+            }
+        }
+        return true;
+    }
+
+    private void error(GenerationException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+    }
+
+    private void collect(RoundEnvironment roundEnv, Class<? extends Annotation> annotation, HttpMethod httpMethod,
+                         Map<TypeElement, List<RouteMethod>> controllers) throws GenerationException {
+        for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (e.getKind() != ElementKind.METHOD) {
+                throw new GenerationException("Only methods can be annotated with @" + annotation.getSimpleName(), e);
+            }
+            ExecutableElement method = (ExecutableElement) e;
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new GenerationException("Action method can't be private", method);
+            }
+            TypeMirror actionResult = processingEnv.getElementUtils().getTypeElement("org.featherj.actions.ActionResult").asType();
+            if (!processingEnv.getTypeUtils().isAssignable(method.getReturnType(), actionResult)) {
+                throw new GenerationException("Action method must return ActionResult", method);
+            }
+
+            TypeElement controller = (TypeElement) method.getEnclosingElement();
+            List<RouteMethod> routes = controllers.get(controller);
+            if (routes == null) {
+                routes = new ArrayList<RouteMethod>();
+                controllers.put(controller, routes);
+            }
+            routes.add(new RouteMethod(httpMethod, pattern(method, annotation), method));
+        }
+    }
+
+    private static String pattern(ExecutableElement method, Class<? extends Annotation> annotation) {
+        if (annotation == Get.class) {
+            return method.getAnnotation(Get.class).value();
+        }
+        if (annotation == Post.class) {
+            return method.getAnnotation(Post.class).value();
+        }
+        if (annotation == Put.class) {
+            return method.getAnnotation(Put.class).value();
+        }
+        return method.getAnnotation(Delete.class).value();
+    }
+
+    private void generate(final TypeElement controller, List<RouteMethod> routes) throws GenerationException {
+        // declaration order
+        final List<? extends Element> members = controller.getEnclosedElements();
+        Collections.sort(routes, new Comparator<RouteMethod>() {
+            @Override
+            public int compare(RouteMethod r1, RouteMethod r2) {
+                return members.indexOf(r1.element) - members.indexOf(r2.element);
+            }
+        });
+
+        DispatcherBuilder builder = new DispatcherBuilder(controller);
+        for (RouteMethod route : routes) {
+            builder.add(route);
+        }
+
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(controller);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String className = dispatcherClassName(controller);
+        String qualifiedName = packageName.length() > 0 ? packageName + "." + className : className;
+
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, controller).openWriter();
+            try {
+                writer.write(builder.generate(packageName, className));
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException e) {
+            throw new GenerationException("Cannot write " + qualifiedName + ": " + e.getMessage(), controller);
+        }
+    }
+
+    private static String dispatcherClassName(TypeElement controller) {
+        StringBuilder name = new StringBuilder(controller.getSimpleName());
+        Element e = controller.getEnclosingElement();
+        while (e.getKind() != ElementKind.PACKAGE) {
+            name.insert(0, e.getSimpleName() + "_");
+            e = e.getEnclosingElement();
+        }
+        return name.append("Dispatcher").toString();
+    }
+
+    private String paramType(VariableElement p) throws GenerationException {
+        TypeMirror type = p.asType();
+        if (type.getKind() == TypeKind.INT) {
+            return "Int";
+        }
+        if (type.getKind() == TypeKind.LONG) {
+            return "Long";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            String name = element.getQualifiedName().toString();
+            if (name.equals("java.lang.Integer")) {
+                return "Int";
+            }
+            if (name.equals("java.lang.Long")) {
+                return "Long";
+            }
+            if (name.equals("java.lang.String")) {
+                return "String";
+            }
+            if (name.equals("java.util.UUID")) {
+                return "Uuid";
+            }
+            if (element.getKind() == ElementKind.ENUM) {
+                return "enum:" + name;
+            }
+        }
+        throw new GenerationException("Unsupported route parameter type " + type, p);
+    }
+
+    private static boolean isRequestType(TypeMirror type) {
+        return type.toString().equals("org.featherj.Request") || type.toString().equals("org.featherj.RequestImpl");
+    }
+
+    private static String escape(String literal) {
+        return literal.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,130 @@
+package org.featherj.bench;
+
+import org.featherj.EntryServlet;
+import org.featherj.Request;
+import org.featherj.View;
+import org.featherj.VirtualThreads;
+import org.featherj.actions.Action;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.SimpleResult;
+import org.featherj.routes.Route;
+import org.featherj.routes.Router;
+import org.featherj.routes.UrlParseException;
+import org.featherj.tests.MockHttp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EntryServlet} processing blocking actions (like JDBC queries) on container threads
+ * with its virtual thread mode (see {@link EntryServlet#virtualThreadConcurrency()}).
+ * A fixed pool of platform threads plays the container: in the first run it calls the servlet with requests
+ * without async support (the action blocks the container thread), in the second one with async support
+ * (the servlet hands requests off to virtual threads).
+ *
+ * Run (JDK 21+ for virtual threads) after <code>mvn test-compile</code>:
+ * <pre>
+ * java -cp target/classes:target/test-classes:$SERVLET_API_JAR org.featherj.bench.VirtualThreadBenchmark [requests] [blockMillis] [poolSize] [concurrency]
+ * </pre>
+ */
+public class VirtualThreadBenchmark {
+
+    private static class BenchmarkServlet extends EntryServlet {
+        private final long blockMillis;
+        private final int concurrency;
+
+        BenchmarkServlet(long blockMillis, int concurrency) {
+            this.blockMillis = blockMillis;
+            this.concurrency = concurrency;
+        }
+
+        @Override
+        protected Route[] routes() throws UrlParseException {
+            return new Route[] {Router.get(new Action() {
+                @Override
+                public ActionResult run(Request request) {
+                    try {
+                        Thread.sleep(blockMillis);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new SimpleResult(200, new View() {
+                        @Override
+                        public String render() {
+                            return "done";
+                        }
+                    });
+                }
+            }, "/query")};
+        }
+
+        @Override
+        protected int virtualThreadConcurrency() {
+            return concurrency;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long blockMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 5000;
+
+        run("container threads (" + poolSize + ")", new BenchmarkServlet(blockMillis, 0), false, requests, poolSize);
+
+        if (!VirtualThreads.isSupported()) {
+            System.out.println("Virtual threads aren't supported by JDK " + System.getProperty("java.version"));
+            return;
+        }
+        run("virtual threads (" + concurrency + " permits)", new BenchmarkServlet(blockMillis, concurrency), true, requests, poolSize);
+    }
+
+    private static void run(String name, final EntryServlet servlet, boolean asyncSupported, int requests, int poolSize)
+            throws Exception {
+        servlet.init();
+        ExecutorService container = Executors.newFixedThreadPool(poolSize);
+        List<MockHttp.Request> served = new ArrayList<MockHttp.Request>(requests);
+        List<Future<?>> calls = new ArrayList<Future<?>>(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            final MockHttp.Request request = new MockHttp.Request("GET", "/query");
+            if (asyncSupported) {
+                request.asyncSupported();
+            }
+            served.add(request);
+            calls.add(container.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        servlet.service(request.get(), new MockHttp.Response().get());
+                    }
+                    catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < requests; i++) {
+            calls.get(i).get();
+            // requests handed off to virtual threads are completed later
+            MockHttp.Async async = served.get(i).getAsync();
+            if (async != null && !async.awaitCompletion(TimeUnit.MINUTES.toMillis(1))) {
+                throw new IllegalStateException("Request hasn't been completed");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        container.shutdown();
+        servlet.destroy();
+
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%-40s %8d requests in %7.2f s, %10.1f requests/s",
+            name, requests, seconds, requests / seconds));
+    }
+}
@@ -0,0 +1,60 @@
+package org.featherj.test.controllers;
+
+import org.featherj.Request;
+import org.featherj.actions.SimpleResult;
+import org.featherj.routes.annotations.Delete;
+import org.featherj.routes.annotations.Get;
+import org.featherj.routes.annotations.Post;
+
+import java.util.UUID;
+
+public class TestController {
+
+    public enum Format { JSON, XML }
+
+    private static SimpleResult result(String action) {
+        SimpleResult result = new SimpleResult();
+        result.setHeader("Action", action);
+        return result;
+    }
+
+    @Get("/")
+    public SimpleResult index() {
+        return result("index");
+    }
+
+    @Get("/users/:id")
+    public SimpleResult user(int id) {
+        return result("user " + id);
+    }
+
+    @Get("/users/new")
+    public SimpleResult newUser() {
+        return result("newUser");
+    }
+
+    @Get("/users/:name")
+    public SimpleResult userByName(String name, Request request) {
+        return result("userByName " + name + " " + request.getPath());
+    }
+
+    @Post("/users/:id")
+    public SimpleResult updateUser(long id) {
+        return result("updateUser " + id);
+    }
+
+    @Delete("/users/:id/sessions/:session")
+    public SimpleResult deleteSession(Integer id, UUID session) {
+        return result("deleteSession " + id + " " + session);
+    }
+
+    @Get("/export/:format")
+    public static SimpleResult export(Format format) {
+        return result("export " + format);
+    }
+
+    @Get("/files/*")
+    public SimpleResult files(Request request) {
+        return result("files " + request.getPath());
+    }
+}
@@ -0,0 +1,392 @@
+package org.featherj.tests;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servlet request, response and asynchronous context implemented by dynamic proxies, so servlets
+ * can be run in tests without a container. Methods which aren't emulated return default values.
+ */
+public class MockHttp {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(MockHttp.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    public static class Request implements InvocationHandler {
+        private final String method;
+        private final String uri;
+        private final String query;
+        private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final HttpServletRequest proxy;
+        private String body = "";
+        private boolean asyncSupported;
+        private Async async;
+
+        /**
+         * @param url Request URI with query string, if any
+         */
+        public Request(String method, String url) {
+            this.method = method;
+            int i = url.indexOf('?');
+            this.uri = i == -1 ? url : url.substring(0, i);
+            this.query = i == -1 ? null : url.substring(i + 1);
+            this.proxy = proxy(HttpServletRequest.class, this);
+        }
+
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Request body(String body) {
+            this.body = body;
+            return this;
+        }
+
+        public Request asyncSupported() {
+            asyncSupported = true;
+            return this;
+        }
+
+        public HttpServletRequest get() {
+            return proxy;
+        }
+
+        /**
+         * @return Context of the request put into asynchronous mode or null
+         */
+        public Async getAsync() {
+            return async;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) {
+            String name = m.getName();
+            if (name.equals("getMethod")) {
+                return method;
+            }
+            if (name.equals("getRequestURI")) {
+                return uri;
+            }
+            if (name.equals("getQueryString")) {
+                return query;
+            }
+            if (name.equals("getHeader")) {
+                return headers.get((String) args[0]);
+            }
+            if (name.equals("getHeaderNames")) {
+                return Collections.enumeration(new ArrayList<String>(headers.keySet()));
+            }
+            if (name.equals("getHeaders")) {
+                String value = headers.get((String) args[0]);
+                return Collections.enumeration(value != null ? Collections.singletonList(value) : Collections.<String>emptyList());
+            }
+            if (name.equals("getReader")) {
+                return new BufferedReader(new StringReader(body));
+            }
+            if (name.equals("getAttribute")) {
+                return attributes.get((String) args[0]);
+            }
+            if (name.equals("setAttribute")) {
+                attributes.put((String) args[0], args[1]);
+                return null;
+            }
+            if (name.equals("isAsyncSupported")) {
+                return asyncSupported;
+            }
+            if (name.equals("isAsyncStarted")) {
+                return async != null;
+            }
+            if (name.equals("startAsync")) {
+                if (!asyncSupported) {
+                    throw new IllegalStateException("Asynchronous mode isn't supported");
+                }
+                async = new Async(this.proxy, args != null ? (HttpServletResponse) args[1] : null);
+                return async.get();
+            }
+            if (name.equals("getAsyncContext")) {
+                return async != null ? async.get() : null;
+            }
+            if (name.equals("toString")) {
+                return method + " " + uri;
+            }
+            return defaultValue(m.getReturnType());
+        }
+    }
+
+    public static class Response implements InvocationHandler {
+        private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final HttpServletResponse proxy = proxy(HttpServletResponse.class, this);
+        private int status = HttpServletResponse.SC_OK;
+        private String contentType;
+        private int contentLength = -1;
+        private boolean committed;
+        private ServletOutputStream out;
+        private PrintWriter writer;
+
+        public HttpServletResponse get() {
+            return proxy;
+        }
+
+        public synchronized int getStatus() {
+            return status;
+        }
+
+        public synchronized String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        public synchronized String getContentType() {
+            return contentType;
+        }
+
+        public synchronized int getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * @return Whether anything has been flushed to the client
+         */
+        public synchronized boolean isCommitted() {
+            return committed;
+        }
+
+        public synchronized byte[] getBody() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return body.toByteArray();
+        }
+
+        public String getBodyString() {
+            return new String(getBody(), UTF_8);
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method m, Object[] args) throws IOException {
+            String name = m.getName();
+            if (name.equals("setStatus") || name.equals("sendError")) {
+                status = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getStatus")) {
+                return status;
+            }
+            if (name.equals("setHeader") || name.equals("setIntHeader") || name.equals("setDateHeader")) {
+                headers.put((String) args[0], String.valueOf(args[1]));
+                return null;
+            }
+            if (name.equals("addHeader")) {
+                String current = headers.get((String) args[0]);
+                headers.put((String) args[0], current != null ? current + ", " + args[1] : (String) args[1]);
+                return null;
+            }
+            if (name.equals("containsHeader")) {
+                return headers.containsKey((String) args[0]);
+            }
+            if (name.equals("getHeader")) {
+                return headers.get((String) args[0]);
+            }
+            if (name.equals("setContentType")) {
+                contentType = (String) args[0];
+                return null;
+            }
+            if (name.equals("getContentType")) {
+                return contentType;
+            }
+            if (name.equals("setContentLength")) {
+                contentLength = (Integer) args[0];
+                return null;
+            }
+            if (name.equals("getCharacterEncoding")) {
+                return "UTF-8";
+            }
+            if (name.equals("getOutputStream")) {
+                return getOutputStream();
+            }
+            if (name.equals("getWriter")) {
+                if (writer == null) {
+                    writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), UTF_8));
+                }
+                return writer;
+            }
+            if (name.equals("flushBuffer")) {
+                committed = true;
+                return null;
+            }
+            if (name.equals("isCommitted")) {
+                return committed;
+            }
+            if (name.equals("reset")) {
+                if (committed) {
+                    throw new IllegalStateException("Response has been committed");
+                }
+                headers.clear();
+                body.reset();
+                status = HttpServletResponse.SC_OK;
+                contentType = null;
+                contentLength = -1;
+                return null;
+            }
+            if (name.equals("resetBuffer")) {
+                body.reset();
+                return null;
+            }
+            return defaultValue(m.getReturnType());
+        }
+
+        private ServletOutputStream getOutputStream() {
+            if (out == null) {
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        synchronized (Response.this) {
+                            body.write(b);
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        synchronized (Response.this) {
+                            body.write(b, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                        synchronized (Response.this) {
+                            committed = true;
+                        }
+                    }
+                };
+            }
+            return out;
+        }
+    }
+
+    public static class Async implements InvocationHandler {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final AsyncContext proxy = proxy(AsyncContext.class, this);
+        private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private long timeout = 30000;
+
+        Async(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        public AsyncContext get() {
+            return proxy;
+        }
+
+        public synchronized long getTimeout() {
+            return timeout;
+        }
+
+        public boolean isCompleted() {
+            return completed.getCount() == 0;
+        }
+
+        /**
+         * @return Whether the request has been completed in time
+         */
+        public boolean awaitCompletion(long millis) throws InterruptedException {
+            return completed.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Notifies listeners the way the container does when the timeout elapses.
+         */
+        public void timeOut() throws IOException {
+            List<AsyncListener> current;
+            synchronized (this) {
+                current = new ArrayList<AsyncListener>(listeners);
+            }
+            for (AsyncListener listener : current) {
+                listener.onTimeout(new AsyncEvent(proxy, request, response));
+            }
+        }
+
+        /**
+         * Notifies listeners the way the container does when the client has gone.
+         */
+        public void error(Throwable error) throws IOException {
+            List<AsyncListener> current;
+            synchronized (this) {
+                current = new ArrayList<AsyncListener>(listeners);
+            }
+            for (AsyncListener listener : current) {
+                listener.onError(new AsyncEvent(proxy, request, response, error));
+            }
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method m, Object[] args) {
+            String name = m.getName();
+            if (name.equals("setTimeout")) {
+                timeout = (Long) args[0];
+                return null;
+            }
+            if (name.equals("getTimeout")) {
+                return timeout;
+            }
+            if (name.equals("addListener")) {
+                listeners.add((AsyncListener) args[0]);
+                return null;
+            }
+            if (name.equals("complete")) {
+                completed.countDown();
+                return null;
+            }
+            if (name.equals("getRequest")) {
+                return request;
+            }
+            if (name.equals("getResponse")) {
+                return response;
+            }
+            return defaultValue(m.getReturnType());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.Bulkhead;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.SimpleResult;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestBulkhead {
+
+    @Test
+    public void testThreadPoolRejectsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<ActionResult> slow = new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                release.await();
+                return new SimpleResult(200);
+            }
+        };
+        Bulkhead reports = Bulkhead.threadPool("reports", 1, 1);
+
+        CompletableFuture<ActionResult> running = reports.run(slow);
+        CompletableFuture<ActionResult> queued = reports.run(slow);
+        Assert.assertNotNull(running);
+        Assert.assertNotNull(queued);
+        Assert.assertNull(reports.run(slow));
+        Assert.assertEquals(1, reports.getRejectedCount());
+
+        release.countDown();
+        Assert.assertEquals(200, running.get(5, TimeUnit.SECONDS).getStatus());
+        Assert.assertEquals(200, queued.get(5, TimeUnit.SECONDS).getStatus());
+        reports.shutdown();
+    }
+
+    @Test
+    public void testSemaphoreRunsOnCallerThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        Bulkhead json = Bulkhead.semaphore("json", 2);
+        CompletableFuture<ActionResult> result = json.run(new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() {
+                Assert.assertSame(caller, Thread.currentThread());
+                return new SimpleResult(204);
+            }
+        });
+        Assert.assertTrue(result.isDone());
+        Assert.assertEquals(204, result.get().getStatus());
+        Assert.assertEquals(1, json.getCompletedCount());
+
+        StringBuilder stats = new StringBuilder();
+        json.dumpStats(stats);
+        Assert.assertTrue(stats.toString().startsWith("json"));
+    }
+
+    @Test
+    public void testSemaphoreHoldsPermitOfAsyncResult() throws Exception {
+        final CompletableFuture<ActionResult> stage = new CompletableFuture<ActionResult>();
+        Callable<ActionResult> async = new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() {
+                return new AsyncResult(stage);
+            }
+        };
+        Bulkhead api = Bulkhead.semaphore("api", 1);
+
+        CompletableFuture<ActionResult> result = api.run(async);
+        Assert.assertTrue(result.get() instanceof AsyncResult);
+        Assert.assertEquals(1, api.getActiveCount());
+        Assert.assertNull(api.run(async));
+
+        stage.complete(new SimpleResult(200));
+        Assert.assertEquals(0, api.getActiveCount());
+        Assert.assertEquals(1, api.getCompletedCount());
+        Assert.assertNotNull(api.run(async));
+    }
+
+    @Test
+    public void testThreadPoolHoldsPlaceOfAsyncResult() throws Exception {
+        final CompletableFuture<ActionResult> stage = new CompletableFuture<ActionResult>();
+        Callable<ActionResult> async = new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() {
+                return new AsyncResult(stage);
+            }
+        };
+        Bulkhead api = Bulkhead.threadPool("api", 1, 1);
+
+        Assert.assertTrue(api.run(async).get(5, TimeUnit.SECONDS) instanceof AsyncResult);
+        Assert.assertTrue(api.run(async).get(5, TimeUnit.SECONDS) instanceof AsyncResult);
+        // pool threads are free, but both places are taken until the results complete
+        Assert.assertNull(api.run(async));
+        Assert.assertEquals(2, api.getActiveCount());
+        Assert.assertEquals(1.0, api.getSaturation());
+
+        stage.complete(new SimpleResult(200));
+        Assert.assertEquals(0, api.getActiveCount());
+        Assert.assertEquals(2, api.getCompletedCount());
+        Assert.assertNotNull(api.run(async));
+        api.shutdown();
+    }
+}
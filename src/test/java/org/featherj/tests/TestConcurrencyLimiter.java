@@ -0,0 +1,109 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.ConcurrencyLimiter;
+import org.featherj.routes.RoutePriority;
+import org.featherj.routes.Router;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TestConcurrencyLimiter {
+
+    @Test
+    public void testRejectsExcessRequests() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 2);
+        ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[4];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.tryAcquire(RoutePriority.NORMAL);
+            Assert.assertNotNull(permits[i]);
+        }
+        Assert.assertNull(limiter.tryAcquire(RoutePriority.NORMAL));
+        Assert.assertNull(limiter.tryAcquire(RoutePriority.LOW));
+        Assert.assertNotNull(limiter.tryAcquire(RoutePriority.CRITICAL));
+        Assert.assertEquals(2, limiter.getRejectedCount());
+        Assert.assertEquals(4, limiter.getInFlight());
+
+        permits[0].cancel();
+        Assert.assertNotNull(limiter.tryAcquire(RoutePriority.NORMAL));
+    }
+
+    @Test
+    public void testLowPriorityIsShedFirst() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 1);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(limiter.tryAcquire(RoutePriority.LOW));
+        }
+        Assert.assertNull(limiter.tryAcquire(RoutePriority.LOW));
+        Assert.assertNotNull(limiter.tryAcquire(RoutePriority.NORMAL));
+    }
+
+    @Test
+    public void testTimeoutsDecreaseLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 5, 100, 1);
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire(RoutePriority.NORMAL).release(true);
+        }
+        Assert.assertEquals(5, limiter.getLimit());
+    }
+
+    private static class ManualClockLimiter extends ConcurrencyLimiter {
+        private long nanos;
+
+        ManualClockLimiter() {
+            super(20, 5, 1000, 1);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return nanos;
+        }
+
+        /**
+         * Runs as many requests at once as the limit allows, each of them takes the time.
+         */
+        void runFullLoad(long rttNanos) {
+            List<Permit> permits = new ArrayList<Permit>();
+            Permit permit;
+            while ((permit = tryAcquire(RoutePriority.NORMAL)) != null) {
+                permits.add(permit);
+            }
+            nanos += rttNanos;
+            for (Permit admitted : permits) {
+                admitted.release(false);
+            }
+        }
+    }
+
+    @Test
+    public void testSteadyLatencyIncreasesLimit() {
+        ManualClockLimiter limiter = new ManualClockLimiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.runFullLoad(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Assert.assertTrue(limiter.getLimit() > 20);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testRisingLatencyDecreasesLimit() {
+        ManualClockLimiter limiter = new ManualClockLimiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.runFullLoad(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        int steadyLimit = limiter.getLimit();
+        for (int i = 0; i < 5; i++) {
+            limiter.runFullLoad(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        Assert.assertTrue(limiter.getLimit() < steadyLimit);
+    }
+
+    @Test
+    public void testStaticResourcesBypassLimit() throws Exception {
+        Assert.assertEquals(RoutePriority.CRITICAL, Router.resourceRoute("/css/*").getPriority());
+        Assert.assertEquals(RoutePriority.NORMAL, Router.get(null, "/users").getPriority());
+        Assert.assertEquals(RoutePriority.CRITICAL, Router.get(null, "/health").withPriority(RoutePriority.CRITICAL).getPriority());
+    }
+}
@@ -0,0 +1,1189 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.Bulkhead;
+import org.featherj.CachePolicy;
+import org.featherj.ConcurrencyLimiter;
+import org.featherj.EntryServlet;
+import org.featherj.ErrorHandler;
+import org.featherj.PageHead;
+import org.featherj.Request;
+import org.featherj.ResponseCache;
+import org.featherj.ResponseCompressor;
+import org.featherj.SingleFlight;
+import org.featherj.View;
+import org.featherj.actions.Action;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncAction;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.NotFoundResult;
+import org.featherj.actions.ResourceFileResult;
+import org.featherj.actions.ResponseBuilder;
+import org.featherj.actions.ServiceUnavailableResult;
+import org.featherj.actions.SimpleResult;
+import org.featherj.routes.HttpMethod;
+import org.featherj.routes.Route;
+import org.featherj.routes.RoutePriority;
+import org.featherj.routes.Router;
+import org.featherj.routes.params.IntRouteParam;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class TestEntryServlet {
+
+    private static final PageHead HEAD = new PageHead("<html><head></head><body>").withLateError("<p>late error</p>");
+
+    /**
+     * Servlet with routes of a test, errors are recorded instead of being logged.
+     */
+    private static class TestServlet extends EntryServlet {
+        private final Route[] routes;
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+        TestServlet(Route... routes) {
+            this.routes = routes;
+        }
+
+        @Override
+        protected Route[] routes() {
+            return routes;
+        }
+
+        @Override
+        protected ErrorHandler errorHandler() {
+            return new ErrorHandler() {
+                @Override
+                public void handle(HttpServletRequest req, HttpServletResponse resp, Exception e) {
+                    errors.add(e);
+                    if (!resp.isCommitted()) {
+                        resp.reset();
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                }
+
+                @Override
+                public void destroy() {
+                }
+            };
+        }
+
+        TestServlet started() throws Exception {
+            init();
+            return this;
+        }
+
+        ResponseCache cache() {
+            return getResponseCache();
+        }
+
+        SingleFlight singleFlight() {
+            return getSingleFlight();
+        }
+    }
+
+    /**
+     * Servlet in virtual thread mode, platform threads stand in for virtual ones (so it runs on any JDK).
+     */
+    private static class VirtualThreadServlet extends TestServlet {
+        private final int concurrency;
+        private final long timeoutMillis;
+
+        VirtualThreadServlet(int concurrency, long timeoutMillis, Route... routes) {
+            super(routes);
+            this.concurrency = concurrency;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        protected int virtualThreadConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        protected ExecutorService virtualThreadExecutor() {
+            return Executors.newCachedThreadPool();
+        }
+
+        @Override
+        protected long asyncTimeoutMillis() {
+            return timeoutMillis;
+        }
+    }
+
+    /**
+     * @return Action blocking until the latch is released, counts running actions
+     */
+    private static Action blocking(final CountDownLatch release, final AtomicInteger running, final AtomicInteger maxRunning) {
+        return new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return new SimpleResult(200, text(Thread.currentThread().getName()));
+            }
+        };
+    }
+
+    private static View text(final String text) {
+        return new View() {
+            @Override
+            public String render() {
+                return text;
+            }
+        };
+    }
+
+    private static Action page(final String text) {
+        return new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                return new SimpleResult(200, text(text));
+            }
+        };
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static Action async(final CompletionStage<ActionResult> stage) {
+        return new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                return new AsyncResult(stage);
+            }
+        };
+    }
+
+    /**
+     * Waits until the counter reaches the value (updated by another thread).
+     */
+    private static void awaitCount(AtomicInteger counter, int value) throws InterruptedException {
+        for (int i = 0; i < 500 && counter.get() < value; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(value, counter.get());
+    }
+
+    private static MockHttp.Response serve(EntryServlet servlet, MockHttp.Request request) throws Exception {
+        return serve(servlet, request, new MockHttp.Response());
+    }
+
+    private static MockHttp.Response serve(EntryServlet servlet, MockHttp.Request request, MockHttp.Response response)
+            throws Exception {
+        servlet.service(request.get(), response.get());
+        return response;
+    }
+
+    private static int status(EntryServlet servlet, String method, String... headers) throws Exception {
+        MockHttp.Request request = new MockHttp.Request(method, "/doc");
+        for (int i = 0; i < headers.length; i += 2) {
+            request.header(headers[i], headers[i + 1]);
+        }
+        return serve(servlet, request).getStatus();
+    }
+
+    /**
+     * Waits until the text is written by another thread.
+     */
+    private static void awaitBody(MockHttp.Response response, String text) throws InterruptedException {
+        for (int i = 0; i < 500 && !response.getBodyString().contains(text); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(response.getBodyString(), response.getBodyString().contains(text));
+    }
+
+    /**
+     * @return Parts of multipart batch response by index of sub-request
+     */
+    private static Map<Integer, String> batchParts(MockHttp.Response response) {
+        String contentType = response.getContentType();
+        Assert.assertTrue(contentType, contentType.startsWith("multipart/mixed; boundary="));
+        String delimiter = "--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        String body = response.getBodyString();
+        Assert.assertTrue(body, body.endsWith(delimiter + "--\r\n"));
+
+        Map<Integer, String> parts = new HashMap<Integer, String>();
+        for (String part : body.substring(0, body.length() - delimiter.length() - 4).split(delimiter)) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            int start = part.indexOf("<response-") + "<response-".length();
+            Integer index = Integer.valueOf(part.substring(start, part.indexOf('>', start)));
+            Assert.assertNull(parts.put(index, part));
+        }
+        return parts;
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        Route user = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(200, text("user " + request.<Integer>param(":id")));
+                result.setMimeType("text/plain");
+                result.setHeader("X-Cookie", request.getHeader("Cookie"));
+                result.setHeader("X-If-None-Match", String.valueOf(request.getHeader("If-None-Match")));
+                return result;
+            }
+        }, "/users/:id", new IntRouteParam(":id"));
+        Route moved = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(302);
+                result.setHeader("Location", "/users/1");
+                return result;
+            }
+        }, "/me");
+        Route failing = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                throw new IllegalStateException("broken");
+            }
+        }, "/broken");
+        TestServlet servlet = new TestServlet(user, moved, failing, Router.batchRoute("/batch", 2, 10)).started();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("POST", "/batch")
+            .header("Cookie", "sid=1")
+            .header("If-None-Match", "\"abc\"")
+            .body("GET /users/1\nGET /me\nGET /broken\nGET /missing\nPOST /batch\n"));
+        Assert.assertEquals(200, response.getStatus());
+        Map<Integer, String> parts = batchParts(response);
+        Assert.assertEquals(5, parts.size());
+
+        String part = parts.get(0);
+        Assert.assertTrue(part, part.contains("HTTP/1.1 200 \r\nContent-Type: text/plain\r\nContent-Length: 6\r\n"));
+        Assert.assertTrue(part, part.endsWith("\r\n\r\nuser 1\r\n"));
+        // credentials are passed, conditional headers aren't
+        Assert.assertTrue(part, part.contains("X-Cookie: sid=1\r\n"));
+        Assert.assertTrue(part, part.contains("X-If-None-Match: null\r\n"));
+        Assert.assertTrue(parts.get(1).contains("HTTP/1.1 302 \r\n"));
+        Assert.assertTrue(parts.get(1).contains("Location: /users/1\r\n"));
+        Assert.assertTrue(parts.get(2).contains("HTTP/1.1 500 \r\n"));
+        Assert.assertEquals("broken", servlet.errors.get(0).getMessage());
+        Assert.assertTrue(parts.get(3).contains("HTTP/1.1 404 \r\n"));
+        Assert.assertTrue(parts.get(4).contains("HTTP/1.1 400 \r\n"));
+
+        response = serve(servlet, new MockHttp.Request("POST", "/batch").body("GET users"));
+        Assert.assertEquals(400, response.getStatus());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testAsyncBatch() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Route slow = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) throws Exception {
+                release.await();
+                return new SimpleResult(200, text("slow"));
+            }
+        }, "/slow");
+        TestServlet servlet = new TestServlet(slow, Router.get(page("fast"), "/fast"), Router.batchRoute("/batch", 2, 10)).started();
+
+        MockHttp.Request request = new MockHttp.Request("POST", "/batch").body("GET /slow\nGET /fast").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        // the container thread has been released before the slow part completed
+        Assert.assertNotNull(request.getAsync());
+        Assert.assertFalse(request.getAsync().isCompleted());
+        // the fast part is sent before the slow one completes
+        awaitBody(response, "fast");
+
+        release.countDown();
+        Assert.assertTrue(request.getAsync().awaitCompletion(5000));
+        Map<Integer, String> parts = batchParts(response);
+        Assert.assertTrue(parts.get(0).endsWith("\r\nslow\r\n"));
+        Assert.assertTrue(parts.get(1).endsWith("\r\nfast\r\n"));
+        Assert.assertTrue(response.getBodyString().indexOf("fast") < response.getBodyString().indexOf("slow"));
+        servlet.destroy();
+    }
+
+    @Test
+    public void testBatchTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Route slow = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) throws Exception {
+                release.await();
+                return new SimpleResult(200, text("slow"));
+            }
+        }, "/slow");
+        TestServlet servlet = new TestServlet(slow, Router.get(page("fast"), "/fast"), Router.batchRoute("/batch", 2, 10)).started();
+
+        MockHttp.Request request = new MockHttp.Request("POST", "/batch").body("GET /slow\nGET /fast").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        awaitBody(response, "fast");
+        request.getAsync().timeOut();
+        Assert.assertTrue(request.getAsync().isCompleted());
+        Map<Integer, String> parts = batchParts(response);
+        Assert.assertTrue(parts.get(0).contains("HTTP/1.1 503 \r\n"));
+        Assert.assertTrue(parts.get(1).endsWith("\r\nfast\r\n"));
+
+        // late parts are dropped
+        String body = response.getBodyString();
+        release.countDown();
+        servlet.destroy();
+        Thread.sleep(50);
+        Assert.assertEquals(body, response.getBodyString());
+    }
+
+    @Test
+    public void testBatchIsAdmittedByLimiter() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 3);
+        TestServlet servlet = new TestServlet(Router.get(page("fast"), "/fast"), Router.batchRoute("/batch", 2, 10)) {
+            @Override
+            protected ConcurrencyLimiter concurrencyLimiter() {
+                return limiter;
+            }
+        }.started();
+
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire(RoutePriority.NORMAL);
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("POST", "/batch").body("GET /fast"));
+        Assert.assertEquals(503, response.getStatus());
+        Assert.assertEquals("3", response.getHeader("Retry-After"));
+
+        permit.release(false);
+        response = serve(servlet, new MockHttp.Request("POST", "/batch").body("GET /fast"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals(0, limiter.getInFlight());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testEarlyHeadIsSentBeforeAction() throws Exception {
+        final MockHttp.Response response = new MockHttp.Response();
+        final String[] sentBeforeAction = new String[1];
+        Route page = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                sentBeforeAction[0] = response.isCommitted() ? response.getBodyString() : null;
+                return new SimpleResult(200, text("<p>page</p></body></html>"));
+            }
+        }, "/page").withEarlyHead(HEAD);
+        TestServlet servlet = new TestServlet(page).started();
+
+        serve(servlet, new MockHttp.Request("GET", "/page"), response);
+        Assert.assertEquals("<html><head></head><body>", sentBeforeAction[0]);
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("<html><head></head><body><p>page</p></body></html>", response.getBodyString());
+        Assert.assertTrue(servlet.errors.isEmpty());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testEarlyHeadLateError() throws Exception {
+        Route moved = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(302);
+                result.setHeader("Location", "/");
+                return result;
+            }
+        }, "/moved").withEarlyHead(HEAD);
+        Route failing = Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                throw new IllegalStateException("broken");
+            }
+        }, "/broken").withEarlyHead(HEAD);
+        TestServlet servlet = new TestServlet(moved, failing).started();
+
+        // the status has been sent with the head, so the redirect is reported instead
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/moved"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("<html><head></head><body><p>late error</p>", response.getBodyString());
+        Assert.assertTrue(servlet.errors.get(0).getMessage().contains("302"));
+
+        response = serve(servlet, new MockHttp.Request("GET", "/broken"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("<html><head></head><body><p>late error</p>", response.getBodyString());
+        Assert.assertEquals("broken", servlet.errors.get(1).getMessage());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testAsyncEarlyHead() throws Exception {
+        final List<CompletableFuture<ActionResult>> futures = new ArrayList<CompletableFuture<ActionResult>>();
+        Route page = Router.asyncRoute(HttpMethod.GET, new AsyncAction() {
+            @Override
+            public CompletionStage<ActionResult> run(Request request) {
+                CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+                futures.add(future);
+                return future;
+            }
+        }, "/page").withEarlyHead(HEAD);
+        TestServlet servlet = new TestServlet(page).started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/page").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        // the container thread is released with the head sent
+        Assert.assertFalse(request.getAsync().isCompleted());
+        Assert.assertEquals("<html><head></head><body>", response.getBodyString());
+        futures.get(0).complete(new SimpleResult(200, text("<p>page</p></body></html>")));
+        Assert.assertTrue(request.getAsync().isCompleted());
+        Assert.assertEquals("<html><head></head><body><p>page</p></body></html>", response.getBodyString());
+
+        request = new MockHttp.Request("GET", "/page").asyncSupported();
+        response = serve(servlet, request);
+        request.getAsync().timeOut();
+        Assert.assertTrue(request.getAsync().isCompleted());
+        Assert.assertEquals("<html><head></head><body><p>late error</p>", response.getBodyString());
+        Assert.assertTrue(servlet.errors.get(0) instanceof TimeoutException);
+        // completed too late
+        futures.get(1).complete(new SimpleResult(200, text("<p>page</p></body></html>")));
+        Assert.assertEquals("<html><head></head><body><p>late error</p>", response.getBodyString());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testEarlyHeadClientGone() throws Exception {
+        CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new TestServlet(Router.get(async(future), "/page").withEarlyHead(HEAD)) {
+            @Override
+            protected ResponseCompressor responseCompressor() {
+                return new ResponseCompressor();
+            }
+        }.started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/page").header("Accept-Encoding", "gzip").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        request.getAsync().error(new IOException("Connection reset"));
+        // compression is finished, so the deflater is returned to the pool
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getBody()));
+        Assert.assertEquals("<html><head></head><body>", new String(IOUtils.toByteArray(in), "UTF-8"));
+
+        future.complete(new SimpleResult(200, text("<p>page</p></body></html>")));
+        Assert.assertTrue(servlet.errors.isEmpty());
+    }
+
+    @Test
+    public void testEarlyHeadFullBulkhead() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                running.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new SimpleResult(200, text("report"));
+            }
+        }, "/report").withBulkhead("reports"), Router.get(page("<p>page</p>"), "/page").withBulkhead("reports").withEarlyHead(HEAD)) {
+            @Override
+            protected Bulkhead[] bulkheads() {
+                return new Bulkhead[] {Bulkhead.semaphore("reports", 1)};
+            }
+        }.started();
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serve(servlet, new MockHttp.Request("GET", "/report"));
+                }
+                catch (Exception e) {
+                    servlet.errors.add(e);
+                }
+            }
+        };
+        thread.start();
+        awaitCount(running, 1);
+
+        // overload isn't a failure of the action
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/page"));
+        Assert.assertEquals("<html><head></head><body><p>late error</p>", response.getBodyString());
+        release.countDown();
+        thread.join();
+        Assert.assertTrue(servlet.errors.isEmpty());
+    }
+
+    private static Route cachedPage(final String text) throws Exception {
+        return Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(200, text(text));
+                result.setHeader("ETag", "\"v1\"");
+                return result;
+            }
+        }, "/page").withResponseCache(CachePolicy.ttl(60000));
+    }
+
+    @Test
+    public void testCompressionIsOptIn() throws Exception {
+        String text = repeat("<p>compressible</p>", 100);
+        TestServlet servlet = new TestServlet(cachedPage(text)).started();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/page").header("Accept-Encoding", "gzip"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        Assert.assertNull(response.getHeader("Vary"));
+        Assert.assertEquals(text, response.getBodyString());
+    }
+
+    @Test
+    public void testNotModifiedCompressedVariant() throws Exception {
+        String text = repeat("<p>compressible</p>", 100);
+        TestServlet servlet = new TestServlet(cachedPage(text)) {
+            @Override
+            protected ResponseCompressor responseCompressor() {
+                return new ResponseCompressor();
+            }
+        }.started();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/page").header("Accept-Encoding", "gzip"));
+        Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+        Assert.assertEquals("\"v1-gzip\"", response.getHeader("ETag"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertTrue(response.getBody().length < text.length());
+        // compressed variants are cached (and counted) along with the page
+        Assert.assertTrue(servlet.cache().getBytes() > text.length() + response.getBody().length);
+
+        // validators and Vary of the cached variant the client has
+        response = serve(servlet, new MockHttp.Request("GET", "/page").header("Accept-Encoding", "gzip")
+            .header("If-None-Match", "\"v1-gzip\""));
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertEquals("\"v1-gzip\"", response.getHeader("ETag"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertEquals(0, response.getBody().length);
+
+        response = serve(servlet, new MockHttp.Request("GET", "/page").header("If-None-Match", "\"v1-gzip\""));
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertEquals("\"v1\"", response.getHeader("ETag"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    }
+
+    @Test
+    public void testStaticAssetsUseServletCompressor() throws Exception {
+        EntryServlet plain = new TestServlet(Router.resourceRoute("/assets/*", false)).started();
+        MockHttp.Response response = serve(plain, new MockHttp.Request("GET", "/assets/test.css").header("Accept-Encoding", "*;q=0, gzip"));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertNull(response.getHeader("Content-Encoding"));
+        String css = response.getBodyString();
+
+        EntryServlet compressing = new TestServlet(Router.resourceRoute("/assets/*", false)) {
+            @Override
+            protected ResponseCompressor responseCompressor() {
+                return new ResponseCompressor();
+            }
+        }.started();
+        response = serve(compressing, new MockHttp.Request("GET", "/assets/test.css").header("Accept-Encoding", "*;q=0, gzip"));
+        Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        Assert.assertTrue(response.getBody().length < css.length());
+    }
+
+    @Test
+    public void testAsyncResult() throws Exception {
+        CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new TestServlet(Router.get(async(future), "/async")).started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/async").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        // the container thread is released
+        Assert.assertFalse(request.getAsync().isCompleted());
+        Assert.assertEquals("", response.getBodyString());
+
+        future.complete(new SimpleResult(200, text("done")));
+        Assert.assertTrue(request.getAsync().awaitCompletion(5000));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("done", response.getBodyString());
+    }
+
+    @Test
+    public void testAsyncResultWithoutAsyncSupport() throws Exception {
+        final CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new TestServlet(Router.get(async(future), "/async"), Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                return new AsyncResult(new CompletableFuture<ActionResult>(), 20);
+            }
+        }, "/never")).started();
+
+        Thread completer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                future.complete(new SimpleResult(200, text("done")));
+            }
+        };
+        completer.start();
+        // the container thread waits for the stage
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/async"));
+        Assert.assertEquals("done", response.getBodyString());
+        completer.join();
+
+        response = serve(servlet, new MockHttp.Request("GET", "/never"));
+        Assert.assertEquals(503, response.getStatus());
+    }
+
+    @Test
+    public void testVirtualThreadHandOff() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new VirtualThreadServlet(10, 5000,
+            Router.get(blocking(release, new AtomicInteger(), new AtomicInteger()), "/blocking"),
+            Router.get(async(future), "/async")).started();
+
+        // the container thread is released before the action runs
+        MockHttp.Request request = new MockHttp.Request("GET", "/blocking").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        Assert.assertEquals(0, request.getAsync().getTimeout());
+        Assert.assertFalse(request.getAsync().isCompleted());
+        release.countDown();
+        Assert.assertTrue(request.getAsync().awaitCompletion(5000));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertFalse(response.getBodyString().equals(Thread.currentThread().getName()));
+
+        // asynchronous results are waited for by the virtual thread
+        request = new MockHttp.Request("GET", "/async").asyncSupported();
+        response = serve(servlet, request);
+        Assert.assertFalse(request.getAsync().isCompleted());
+        future.complete(new SimpleResult(200, text("done")));
+        Assert.assertTrue(request.getAsync().awaitCompletion(5000));
+        Assert.assertEquals("done", response.getBodyString());
+
+        // requests without async support stay on the container thread
+        response = serve(servlet, new MockHttp.Request("GET", "/blocking"));
+        Assert.assertEquals(Thread.currentThread().getName(), response.getBodyString());
+        Assert.assertTrue(servlet.errors.isEmpty());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testVirtualThreadPermits() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TestServlet servlet = new VirtualThreadServlet(2, 5000, Router.get(blocking(release, running, maxRunning), "/blocking")).started();
+
+        List<MockHttp.Request> requests = new ArrayList<MockHttp.Request>();
+        List<MockHttp.Response> responses = new ArrayList<MockHttp.Response>();
+        for (int i = 0; i < 5; i++) {
+            MockHttp.Request request = new MockHttp.Request("GET", "/blocking").asyncSupported();
+            requests.add(request);
+            responses.add(serve(servlet, request));
+        }
+        awaitCount(running, 2);
+        // the others wait for permits
+        Thread.sleep(50);
+        Assert.assertEquals(2, running.get());
+
+        release.countDown();
+        for (int i = 0; i < requests.size(); i++) {
+            Assert.assertTrue(requests.get(i).getAsync().awaitCompletion(5000));
+            Assert.assertEquals(200, responses.get(i).getStatus());
+        }
+        Assert.assertEquals(2, maxRunning.get());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testVirtualThreadPermitTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        TestServlet servlet = new VirtualThreadServlet(1, 50, Router.get(blocking(release, running, new AtomicInteger()), "/blocking")).started();
+
+        MockHttp.Request first = new MockHttp.Request("GET", "/blocking").asyncSupported();
+        MockHttp.Response firstResponse = serve(servlet, first);
+        awaitCount(running, 1);
+
+        // no permit within the timeout
+        MockHttp.Request second = new MockHttp.Request("GET", "/blocking").asyncSupported();
+        MockHttp.Response secondResponse = serve(servlet, second);
+        Assert.assertTrue(second.getAsync().awaitCompletion(5000));
+        Assert.assertEquals(503, secondResponse.getStatus());
+        Assert.assertEquals(1, running.get());
+
+        release.countDown();
+        Assert.assertTrue(first.getAsync().awaitCompletion(5000));
+        Assert.assertEquals(200, firstResponse.getStatus());
+        Assert.assertTrue(servlet.errors.isEmpty());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testAsyncTimeout() throws Exception {
+        CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new TestServlet(Router.get(async(future), "/async")).started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/async").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        Assert.assertEquals(30000, request.getAsync().getTimeout());
+        request.getAsync().timeOut();
+        Assert.assertTrue(request.getAsync().isCompleted());
+        Assert.assertEquals(503, response.getStatus());
+
+        // the late result isn't sent
+        String body = response.getBodyString();
+        future.complete(new SimpleResult(200, text("late")));
+        Assert.assertEquals(503, response.getStatus());
+        Assert.assertEquals(body, response.getBodyString());
+    }
+
+    @Test
+    public void testAsyncError() throws Exception {
+        CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        TestServlet servlet = new TestServlet(Router.get(async(future), "/async")).started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/async").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        IllegalStateException error = new IllegalStateException("failed");
+        future.completeExceptionally(error);
+        Assert.assertTrue(request.getAsync().isCompleted());
+        Assert.assertEquals(500, response.getStatus());
+        Assert.assertEquals(Collections.<Exception>singletonList(error), servlet.errors);
+    }
+
+    @Test
+    public void testAsyncResultOutsideServlet() throws Exception {
+        final List<ActionResult> built = new ArrayList<ActionResult>();
+        ResponseBuilder builder = new ResponseBuilder() {
+            @Override
+            public void build(SimpleResult result, HttpServletResponse response) {
+                built.add(result);
+            }
+
+            @Override
+            public void build(ResourceFileResult result, HttpServletResponse response) {
+                built.add(result);
+            }
+
+            @Override
+            public void build(NotFoundResult result, HttpServletResponse response) {
+                built.add(result);
+            }
+
+            @Override
+            public void build(ServiceUnavailableResult result, HttpServletResponse response) {
+                built.add(result);
+            }
+
+            @Override
+            public void build(BytesResult result, HttpServletResponse response) {
+                built.add(result);
+            }
+        };
+        SimpleResult done = new SimpleResult(200, text("done"));
+        new AsyncResult(CompletableFuture.completedFuture(done)).callBuilder(builder, null);
+        new AsyncResult(CompletableFuture.<ActionResult>completedFuture(null)).callBuilder(builder, null);
+        new AsyncResult(new CompletableFuture<ActionResult>(), 10).callBuilder(builder, null);
+        Assert.assertEquals(3, built.size());
+        Assert.assertSame(done, built.get(0));
+        Assert.assertSame(NotFoundResult.INSTANCE, built.get(1));
+        Assert.assertSame(ServiceUnavailableResult.INSTANCE, built.get(2));
+
+        CompletableFuture<ActionResult> failed = new CompletableFuture<ActionResult>();
+        failed.completeExceptionally(new IOException("failed"));
+        try {
+            new AsyncResult(failed).callBuilder(builder, null);
+            Assert.fail();
+        }
+        catch (IOException expected) {
+            Assert.assertEquals("failed", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testLimiterPriorities() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 3);
+        TestServlet servlet = new TestServlet(Router.get(page("page"), "/page"),
+            Router.get(page("health"), "/health").withPriority(RoutePriority.CRITICAL)) {
+            @Override
+            protected ConcurrencyLimiter concurrencyLimiter() {
+                return limiter;
+            }
+        }.started();
+
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire(RoutePriority.NORMAL);
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/page"));
+        Assert.assertEquals(503, response.getStatus());
+        Assert.assertEquals("3", response.getHeader("Retry-After"));
+        // critical routes bypass the limit
+        Assert.assertEquals("health", serve(servlet, new MockHttp.Request("GET", "/health")).getBodyString());
+
+        permit.release(false);
+        Assert.assertEquals("page", serve(servlet, new MockHttp.Request("GET", "/page")).getBodyString());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testBulkheadIsolatesRoutes() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                running.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new SimpleResult(200, text("slow"));
+            }
+        }, "/slow").withBulkhead("slow"), Router.get(page("fast"), "/fast")) {
+            @Override
+            protected Bulkhead[] bulkheads() {
+                return new Bulkhead[] {Bulkhead.semaphore("slow", 1)};
+            }
+        }.started();
+
+        final MockHttp.Response first = new MockHttp.Response();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serve(servlet, new MockHttp.Request("GET", "/slow"), first);
+                }
+                catch (Exception e) {
+                    servlet.errors.add(e);
+                }
+            }
+        };
+        thread.start();
+        awaitCount(running, 1);
+
+        Assert.assertEquals(503, serve(servlet, new MockHttp.Request("GET", "/slow")).getStatus());
+        Assert.assertEquals("fast", serve(servlet, new MockHttp.Request("GET", "/fast")).getBodyString());
+
+        release.countDown();
+        thread.join();
+        Assert.assertEquals("slow", first.getBodyString());
+        Assert.assertTrue(servlet.errors.isEmpty());
+    }
+
+    @Test
+    public void testThreadPoolBulkheadKeepsResultTimeout() throws Exception {
+        final CompletableFuture<ActionResult> never = new CompletableFuture<ActionResult>();
+        final CountDownLatch release = new CountDownLatch(1);
+        TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new AsyncResult(never, 20);
+            }
+        }, "/slow").withBulkhead("slow")) {
+            @Override
+            protected Bulkhead[] bulkheads() {
+                return new Bulkhead[] {Bulkhead.threadPool("slow", 1, 0)};
+            }
+        }.started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/slow").asyncSupported();
+        MockHttp.Response response = serve(servlet, request);
+        release.countDown();
+        // the container timeout (default) is longer, the timeout of the result applies
+        Assert.assertTrue(request.getAsync().awaitCompletion(5000));
+        Assert.assertEquals(503, response.getStatus());
+        servlet.destroy();
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                runs.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new SimpleResult(200, text("shared"));
+            }
+        }, "/report").withCoalescing(true)).started();
+
+        final MockHttp.Response first = new MockHttp.Response();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serve(servlet, new MockHttp.Request("GET", "/report"), first);
+                }
+                catch (Exception e) {
+                    servlet.errors.add(e);
+                }
+            }
+        };
+        thread.start();
+        awaitCount(runs, 1);
+
+        // the duplicate waits for the result of the first request
+        MockHttp.Request duplicate = new MockHttp.Request("GET", "/report").asyncSupported();
+        MockHttp.Response response = serve(servlet, duplicate);
+        Assert.assertEquals(1, servlet.singleFlight().getCoalescedCount());
+
+        release.countDown();
+        thread.join();
+        Assert.assertTrue(duplicate.getAsync().awaitCompletion(5000));
+        Assert.assertEquals("shared", first.getBodyString());
+        Assert.assertEquals("shared", response.getBodyString());
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(0, servlet.singleFlight().getInFlightCount());
+    }
+
+    @Test
+    public void testPersonalisedRequestsAreNotCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                runs.incrementAndGet();
+                if (request.getHeader("Cookie") == null && request.getHeader("Authorization") == null) {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return new SimpleResult(200, text("hello " + request.getHeader("Cookie")));
+            }
+        }, "/home").withCoalescing(true)).started();
+
+        final MockHttp.Response anonymous = new MockHttp.Response();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serve(servlet, new MockHttp.Request("GET", "/home"), anonymous);
+                }
+                catch (Exception e) {
+                    servlet.errors.add(e);
+                }
+            }
+        };
+        thread.start();
+        awaitCount(runs, 1);
+
+        // requests of signed in users run the action while the anonymous one is in flight
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/home").header("Cookie", "session=1"));
+        Assert.assertEquals("hello session=1", response.getBodyString());
+        serve(servlet, new MockHttp.Request("GET", "/home").header("Authorization", "Bearer 1"));
+        Assert.assertEquals(3, runs.get());
+        Assert.assertEquals(0, servlet.singleFlight().getCoalescedCount());
+
+        release.countDown();
+        thread.join();
+        Assert.assertEquals("hello null", anonymous.getBodyString());
+    }
+
+    @Test
+    public void testResponseCache() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                runs.incrementAndGet();
+                return new SimpleResult(200, text("hello " + request.getHeader("Accept-Language")));
+            }
+        }, "/hello").withResponseCache(CachePolicy.ttl(60000).vary("Accept-Language"))).started();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/hello").header("Accept-Language", "en"));
+        Assert.assertEquals("hello en", response.getBodyString());
+        Assert.assertEquals("Accept-Language", response.getHeader("Vary"));
+        response = serve(servlet, new MockHttp.Request("GET", "/hello").header("Accept-Language", "en"));
+        Assert.assertEquals("hello en", response.getBodyString());
+        Assert.assertEquals(1, runs.get());
+
+        response = serve(servlet, new MockHttp.Request("GET", "/hello").header("Accept-Language", "fr"));
+        Assert.assertEquals("hello fr", response.getBodyString());
+        Assert.assertEquals(2, runs.get());
+        Assert.assertEquals(1, servlet.cache().getHits());
+        Assert.assertEquals(2, servlet.cache().size());
+
+        // unsafe requests aren't cached
+        serve(servlet, new MockHttp.Request("POST", "/hello"));
+        Assert.assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testResponsesSettingCookiesAreNotCached() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(200, text("hello"));
+                result.setHeader("Set-Cookie", "session=" + runs.incrementAndGet());
+                return result;
+            }
+        }, "/hello").withResponseCache(CachePolicy.ttl(60000))).started();
+
+        Assert.assertEquals("session=1", serve(servlet, new MockHttp.Request("GET", "/hello")).getHeader("Set-Cookie"));
+        Assert.assertEquals("session=2", serve(servlet, new MockHttp.Request("GET", "/hello")).getHeader("Set-Cookie"));
+        Assert.assertEquals(0, servlet.cache().size());
+    }
+
+    @Test
+    public void testRefreshUsesVaryHeaders() throws Exception {
+        final List<String> languages = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger runs = new AtomicInteger();
+        TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                languages.add(request.getHeader("Accept-Language"));
+                runs.incrementAndGet();
+                return new SimpleResult(200, text("hello " + request.getHeader("Accept-Language")));
+            }
+        }, "/hello").withResponseCache(CachePolicy.ttl(1).staleWhileRevalidate(60000).vary("Accept-Language"))).started();
+
+        MockHttp.Request request = new MockHttp.Request("GET", "/hello").header("Accept-Language", "fr");
+        Assert.assertEquals("hello fr", serve(servlet, request).getBodyString());
+        Thread.sleep(20);
+
+        // the stale response is served while it's refreshed for the same language
+        Assert.assertEquals("hello fr", serve(servlet, request).getBodyString());
+        awaitCount(runs, 2);
+        Assert.assertEquals(Arrays.asList("fr", "fr"), languages);
+        servlet.destroy();
+    }
+
+    @Test
+    public void testRangeOfResourceFile() throws Exception {
+        TestServlet servlet = new TestServlet(Router.resourceRoute("/assets/*", false)).started();
+        String css = serve(servlet, new MockHttp.Request("GET", "/assets/test.css")).getBodyString();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/assets/test.css").header("Range", "bytes=10-19"));
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("bytes 10-19/" + css.length(), response.getHeader("Content-Range"));
+        Assert.assertEquals(css.substring(10, 20), response.getBodyString());
+
+        response = serve(servlet, new MockHttp.Request("GET", "/assets/test.css").header("Range", "bytes=" + css.length() + "-"));
+        Assert.assertEquals(416, response.getStatus());
+    }
+
+    @Test
+    public void testViewVersion() throws Exception {
+        final AtomicInteger renders = new AtomicInteger();
+        TestServlet servlet = new TestServlet(Router.get(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(200, new View() {
+                    @Override
+                    public String render() {
+                        renders.incrementAndGet();
+                        return "user 10";
+                    }
+                });
+                result.setVersion("user:10:" + request.getHeader("X-Updated"));
+                return result;
+            }
+        }, "/user")).started();
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/user").header("X-Updated", "1700000000"));
+        String etag = response.getHeader("ETag");
+        Assert.assertTrue(etag, etag.startsWith("W/\""));
+        Assert.assertEquals(1, renders.get());
+
+        // the same version isn't rendered again
+        response = serve(servlet, new MockHttp.Request("GET", "/user").header("X-Updated", "1700000000")
+            .header("If-None-Match", etag));
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertEquals(etag, response.getHeader("ETag"));
+        Assert.assertEquals(1, renders.get());
+
+        response = serve(servlet, new MockHttp.Request("GET", "/user").header("X-Updated", "1700000001")
+            .header("If-None-Match", etag));
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertFalse(etag.equals(response.getHeader("ETag")));
+        Assert.assertEquals(2, renders.get());
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        TestServlet servlet = new TestServlet(Router.route(new Action() {
+            @Override
+            public ActionResult run(Request request) {
+                SimpleResult result = new SimpleResult(request.getHeader("X-Status") != null
+                    ? Integer.parseInt(request.getHeader("X-Status")) : 200, text("doc"));
+                result.setHeader("ETag", "\"v2\"");
+                result.setHeader("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT");
+                result.setHeader("Cache-Control", "max-age=60");
+                return result;
+            }
+        }, "/doc")).started();
+
+        // If-None-Match, weak comparison
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "\"v2\""));
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "W/\"v2\""));
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "\"v1\", \"v2\""));
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "*"));
+        Assert.assertEquals(304, status(servlet, "HEAD", "If-None-Match", "\"v2\""));
+        Assert.assertEquals(200, status(servlet, "GET", "If-None-Match", "\"v1\""));
+        // entity tags of compressed variants
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "\"v2-gzip\""));
+        Assert.assertEquals(304, status(servlet, "GET", "If-None-Match", "\"v2-deflate\""));
+        Assert.assertEquals(200, status(servlet, "GET", "If-None-Match", "\"v2-br\""));
+
+        // If-Modified-Since
+        Assert.assertEquals(304, status(servlet, "GET", "If-Modified-Since", "Sun, 06 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(304, status(servlet, "GET", "If-Modified-Since", "Mon, 07 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(200, status(servlet, "GET", "If-Modified-Since", "Sat, 05 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(200, status(servlet, "GET", "If-Modified-Since", "yesterday"));
+        // If-None-Match takes precedence
+        Assert.assertEquals(200, status(servlet, "GET", "If-None-Match", "\"v1\"",
+            "If-Modified-Since", "Sun, 06 Nov 1994 08:49:37 GMT"));
+
+        // only successful safe requests
+        Assert.assertEquals(200, status(servlet, "POST", "If-None-Match", "\"v2\""));
+        Assert.assertEquals(404, status(servlet, "GET", "If-None-Match", "\"v2\"", "X-Status", "404"));
+
+        MockHttp.Response response = serve(servlet, new MockHttp.Request("GET", "/doc").header("If-None-Match", "\"v2\""));
+        Assert.assertEquals("\"v2\"", response.getHeader("ETag"));
+        Assert.assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", response.getHeader("Last-Modified"));
+        Assert.assertEquals("max-age=60", response.getHeader("Cache-Control"));
+        Assert.assertEquals(0, response.getBody().length);
+    }
+}
@@ -0,0 +1,121 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.RequestImpl;
+import org.featherj.actions.HttpDates;
+import org.featherj.actions.ResourceFileResult;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestResourceFileResult {
+
+    private static RequestImpl request(final Map<String, String> headers) {
+        return new RequestImpl(null) {
+            @Override
+            public String getHeader(String name) {
+                return headers.get(name);
+            }
+        };
+    }
+
+    @Test
+    public void testParseRanges() {
+        Assert.assertTrue(Arrays.equals(new long[] {0, 99}, ResourceFileResult.parseRanges("bytes=0-99", 1000)));
+        Assert.assertTrue(Arrays.equals(new long[] {900, 999}, ResourceFileResult.parseRanges("bytes=900-", 1000)));
+        Assert.assertTrue(Arrays.equals(new long[] {950, 999}, ResourceFileResult.parseRanges("bytes=-50", 1000)));
+        Assert.assertTrue(Arrays.equals(new long[] {0, 999}, ResourceFileResult.parseRanges("bytes=-5000", 1000)));
+        Assert.assertTrue(Arrays.equals(new long[] {990, 999}, ResourceFileResult.parseRanges("bytes=990-2000", 1000)));
+        // sorted and merged
+        Assert.assertTrue(Arrays.equals(new long[] {0, 19, 500, 599},
+            ResourceFileResult.parseRanges("bytes=500-599, 10-19,0-9, 550-560", 1000)));
+        // unsatisfiable ranges are skipped
+        Assert.assertTrue(Arrays.equals(new long[] {0, 9}, ResourceFileResult.parseRanges("bytes=0-9,2000-", 1000)));
+        Assert.assertEquals(0, ResourceFileResult.parseRanges("bytes=1000-", 1000).length);
+        Assert.assertEquals(0, ResourceFileResult.parseRanges("bytes=-0", 1000).length);
+
+        Assert.assertNull(ResourceFileResult.parseRanges("items=0-9", 1000));
+        Assert.assertNull(ResourceFileResult.parseRanges("bytes=9-0", 1000));
+        Assert.assertNull(ResourceFileResult.parseRanges("bytes=a-b", 1000));
+        Assert.assertNull(ResourceFileResult.parseRanges("bytes=", 1000));
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 20; i++) {
+            many.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        Assert.assertNull(ResourceFileResult.parseRanges(many.toString(), 1000));
+    }
+
+    @Test
+    public void testStatusAndHeaders() throws Exception {
+        File file = File.createTempFile("featherj", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[1000]);
+        }
+        finally {
+            out.close();
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        ResourceFileResult whole = new ResourceFileResult("text/plain", file, request(headers));
+        Assert.assertEquals(HttpServletResponse.SC_OK, whole.getStatus());
+        Assert.assertEquals(1000, whole.getContentLength());
+        Assert.assertEquals("bytes", whole.getHeaders().get("Accept-Ranges"));
+        Assert.assertNull(whole.getRanges());
+
+        headers.put("Range", "bytes=100-199");
+        ResourceFileResult partial = new ResourceFileResult("text/plain", file, request(headers));
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, partial.getStatus());
+        Assert.assertEquals(100, partial.getContentLength());
+        Assert.assertEquals("bytes 100-199/1000", partial.getHeaders().get("Content-Range"));
+
+        headers.put("Range", "bytes=5000-");
+        ResourceFileResult unsatisfiable = new ResourceFileResult("text/plain", file, request(headers));
+        Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, unsatisfiable.getStatus());
+        Assert.assertEquals("bytes */1000", unsatisfiable.getHeaders().get("Content-Range"));
+
+        // the file may have been modified since the client got the first part
+        headers.put("Range", "bytes=100-199");
+        headers.put("If-Range", "Thu, 01 Jan 1970 00:00:00 GMT");
+        Assert.assertEquals(HttpServletResponse.SC_OK, new ResourceFileResult("text/plain", file, request(headers)).getStatus());
+    }
+
+    @Test
+    public void testValidators() throws Exception {
+        File file = File.createTempFile("featherj", ".txt");
+        file.deleteOnExit();
+        Assert.assertTrue(file.setLastModified(784111777000L));
+
+        Map<String, String> headers = new HashMap<String, String>();
+        ResourceFileResult weak = new ResourceFileResult("text/plain", file, request(headers));
+        Assert.assertTrue(weak.getETag().startsWith("W/\""));
+        Assert.assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", weak.getHeaders().get("Last-Modified"));
+        Assert.assertEquals(784111777000L, HttpDates.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(-1, HttpDates.parse("yesterday"));
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[100]);
+        }
+        finally {
+            out.close();
+        }
+        ResourceFileResult strong = new ResourceFileResult("text/plain", file, 100, file.lastModified(), "abc", request(headers));
+        Assert.assertEquals("\"abc\"", strong.getHeaders().get("ETag"));
+
+        // If-Range with the strong entity tag
+        headers.put("Range", "bytes=0-9");
+        headers.put("If-Range", "\"abc\"");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT,
+            new ResourceFileResult("text/plain", file, 100, file.lastModified(), "abc", request(headers)).getStatus());
+        headers.put("If-Range", "\"old\"");
+        Assert.assertEquals(HttpServletResponse.SC_OK,
+            new ResourceFileResult("text/plain", file, 100, file.lastModified(), "abc", request(headers)).getStatus());
+    }
+}
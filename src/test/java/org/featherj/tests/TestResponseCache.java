@@ -0,0 +1,198 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.CachePolicy;
+import org.featherj.ResponseCache;
+import org.featherj.ResponseCompressor;
+import org.featherj.actions.BytesResult;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestResponseCache {
+
+    private static class ManualClockCache extends ResponseCache {
+        private long now;
+
+        ManualClockCache(long maxBytes) {
+            super(maxBytes, 1);
+        }
+
+        void advanceMillis(long millis) {
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+    }
+
+    private static BytesResult page(int size) {
+        return new BytesResult(200, "text/html;charset=UTF-8", Collections.<String, String>emptyMap(), new byte[size]);
+    }
+
+    @Test
+    public void testTtlAndStaleWhileRevalidate() throws Exception {
+        ManualClockCache cache = new ManualClockCache(1024);
+        CachePolicy policy = CachePolicy.ttl(1000).staleWhileRevalidate(500);
+        cache.put("/page", page(10), policy, new String[0]);
+
+        ResponseCache.Entry entry = cache.get("/page");
+        Assert.assertNotNull(entry);
+        Assert.assertTrue(cache.isFresh(entry));
+
+        cache.advanceMillis(1200);
+        entry = cache.get("/page");
+        Assert.assertNotNull(entry);
+        Assert.assertFalse(cache.isFresh(entry));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger refreshes = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                refreshes.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ignored) {
+                }
+            }
+        };
+        Assert.assertTrue(cache.refresh(entry, task));
+        // only one refresh at a time
+        Assert.assertFalse(cache.refresh(entry, task));
+        release.countDown();
+
+        cache.advanceMillis(400);
+        Assert.assertNull(cache.get("/page"));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getStaleHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getRefreshes());
+        Assert.assertEquals(0, cache.size());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testInvalidateByTag() {
+        ManualClockCache cache = new ManualClockCache(1024);
+        CachePolicy policy = CachePolicy.ttl(1000);
+        cache.put("/users/1", page(10), policy, new String[] {"users", "user:1"});
+        cache.put("/users/2", page(10), policy, new String[] {"users", "user:2"});
+        cache.put("/about", page(10), policy, new String[0]);
+
+        cache.invalidate("user:1");
+        Assert.assertNull(cache.get("/users/1"));
+        Assert.assertNotNull(cache.get("/users/2"));
+
+        cache.invalidate("users");
+        Assert.assertNull(cache.get("/users/2"));
+        Assert.assertNotNull(cache.get("/about"));
+        Assert.assertEquals(10, cache.getBytes());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testEmptyTagsAreRemoved() {
+        ManualClockCache cache = new ManualClockCache(1024);
+        CachePolicy policy = CachePolicy.ttl(1000);
+        cache.put("/users/1", page(10), policy, new String[] {"users", "user:1"});
+        cache.put("/users/2", page(10), policy, new String[] {"users", "user:2"});
+        Assert.assertEquals(3, cache.getTagCount());
+
+        cache.remove("/users/1");
+        Assert.assertEquals(2, cache.getTagCount());
+        cache.invalidate("user:2");
+        Assert.assertEquals(0, cache.getTagCount());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testInvalidationWhileRendering() {
+        ManualClockCache cache = new ManualClockCache(1024);
+        CachePolicy policy = CachePolicy.ttl(1000);
+        String[] tags = {"users", "user:1"};
+        long generation = cache.generation(tags);
+        // the user changes while the page is rendered from the old data
+        cache.invalidate("user:1");
+        Assert.assertFalse(cache.put("/users/1", page(10), policy, tags, generation));
+        Assert.assertNull(cache.get("/users/1"));
+
+        generation = cache.generation(tags);
+        Assert.assertTrue(cache.put("/users/1", page(10), policy, tags, generation));
+        Assert.assertNotNull(cache.get("/users/1"));
+
+        // other tags don't matter (unless they share the counter)
+        String[] otherTags = {"about"};
+        generation = cache.generation(otherTags);
+        cache.invalidate("user:2");
+        if (cache.generation(otherTags) == generation) {
+            Assert.assertTrue(cache.put("/about", page(10), policy, otherTags, generation));
+        }
+
+        generation = cache.generation(tags);
+        cache.invalidateAll();
+        Assert.assertFalse(cache.put("/users/1", page(10), policy, tags, generation));
+        cache.shutdown();
+    }
+
+    @Test
+    public void testEvictionBySize() {
+        // 16 bytes per segment
+        ManualClockCache cache = new ManualClockCache(256);
+        CachePolicy policy = CachePolicy.ttl(1000);
+        for (int i = 0; i < 100; i++) {
+            cache.put("/page/" + i, page(10), policy, new String[0]);
+        }
+        Assert.assertTrue(cache.getBytes() <= 256);
+        Assert.assertEquals(cache.getBytes(), cache.size() * 10L);
+        Assert.assertEquals(100 - cache.size(), cache.getEvictions());
+
+        // too large to be cached at all
+        cache.put("/large", page(100), policy, new String[0]);
+        Assert.assertNull(cache.get("/large"));
+        cache.shutdown();
+    }
+
+    @Test
+    public void testHeadersAreWeighed() {
+        ResponseCache cache = new ResponseCache(1024, 1);
+        BytesResult page = new BytesResult(200, "text/html;charset=UTF-8", Collections.singletonMap("ETag", "\"v1\""), new byte[10]);
+        cache.put("/page", page, CachePolicy.ttl(1000), new String[0]);
+        Assert.assertEquals(10 + "ETag".length() + "\"v1\"".length(), cache.getBytes());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testCompressedVariantsAreWeighed() throws Exception {
+        ResponseCache cache = new ResponseCache(1024 * 1024, 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("<p>compressible</p>");
+        }
+        ResponseCompressor compressor = new ResponseCompressor();
+        BytesResult page = new BytesResult(200, "text/html;charset=UTF-8", Collections.<String, String>emptyMap(),
+            text.toString().getBytes("UTF-8")).withVariants(compressor);
+        int gzipped = page.encoded(ResponseCompressor.Coding.GZIP, compressor).getWeight();
+        int deflated = page.encoded(ResponseCompressor.Coding.DEFLATE, compressor).getWeight();
+        Assert.assertEquals(text.length() + gzipped + deflated, page.getWeight());
+
+        cache.put("/page", page, CachePolicy.ttl(1000), new String[0]);
+        Assert.assertEquals(page.getWeight(), cache.getBytes());
+        cache.remove("/page");
+        Assert.assertEquals(0, cache.getBytes());
+
+        // variants computed later aren't counted, but they don't unbalance the cache either
+        BytesResult other = page(2000);
+        cache.put("/other", other, CachePolicy.ttl(1000), new String[0]);
+        other.encoded(ResponseCompressor.Coding.GZIP, compressor);
+        cache.remove("/other");
+        Assert.assertEquals(0, cache.getBytes());
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.apache.commons.io.IOUtils;
+import org.featherj.ResponseCompressor;
+import org.featherj.actions.BytesResult;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class TestResponseCompressor {
+
+    private static byte[] page(int size) {
+        StringBuilder page = new StringBuilder(size);
+        while (page.length() < size) {
+            page.append("<p>featherj</p>");
+        }
+        return page.substring(0, size).getBytes();
+    }
+
+    @Test
+    public void testNegotiate() {
+        ResponseCompressor compressor = new ResponseCompressor();
+        Assert.assertEquals(ResponseCompressor.Coding.GZIP, compressor.negotiate("gzip, deflate, br"));
+        Assert.assertEquals(ResponseCompressor.Coding.GZIP, compressor.negotiate("deflate;q=1.0, GZIP;q=0.5"));
+        Assert.assertEquals(ResponseCompressor.Coding.DEFLATE, compressor.negotiate("gzip;q=0, deflate"));
+        Assert.assertEquals(ResponseCompressor.Coding.GZIP, compressor.negotiate("*"));
+        Assert.assertNull(compressor.negotiate("gzip;q=0, *"));
+        Assert.assertEquals(ResponseCompressor.Coding.GZIP, compressor.negotiate("*;q=0, gzip"));
+        Assert.assertNull(compressor.negotiate("br, identity"));
+        Assert.assertNull(compressor.negotiate(null));
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor();
+        byte[] page = page(10000);
+        // pooled deflaters are reset between responses
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            OutputStream out = compressor.wrap(gzip, ResponseCompressor.Coding.GZIP);
+            out.write(page, 0, 100);
+            out.flush();
+            out.write(page, 100, page.length - 100);
+            out.close();
+            Assert.assertTrue(gzip.size() < page.length);
+            Assert.assertTrue(Arrays.equals(page, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray())))));
+
+            ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+            out = compressor.wrap(deflate, ResponseCompressor.Coding.DEFLATE);
+            out.write(page);
+            out.close();
+            Assert.assertTrue(Arrays.equals(page, IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(deflate.toByteArray())))));
+        }
+    }
+
+    @Test
+    public void testCompressResult() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor(6, 1024, "text/html");
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("ETag", "\"abc\"");
+        headers.put("Vary", "Accept-Language");
+        BytesResult result = new BytesResult(200, "text/html;charset=UTF-8", headers, page(5000));
+
+        BytesResult gzipped = result.encoded(ResponseCompressor.Coding.GZIP, compressor);
+        Assert.assertNotSame(result, gzipped);
+        Assert.assertEquals("gzip", gzipped.getHeaders().get("Content-Encoding"));
+        Assert.assertEquals("Accept-Language, Accept-Encoding", gzipped.getHeaders().get("Vary"));
+        Assert.assertEquals("\"abc-gzip\"", gzipped.getHeaders().get("ETag"));
+        Assert.assertTrue(Arrays.equals(result.getBody(),
+            IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped.getBody())))));
+        // compressed once
+        Assert.assertSame(gzipped, result.encoded(ResponseCompressor.Coding.GZIP, compressor));
+        Assert.assertEquals("\"abc-deflate\"", result.encoded(ResponseCompressor.Coding.DEFLATE, compressor).getHeaders().get("ETag"));
+        // already compressed
+        Assert.assertSame(gzipped, gzipped.encoded(ResponseCompressor.Coding.GZIP, compressor));
+
+        // too small or not allowed type
+        BytesResult small = new BytesResult(200, "text/html", headers, page(100));
+        Assert.assertSame(small, compressor.compress(small, ResponseCompressor.Coding.GZIP));
+        BytesResult image = new BytesResult(200, "image/png", headers, page(5000));
+        Assert.assertSame(image, compressor.compress(image, ResponseCompressor.Coding.GZIP));
+    }
+}
@@ -0,0 +1,67 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.RequestImpl;
+import org.featherj.actions.ActionResult;
+import org.featherj.routes.Dispatcher;
+import org.featherj.routes.HttpMethod;
+import org.featherj.routes.Route;
+import org.featherj.routes.Router;
+import org.featherj.test.controllers.TestController;
+import org.featherj.test.controllers.TestControllerDispatcher;
+import org.junit.Test;
+
+public class TestRouteDispatcherProcessor {
+
+    private final Dispatcher dispatcher = new TestControllerDispatcher(new TestController());
+
+    private static RequestImpl request(final String url) {
+        return new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        };
+    }
+
+    private String dispatch(HttpMethod method, String url) throws Exception {
+        ActionResult result = dispatcher.dispatch(method, request(url));
+        Assert.assertEquals(result != null, dispatcher.matches(method, request(url)));
+        return result != null ? result.getHeaders().get("Action") : null;
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        Assert.assertEquals("index", dispatch(HttpMethod.GET, "/"));
+        Assert.assertEquals("user 10", dispatch(HttpMethod.GET, "/users/10"));
+        Assert.assertEquals("user 10", dispatch(HttpMethod.HEAD, "/users/10?a=b"));
+        Assert.assertEquals("newUser", dispatch(HttpMethod.GET, "/users/new"));
+        Assert.assertEquals("userByName a b /users/a%20b", dispatch(HttpMethod.GET, "/users/a%20b"));
+        Assert.assertEquals("updateUser 10", dispatch(HttpMethod.POST, "/users/10"));
+        Assert.assertEquals("deleteSession 5 0b6f9c3e-3a3c-4d8e-9a55-8c2f3f0e6a11",
+            dispatch(HttpMethod.DELETE, "/users/5/sessions/0b6f9c3e-3a3c-4d8e-9a55-8c2f3f0e6a11"));
+        Assert.assertEquals("export XML", dispatch(HttpMethod.GET, "/export/xml"));
+        Assert.assertEquals("files /files/css/a.css", dispatch(HttpMethod.GET, "/files/css/a.css"));
+    }
+
+    @Test
+    public void testNotMatched() throws Exception {
+        Assert.assertNull(dispatch(HttpMethod.GET, ""));
+        Assert.assertNull(dispatch(HttpMethod.GET, "/users"));
+        Assert.assertNull(dispatch(HttpMethod.GET, "/users/10/"));
+        Assert.assertNull(dispatch(HttpMethod.PUT, "/users/10"));
+        Assert.assertNull(dispatch(HttpMethod.POST, "/users/abc"));
+        Assert.assertNull(dispatch(HttpMethod.DELETE, "/users/5/sessions/abc"));
+        Assert.assertNull(dispatch(HttpMethod.GET, "/export/csv"));
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        Router router = new Router(new Route[0]);
+        Dispatcher[] dispatchers = { dispatcher };
+        ActionResult result = router.notMatched(request("/users/10"), dispatchers);
+        Assert.assertEquals(405, result.getStatus());
+        Assert.assertEquals("GET, POST, HEAD", result.getHeaders().get("Allow"));
+        Assert.assertEquals(404, router.notMatched(request("/users"), dispatchers).getStatus());
+    }
+}
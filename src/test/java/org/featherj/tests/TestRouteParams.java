@@ -0,0 +1,124 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.routes.params.EnumRouteParam;
+import org.featherj.routes.params.IntRouteParam;
+import org.featherj.routes.params.LongRouteParam;
+import org.featherj.routes.params.RegexRouteParam;
+import org.featherj.routes.params.RouteParam;
+import org.featherj.routes.params.SlugRouteParam;
+import org.featherj.routes.params.StringRouteParam;
+import org.featherj.routes.params.UuidRouteParam;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public class TestRouteParams {
+
+    private enum Status { NEW, SHIPPED, SHIPPED_BACK }
+
+    private static Object parse(RouteParam<?> param, String url, int start) {
+        int end = param.match(url, start, url.length());
+        if (end == -1) {
+            return null;
+        }
+        return param.parseValue(url, start, end);
+    }
+
+    @Test
+    public void testIntParam() {
+        IntRouteParam param = new IntRouteParam(":id");
+        Assert.assertEquals(10, parse(param, "/users/10/edit", 7));
+        Assert.assertEquals(Integer.MAX_VALUE, parse(param, "/" + Integer.MAX_VALUE, 1));
+        Assert.assertNull(parse(param, "/2147483648", 1));
+        Assert.assertNull(parse(param, "/010", 1));
+        Assert.assertNull(parse(param, "/a10", 1));
+        Assert.assertNull(parse(param, "/", 1));
+    }
+
+    @Test
+    public void testLongParam() {
+        LongRouteParam param = new LongRouteParam(":id");
+        Assert.assertEquals(Long.MAX_VALUE, parse(param, "/" + Long.MAX_VALUE, 1));
+        Assert.assertNull(parse(param, "/9223372036854775808", 1));
+    }
+
+    @Test
+    public void testUuidParam() {
+        UuidRouteParam param = new UuidRouteParam(":uuid");
+        UUID uuid = UUID.randomUUID();
+        Assert.assertEquals(uuid, parse(param, "/" + uuid + "/", 1));
+        Assert.assertEquals(uuid, parse(param, "/" + uuid.toString().toUpperCase(), 1));
+        Assert.assertNull(parse(param, "/123e4567-e89b-12d3-a456-42665544000", 1));
+        Assert.assertNull(parse(param, "/123e4567e-89b-12d3-a456-426655440000", 1));
+    }
+
+    @Test
+    public void testSlugParam() {
+        SlugRouteParam param = new SlugRouteParam(":slug");
+        Assert.assertEquals("my-first_post", parse(param, "/my-first_post.html", 1));
+        Assert.assertNull(parse(param, "/%20", 1));
+    }
+
+    @Test
+    public void testEnumParam() {
+        EnumRouteParam<Status> param = new EnumRouteParam<Status>(":status", Status.class);
+        Assert.assertEquals(Status.SHIPPED, parse(param, "/shipped", 1));
+        Assert.assertEquals(Status.SHIPPED_BACK, parse(param, "/shipped_back", 1));
+        Assert.assertEquals(Status.NEW, parse(param, "/NEW/", 1));
+        Assert.assertNull(parse(param, "/old", 1));
+    }
+
+    @Test
+    public void testStringParam() {
+        StringRouteParam param = new StringRouteParam(":query");
+        Assert.assertEquals("a b,c", parse(param, "/a%20b,c/", 1));
+        Assert.assertNull(parse(param, "/ ", 1));
+    }
+
+    @Test
+    public void testRegexParamIsAnchored() {
+        RegexRouteParam param = new RegexRouteParam(":code", "[A-Z]{3}");
+        Assert.assertEquals("ABC", parse(param, "/ABC", 1));
+        Assert.assertNull(parse(param, "/xABC", 1));
+    }
+
+    private static <T> String format(RouteParam<T> param, T value) throws IOException {
+        StringBuilder url = new StringBuilder();
+        param.format(value, url);
+        return url.toString();
+    }
+
+    private static <T> boolean isFormatted(RouteParam<T> param, T value) throws IOException {
+        try {
+            format(param, value);
+            return true;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testFormat() throws IOException {
+        Assert.assertEquals("10", format(new IntRouteParam(":id"), 10));
+        Assert.assertEquals(String.valueOf(Integer.MAX_VALUE), format(new IntRouteParam(":id"), Integer.MAX_VALUE));
+        Assert.assertEquals("1", format(new LongRouteParam(":id"), 1L));
+        Assert.assertEquals(String.valueOf(Long.MAX_VALUE), format(new LongRouteParam(":id"), Long.MAX_VALUE));
+        // values that wouldn't be matched back
+        Assert.assertFalse(isFormatted(new IntRouteParam(":id"), 0));
+        Assert.assertFalse(isFormatted(new IntRouteParam(":id"), Integer.MIN_VALUE));
+        Assert.assertFalse(isFormatted(new LongRouteParam(":id"), -1L));
+
+        UUID uuid = UUID.randomUUID();
+        Assert.assertEquals(uuid.toString(), format(new UuidRouteParam(":uuid"), uuid));
+        Assert.assertEquals("shipped_back", format(new EnumRouteParam<Status>(":status", Status.class), Status.SHIPPED_BACK));
+
+        StringRouteParam string = new StringRouteParam(":query");
+        String value = "a b&c=d/\u00e9\ud83d\ude00";
+        String url = format(string, value);
+        Assert.assertEquals("a%20b%26c%3Dd%2F%C3%A9%F0%9F%98%80", url);
+        Assert.assertEquals(value, parse(string, url, 0));
+    }
+}
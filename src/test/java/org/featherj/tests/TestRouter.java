@@ -0,0 +1,257 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.Request;
+import org.featherj.RequestImpl;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncAction;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.SimpleResult;
+import org.featherj.routes.BatchRoute;
+import org.featherj.routes.HttpMethod;
+import org.featherj.routes.Route;
+import org.featherj.routes.RouteMatch;
+import org.featherj.routes.RouteMatchCache;
+import org.featherj.routes.Router;
+import org.featherj.routes.UrlParseException;
+import org.featherj.routes.params.IntRouteParam;
+import org.featherj.routes.params.StringRouteParam;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+public class TestRouter {
+
+    private static Request request(final String url) {
+        return new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        };
+    }
+
+    private static Route match(Router router, String url) {
+        return router.match(HttpMethod.GET, request(url), router.newMatch());
+    }
+
+    @Test
+    public void testDispatch() throws UrlParseException {
+        Route root = Router.route(null, "/");
+        Route users = Router.route(null, "/users");
+        Route user = Router.route(null, "/users/:id", new IntRouteParam(":id"));
+        Route userEdit = Router.route(null, "/users/:id/edit", new IntRouteParam(":id"));
+        Route usages = Router.route(null, "/usages/:query", new StringRouteParam(":query"));
+        Router router = new Router(new Route[] { root, users, user, userEdit, usages });
+
+        Assert.assertSame(root, match(router, "/"));
+        Assert.assertSame(users, match(router, "/users"));
+        Assert.assertSame(user, match(router, "/users/10"));
+        Assert.assertSame(userEdit, match(router, "/users/10/edit"));
+        Assert.assertSame(usages, match(router, "/usages/abc"));
+        Assert.assertNull(match(router, "/users/"));
+        Assert.assertNull(match(router, "/users/abc"));
+        Assert.assertNull(match(router, "/user"));
+        Assert.assertNull(match(router, "/users/10/edit/"));
+    }
+
+    @Test
+    public void testDeclarationOrderPriority() throws UrlParseException {
+        Route byString = Router.route(null, "/items/:name", new StringRouteParam(":name"));
+        Route byId = Router.route(null, "/items/:id", new IntRouteParam(":id"));
+        Route all = Router.route(null, "/items/*");
+        Route fixed = Router.route(null, "/items/new");
+        Router router = new Router(new Route[] { byId, fixed, all, byString });
+
+        Assert.assertSame(byId, match(router, "/items/10"));
+        Assert.assertSame(fixed, match(router, "/items/new"));
+        Assert.assertSame(all, match(router, "/items/other"));
+
+        router = new Router(new Route[] { byString, byId, all, fixed });
+        Assert.assertSame(byString, match(router, "/items/10"));
+        Assert.assertSame(byString, match(router, "/items/new"));
+        Assert.assertSame(all, match(router, "/items/a/b"));
+    }
+
+    @Test
+    public void testCapturedParams() throws UrlParseException {
+        Route user = Router.route(null, "/users/:id", new IntRouteParam(":id"));
+        Route search = Router.route(null, "/users/:id/search/:query", new IntRouteParam(":id"), new StringRouteParam(":query"));
+        Router router = new Router(new Route[] { user, search });
+
+        RequestImpl request = (RequestImpl) request("/users/15/search/a%20b");
+        RouteMatch match = router.newMatch();
+        Assert.assertSame(search, router.match(HttpMethod.GET, request, match));
+        search.fillParams(request, match);
+
+        Assert.assertEquals(Integer.valueOf(15), request.<Integer>param(":id"));
+        Assert.assertEquals("a b", request.<String>param(":query"));
+        Assert.assertEquals("a b", request.<String>param(search.getParamSlot(":query")));
+    }
+
+    @Test
+    public void testQueryStringRoutes() throws UrlParseException {
+        Route byId = Router.route(null, "/users/get?id=:id", new IntRouteParam(":id"));
+        Route byName = Router.route(null, "/users/get?name=:name", new StringRouteParam(":name"));
+        Route users = Router.route(null, "/users/get");
+        Router router = new Router(new Route[] { byId, byName, users });
+
+        Assert.assertSame(byId, match(router, "/users/get?name=a&id=10"));
+        Assert.assertSame(byName, match(router, "/users/get?name=a&id=x"));
+        Assert.assertSame(users, match(router, "/users/get?other=1"));
+        Assert.assertSame(users, match(router, "/users/get"));
+    }
+
+    @Test
+    public void testMatchCache() throws UrlParseException {
+        Route user = Router.route(null, "/users/:id", new IntRouteParam(":id"));
+        Route guarded = new Route("/files/*") {
+            @Override
+            public ActionResult runAction(Request request) {
+                return null;
+            }
+
+            @Override
+            protected boolean isMatchCacheable() {
+                return false;
+            }
+        };
+        Router router = new Router(new Route[] { user, guarded }, 10);
+
+        RequestImpl request = (RequestImpl) request("/users/10");
+        Assert.assertSame(user, router.resolve(HttpMethod.GET, request));
+        request = (RequestImpl) request("/users/10");
+        Assert.assertSame(user, router.resolve(HttpMethod.GET, request));
+        Assert.assertEquals(Integer.valueOf(10), request.<Integer>param(":id"));
+
+        Assert.assertSame(guarded, router.resolve(HttpMethod.GET, (RequestImpl) request("/files/a")));
+        Assert.assertSame(guarded, router.resolve(HttpMethod.GET, (RequestImpl) request("/files/a")));
+        Assert.assertNull(router.resolve(HttpMethod.GET, (RequestImpl) request("/other")));
+
+        RouteMatchCache cache = router.getMatchCache(HttpMethod.GET);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMatchCacheKeepsRejectedUrlsUncached() throws UrlParseException {
+        final boolean[] exists = new boolean[1];
+        Route file = new Route("/pages/*") {
+            @Override
+            public ActionResult runAction(Request request) {
+                return null;
+            }
+
+            @Override
+            protected boolean acceptsMatch(Request request) {
+                return exists[0];
+            }
+
+            @Override
+            protected boolean isMatchCacheable() {
+                return false;
+            }
+        };
+        Route page = Router.route(null, "/pages/:name", new StringRouteParam(":name"));
+        Router router = new Router(new Route[] { file, page }, 10);
+
+        Assert.assertSame(page, router.resolve(HttpMethod.GET, (RequestImpl) request("/pages/about")));
+        Assert.assertEquals(0, router.getMatchCache(HttpMethod.GET).size());
+        // the file appears
+        exists[0] = true;
+        Assert.assertSame(file, router.resolve(HttpMethod.GET, (RequestImpl) request("/pages/about")));
+    }
+
+    @Test
+    public void testMethodTables() throws UrlParseException {
+        Route getUser = Router.get(null, "/users/:id", new IntRouteParam(":id"));
+        Route postUser = Router.post(null, "/users/:id", new IntRouteParam(":id"));
+        Route anyStatus = Router.route(null, "/status");
+        Router router = new Router(new Route[] { getUser, postUser, anyStatus });
+
+        Request request = request("/users/10");
+        Assert.assertSame(getUser, router.match(HttpMethod.GET, request, router.newMatch()));
+        Assert.assertSame(getUser, router.match(HttpMethod.HEAD, request, router.newMatch()));
+        Assert.assertSame(postUser, router.match(HttpMethod.POST, request, router.newMatch()));
+        Assert.assertNull(router.match(HttpMethod.DELETE, request, router.newMatch()));
+        Assert.assertSame(anyStatus, router.match(HttpMethod.DELETE, request("/status"), router.newMatch()));
+
+        Assert.assertEquals("GET, POST, HEAD", router.getAllowedMethods(request));
+        Assert.assertNull(router.getAllowedMethods(request("/other")));
+    }
+
+    @Test
+    public void testReorderingKeepsPriority() throws Exception {
+        Route byId = Router.get(null, "/items/:id", new IntRouteParam(":id"));
+        Route byName = Router.get(null, "/items/:name", new StringRouteParam(":name"));
+        Route other = Router.get(null, "/other/:name", new StringRouteParam(":name"));
+        Router router = new Router(new Route[] { byId, byName, other }, 0, true);
+
+        for (int i = 0; i < 10; i++) {
+            router.resolve(HttpMethod.GET, (RequestImpl) request("/items/abc"));
+        }
+        router.resolve(HttpMethod.GET, (RequestImpl) request("/items/10"));
+        router.reorderRoutes();
+
+        Assert.assertSame(byId, match(router, "/items/10"));
+        Assert.assertSame(byName, match(router, "/items/abc"));
+        Assert.assertSame(other, match(router, "/other/abc"));
+
+        StringBuilder dump = new StringBuilder();
+        router.dumpRouteStats(dump);
+        Assert.assertTrue(dump.indexOf("GET /items/:name") < dump.indexOf("GET /items/:id"));
+        Assert.assertTrue(dump.toString().contains("90.91%"));
+    }
+
+    @Test
+    public void testAsyncRoute() throws Exception {
+        final CompletableFuture<ActionResult> future = new CompletableFuture<ActionResult>();
+        Route user = Router.asyncRoute(HttpMethod.GET, new AsyncAction() {
+            @Override
+            public CompletionStage<ActionResult> run(Request request) {
+                return future;
+            }
+        }, "/users/:id", new IntRouteParam(":id"));
+        Router router = new Router(new Route[] { user });
+
+        ActionResult result = router.routeAndRun(HttpMethod.GET, (RequestImpl) request("/users/10"));
+        Assert.assertTrue(result instanceof AsyncResult);
+        Assert.assertSame(future, ((AsyncResult) result).getStage());
+        Assert.assertEquals(-1, ((AsyncResult) result).getTimeoutMillis());
+        future.complete(new SimpleResult(200));
+    }
+
+    @Test(expected = UrlParseException.class)
+    public void testAsteriskMustBeLast() throws UrlParseException {
+        Router.route(null, "/css/*/lib");
+    }
+
+    @Test
+    public void testBatchRouteParsing() throws Exception {
+        BatchRoute batch = new BatchRoute("/batch", 2, 3);
+        List<BatchRoute.Part> parts = batch.parse(new BufferedReader(new StringReader("GET /users/1\n\nHEAD /users/2?tab=posts\r\n")));
+        Assert.assertEquals(2, parts.size());
+        Assert.assertEquals(HttpMethod.GET, parts.get(0).getMethod());
+        Assert.assertEquals("/users/1", parts.get(0).getUrl());
+        Assert.assertEquals(HttpMethod.HEAD, parts.get(1).getMethod());
+        Assert.assertEquals("/users/2?tab=posts", parts.get(1).getUrl());
+
+        String[] invalid = {"", "GET", "PATCH /users/1", "GET users/1", "GET /1\nGET /2\nGET /3\nGET /4"};
+        for (String body : invalid) {
+            try {
+                batch.parse(new BufferedReader(new StringReader(body)));
+                Assert.fail(body);
+            }
+            catch (IllegalArgumentException expected) {
+            }
+        }
+        // batches are served by the servlet only
+        Assert.assertEquals(500, batch.runAction(request("/batch")).getStatus());
+        batch.shutdown();
+    }
+}
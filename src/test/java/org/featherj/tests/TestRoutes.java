@@ -1,15 +1,19 @@
 package org.featherj.tests;
 
 import junit.framework.Assert;
+import org.featherj.PageHead;
 import org.featherj.Request;
 import org.featherj.RequestImpl;
 import org.featherj.routes.Route;
+import org.featherj.routes.RouteMatch;
 import org.featherj.routes.Router;
 import org.featherj.routes.UrlParseException;
 import org.featherj.routes.params.IntRouteParam;
 import org.featherj.routes.params.StringRouteParam;
 import org.junit.Test;
 
+import java.io.IOException;
+
 public class TestRoutes {
 
     @Test
@@ -181,4 +185,134 @@ public class TestRoutes {
 
         Assert.assertTrue(r.matches(request));
     }
+
+    @Test
+    public void testParamValuesAreKeptPerMatch() throws UrlParseException {
+        Route r = Router.route(null, "/users/:id/search/:query", new IntRouteParam(":id"), new StringRouteParam(":query"));
+
+        RequestImpl request1 = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users/10/search/a%20b";
+            }
+        };
+        RequestImpl request2 = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users/20/search/c";
+            }
+        };
+
+        RouteMatch match1 = new RouteMatch(r.getParamCount());
+        RouteMatch match2 = new RouteMatch(r.getParamCount());
+        Assert.assertTrue(r.matches(request1, match1));
+        Assert.assertTrue(r.matches(request2, match2));
+        r.fillParams(request1, match1);
+        r.fillParams(request2, match2);
+
+        Assert.assertEquals(Integer.valueOf(10), request1.<Integer>param(":id"));
+        Assert.assertEquals("a b", request1.<String>param(":query"));
+        Assert.assertEquals(Integer.valueOf(20), request2.<Integer>param(":id"));
+        Assert.assertEquals("c", request2.<String>param(":query"));
+    }
+
+    @Test
+    public void testGETStyleParametersInAnyOrder() throws UrlParseException {
+        Route r = Router.route(null, "/users/get?id=:id&limit=:limit", new IntRouteParam(":id"), new IntRouteParam(":limit"));
+
+        RequestImpl request = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users/get?a=1&limit=5&id=10";
+            }
+        };
+        Request missingParamRequest = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users/get?id=10";
+            }
+        };
+
+        RouteMatch match = new RouteMatch(r.getParamCount());
+        Assert.assertTrue(r.matches(request, match));
+        r.fillParams(request, match);
+        Assert.assertEquals(Integer.valueOf(10), request.<Integer>param(":id"));
+        Assert.assertEquals(Integer.valueOf(5), request.<Integer>param(":limit"));
+        Assert.assertEquals("1", request.getQuery().get("a"));
+        Assert.assertFalse(r.matches(missingParamRequest));
+    }
+
+    @Test
+    public void testGETStyleLiteralParameter() throws UrlParseException {
+        Route r = Router.route(null, "/users?sort=name");
+
+        Request request1 = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users?page=2&sort=name";
+            }
+        };
+        Request request2 = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users?sort=names";
+            }
+        };
+
+        Assert.assertTrue(r.matches(request1));
+        Assert.assertFalse(r.matches(request2));
+    }
+
+    @Test
+    public void testUrlGeneration() throws UrlParseException, IOException {
+        Route user = Router.route(null, "/users/:id/edit", new IntRouteParam(":id"));
+        StringBuilder view = new StringBuilder("<a href=\"");
+        user.url(view, 10);
+        Assert.assertEquals("<a href=\"/users/10/edit", view.toString());
+        Assert.assertEquals("/users/10/edit", user.url(10));
+
+        Route search = Router.route(null, "/users/:id/search/:query?page=:page&sort=name",
+            new IntRouteParam(":id"), new StringRouteParam(":query"), new IntRouteParam(":page"));
+        Assert.assertEquals(3, search.getUrlValueCount());
+        String url = search.url(15, "a b", 2);
+        Assert.assertEquals("/users/15/search/a%20b?page=2&sort=name", url);
+
+        RequestImpl request = new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return "/users/15/search/a%20b?page=2&sort=name";
+            }
+        };
+        RouteMatch match = new RouteMatch(search.getParamCount());
+        Assert.assertTrue(search.matches(request, match));
+        search.fillParams(request, match);
+        Assert.assertEquals("a b", request.<String>param(":query"));
+
+        Assert.assertEquals("/", Router.route(null, "/").url());
+        Assert.assertEquals("/css/lib/a%20b.css", Router.route(null, "/css/*").url("lib/a b.css"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUrlGenerationValueCount() throws UrlParseException {
+        Router.route(null, "/users/:id", new IntRouteParam(":id")).url();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUrlGenerationNonPositiveValue() throws UrlParseException {
+        // "/users/0" wouldn't be matched by the route
+        Router.route(null, "/users/:id", new IntRouteParam(":id")).url(new StringBuilder(), 0);
+    }
+
+    @Test
+    public void testEarlyHead() throws Exception {
+        PageHead head = new PageHead("<!DOCTYPE html><html><head><link rel=\"stylesheet\" href=\"/css/site.css\"></head><body>");
+        Route page = Router.get(null, "/users").withEarlyHead(head);
+        Assert.assertSame(head, page.getEarlyHead());
+        Assert.assertNull(Router.get(null, "/").getEarlyHead());
+
+        PageHead custom = head.withLateError("<p>Try again later</p></body></html>");
+        Assert.assertSame(head.getHead(), custom.getHead());
+        Assert.assertEquals("<p>Try again later</p></body></html>", new String(custom.getLateError(), "UTF-8"));
+        Assert.assertTrue(new String(head.getLateError(), "UTF-8").endsWith("</html>\n"));
+    }
 }
@@ -0,0 +1,127 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.SingleFlight;
+import org.featherj.View;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.AsyncResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.SimpleResult;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSingleFlight {
+
+    @Test
+    public void testConcurrentRequestsShareResult() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final Callable<ActionResult> action = new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new SimpleResult(200, new View() {
+                    @Override
+                    public String render() {
+                        return "page";
+                    }
+                });
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<ActionResult> first = executor.submit(new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() throws Exception {
+                return singleFlight.run("/page", action);
+            }
+        });
+        started.await();
+
+        ActionResult duplicate = singleFlight.run("/page", action);
+        Assert.assertTrue(duplicate instanceof AsyncResult);
+        release.countDown();
+
+        ActionResult result = first.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(result instanceof BytesResult);
+        Assert.assertEquals("page", new String(((BytesResult) result).getBody(), "UTF-8"));
+        Assert.assertEquals("text/html;charset=UTF-8", result.getMimeType());
+        Assert.assertSame(result, ((AsyncResult) duplicate).getStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(1, singleFlight.getExecutedCount());
+        Assert.assertEquals(1, singleFlight.getCoalescedCount());
+        Assert.assertEquals(0, singleFlight.getInFlightCount());
+
+        // the result isn't cached
+        singleFlight.run("/page", action);
+        Assert.assertEquals(2, runs.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testErrorsCompleteDuplicates() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        final AssertionError error = new AssertionError("failed");
+        try {
+            singleFlight.run("/page", new Callable<ActionResult>() {
+                @Override
+                public ActionResult call() {
+                    throw error;
+                }
+            });
+            Assert.fail();
+        }
+        catch (AssertionError expected) {
+            Assert.assertSame(error, expected);
+        }
+        Assert.assertEquals(0, singleFlight.getInFlightCount());
+
+        // rendering of the shared result fails
+        try {
+            singleFlight.run("/page", new Callable<ActionResult>() {
+                @Override
+                public ActionResult call() {
+                    return new SimpleResult(200, new View() {
+                        @Override
+                        public String render() {
+                            throw new StackOverflowError();
+                        }
+                    });
+                }
+            });
+            Assert.fail();
+        }
+        catch (StackOverflowError expected) {
+        }
+        Assert.assertEquals(0, singleFlight.getInFlightCount());
+
+        final CompletableFuture<ActionResult> stage = new CompletableFuture<ActionResult>();
+        ActionResult async = singleFlight.run("/page", new Callable<ActionResult>() {
+            @Override
+            public ActionResult call() {
+                return new AsyncResult(stage);
+            }
+        });
+        stage.complete(new SimpleResult(200, new View() {
+            @Override
+            public String render() {
+                throw new StackOverflowError();
+            }
+        }));
+        Assert.assertTrue(((AsyncResult) async).getStage().toCompletableFuture().isCompletedExceptionally());
+        Assert.assertEquals(0, singleFlight.getInFlightCount());
+    }
+}
@@ -0,0 +1,122 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.featherj.ResponseCompressor;
+import org.featherj.actions.BytesResult;
+import org.featherj.routes.StaticAssetCache;
+import org.featherj.routes.StaticResourceIndex;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+public class TestStaticAssetCache {
+
+    private static StaticResourceIndex index(String... namesAndContents) throws IOException {
+        File dir = Files.createTempDirectory("featherj").toFile();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            File file = new File(dir, "assets/" + namesAndContents[i]);
+            file.getParentFile().mkdirs();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(namesAndContents[i + 1].getBytes("UTF-8"));
+            }
+            finally {
+                out.close();
+            }
+        }
+        return StaticResourceIndex.scan("assets", new URLClassLoader(new URL[] {dir.toURI().toURL()}, null));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testPreencodedVariants() throws Exception {
+        String css = repeat("body { margin: 0; }\n", 100);
+        StaticResourceIndex index = index("site.css", css, "logo.png", "not really a png");
+        StaticAssetCache cache = new StaticAssetCache(1024 * 1024, 64 * 1024);
+
+        BytesResult raw = cache.get(index.get("/assets/site.css"));
+        Assert.assertEquals(css, new String(raw.getBody(), "UTF-8"));
+        Assert.assertEquals("text/css", raw.getMimeType());
+        Assert.assertEquals("\"" + index.get("/assets/site.css").getHash() + "\"", raw.getHeaders().get("ETag"));
+        Assert.assertNull(raw.getHeaders().get("Vary"));
+
+        // compressed by the servlet compressor, once per cached asset
+        ResponseCompressor compressor = new ResponseCompressor();
+        BytesResult gzipped = raw.encoded(ResponseCompressor.Coding.GZIP, compressor);
+        Assert.assertEquals("gzip", gzipped.getHeaders().get("Content-Encoding"));
+        Assert.assertTrue(gzipped.getBody().length < raw.getBody().length);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getBody()));
+        byte[] unzipped = new byte[raw.getBody().length];
+        int n = 0;
+        while (n < unzipped.length) {
+            n += in.read(unzipped, n, unzipped.length - n);
+        }
+        Assert.assertEquals(css, new String(unzipped, "UTF-8"));
+        Assert.assertFalse(raw.getHeaders().get("ETag").equals(gzipped.getHeaders().get("ETag")));
+        Assert.assertSame(gzipped, cache.get(index.get("/assets/site.css")).encoded(ResponseCompressor.Coding.GZIP, compressor));
+
+        // images aren't compressed
+        Assert.assertFalse(compressor.isCompressible(cache.get(index.get("/assets/logo.png")).getMimeType()));
+
+        Assert.assertSame(raw, cache.get(index.get("/assets/site.css")));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(0.5, cache.getHitRatio());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCompressedVariantsAreWeighed() throws Exception {
+        String css = repeat("body { margin: 0; }\n", 100);
+        StaticResourceIndex index = index("site.css", css);
+        ResponseCompressor compressor = new ResponseCompressor();
+
+        StaticAssetCache plain = new StaticAssetCache(1024 * 1024, 64 * 1024);
+        BytesResult raw = plain.get(index.get("/assets/site.css"));
+        Assert.assertEquals(raw.getWeight(), plain.getBytes());
+
+        // variants are computed on a miss and counted in the size
+        StaticAssetCache cache = new StaticAssetCache(1024 * 1024, 64 * 1024);
+        BytesResult result = cache.get(index.get("/assets/site.css"), compressor);
+        BytesResult gzipped = result.encoded(ResponseCompressor.Coding.GZIP, compressor);
+        BytesResult deflated = result.encoded(ResponseCompressor.Coding.DEFLATE, compressor);
+        Assert.assertTrue(gzipped != result && deflated != result);
+        Assert.assertTrue(cache.getBytes() >= css.length() + gzipped.getBody().length + deflated.getBody().length);
+        Assert.assertEquals(result.getWeight(), cache.getBytes());
+        Assert.assertSame(gzipped, cache.get(index.get("/assets/site.css"), compressor).encoded(ResponseCompressor.Coding.GZIP, compressor));
+        Assert.assertEquals(result.getWeight(), cache.getBytes());
+    }
+
+    @Test
+    public void testBoundsAndChanges() throws Exception {
+        StaticResourceIndex index = index("a.js", repeat("a", 100), "b.js", repeat("b", 100), "large.js", repeat("c", 1000));
+        StaticAssetCache cache = new StaticAssetCache(16 * 150, 500);
+
+        Assert.assertNull(cache.get(index.get("/assets/large.js")));
+        Assert.assertEquals(1, cache.getBypassed());
+
+        cache.get(index.get("/assets/a.js"));
+        cache.get(index.get("/assets/b.js"));
+        Assert.assertTrue(cache.getBytes() <= 16 * 150);
+        Assert.assertEquals(2 - cache.size(), cache.getEvictions());
+
+        // changed content is reloaded
+        StaticResourceIndex changed = index("a.js", repeat("x", 100));
+        BytesResult result = cache.get(changed.get("/assets/a.js"));
+        Assert.assertEquals(repeat("x", 100), new String(result.getBody(), "UTF-8"));
+    }
+}
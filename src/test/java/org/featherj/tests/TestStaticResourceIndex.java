@@ -0,0 +1,126 @@
+package org.featherj.tests;
+
+import junit.framework.Assert;
+import org.apache.commons.io.IOUtils;
+import org.featherj.RequestImpl;
+import org.featherj.actions.ActionResult;
+import org.featherj.actions.BytesResult;
+import org.featherj.actions.ResourceFileResult;
+import org.featherj.routes.StaticResourceFileRoute;
+import org.featherj.routes.StaticResourceIndex;
+import org.featherj.routes.UrlParseException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+public class TestStaticResourceIndex {
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static RequestImpl request(final String url) {
+        return new RequestImpl(null) {
+            @Override
+            public String getUrl() {
+                return url;
+            }
+        };
+    }
+
+    @Test
+    public void testScanDirectoriesAndJars() throws Exception {
+        File dir = Files.createTempDirectory("featherj").toFile();
+        write(new File(dir, "static/css/site.css"), "body {}");
+        write(new File(dir, "static/site.js"), "var a;");
+        write(new File(dir, "other/secret.txt"), "secret");
+
+        File jar = File.createTempFile("featherj", ".jar");
+        jar.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new JarEntry("static/"));
+            out.putNextEntry(new JarEntry("static/lib/app.js"));
+            out.write("app();".getBytes("UTF-8"));
+            out.putNextEntry(new JarEntry("static/site.js"));
+            out.write("shadowed".getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+
+        URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL(), jar.toURI().toURL()}, null);
+        StaticResourceIndex index = StaticResourceIndex.scan("static", loader);
+        Assert.assertEquals(3, index.size());
+
+        StaticResourceIndex.Resource css = index.get("/static/css/site.css");
+        Assert.assertEquals(7, css.getSize());
+        Assert.assertEquals("text/css", css.getMimeType());
+        Assert.assertEquals(40, css.getHash().length());
+        Assert.assertNotNull(css.getFile());
+
+        // the first classpath root wins
+        StaticResourceIndex.Resource js = index.get("/static/site.js");
+        Assert.assertEquals(6, js.getSize());
+        Assert.assertNotNull(js.getFile());
+        Assert.assertFalse(js.getHash().equals(css.getHash()));
+
+        StaticResourceIndex.Resource app = index.get("/static/lib/app.js");
+        Assert.assertNull(app.getFile());
+        Assert.assertEquals(6, app.getSize());
+        Assert.assertEquals("text/javascript", app.getMimeType());
+        Assert.assertEquals("app();", new String(IOUtils.toByteArray(app.getUrl()), "UTF-8"));
+
+        Assert.assertNull(index.get("/other/secret.txt"));
+        Assert.assertNull(index.get("/static/../other/secret.txt"));
+        Assert.assertEquals(1, index.getRoots().length);
+    }
+
+    @Test
+    public void testRouteServesIndexedResources() throws Exception {
+        StaticResourceFileRoute route = new StaticResourceFileRoute("/META-INF/services/*");
+        RequestImpl request = request("/META-INF/services/javax.annotation.processing.Processor");
+        Assert.assertTrue(route.matches(request));
+        // small assets are cached
+        Assert.assertTrue(route.runAction(request) instanceof BytesResult);
+        Assert.assertSame(route.runAction(request), route.runAction(request));
+
+        ActionResult result = route.withAssetCache(null).runAction(request);
+        Assert.assertTrue(result instanceof ResourceFileResult);
+        Assert.assertTrue(((ResourceFileResult) result).getLength() > 0);
+
+        Assert.assertFalse(route.matches(request("/META-INF/services/missing")));
+    }
+
+    @Test
+    public void testClasspathRootIsRejected() throws Exception {
+        try {
+            new StaticResourceFileRoute("/*");
+            Assert.fail();
+        }
+        catch (UrlParseException e) {
+            Assert.assertTrue(e.getMessage().contains("/*"));
+        }
+        try {
+            StaticResourceIndex.scan("", getClass().getClassLoader());
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}